@@ -0,0 +1,7 @@
+-- Profile images move out of the contact row into a content-addressed image store.
+-- profile_img_hash holds the SHA-256 (lowercase hex) of the stored image.
+-- profile_img is kept until images.ProfileImageMigration has moved every BLOB,
+-- after which it may be dropped:
+--   ALTER TABLE contact DROP COLUMN profile_img;
+
+ALTER TABLE contact ADD COLUMN profile_img_hash CHAR(64) NULL AFTER profile_img;
@@ -0,0 +1,18 @@
+-- Row versions for incremental sync (GET /contact?since=<version>).
+-- change_seq holds the last version handed out; every write takes the next one in its transaction.
+-- Deletes keep the contact row as a tombstone with deleted = 1.
+-- Existing rows start at version 1 so that a first sync with since=0 returns them.
+
+CREATE TABLE change_seq (
+  id TINYINT NOT NULL PRIMARY KEY,
+  value BIGINT NOT NULL
+);
+INSERT INTO change_seq(id, value) VALUES (1, 1);
+
+ALTER TABLE contact
+  ADD COLUMN version BIGINT NOT NULL DEFAULT 1,
+  ADD COLUMN deleted TINYINT(1) NOT NULL DEFAULT 0,
+  ADD INDEX idx_contact_version (version);
+
+ALTER TABLE address
+  ADD COLUMN version BIGINT NOT NULL DEFAULT 1;
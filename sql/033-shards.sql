@@ -0,0 +1,13 @@
+-- Sharding (jdbcShardURLs).  Each shard is a separate database with the full schema, and must hand out only the
+-- contact ids it holds, so that a contact's id tells which shard it is on.
+
+-- Hash placement, N shards: shard i (counting from 0) holds the ids with (id - 1) % N = i.
+-- Set in each shard server's my.cnf, e.g. for the second of 3 shards:
+--   auto_increment_increment = 3
+--   auto_increment_offset = 2
+
+-- Range placement (shardLowerBounds): shard i holds the ids from its lower bound up to the next shard's.
+-- Start each shard's ids at its lower bound, on that shard only, e.g. for a shard starting at 50000000:
+--   ALTER TABLE contact AUTO_INCREMENT = 50000000;
+
+-- Existing contacts must be moved to the shard their id belongs on before sharding is turned on.
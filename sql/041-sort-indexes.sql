@@ -0,0 +1,12 @@
+-- Indexes for sorted listing (GET /contact?sort=name|company|birthdate|city&order=asc|desc&limit=N).
+-- Each contact index leads with deleted, so "WHERE c.deleted = 0 ORDER BY c.name, c.id LIMIT N" reads the
+-- first N entries of the index in order instead of sorting every row.  InnoDB appends the primary key (id)
+-- to secondary indexes, which covers the id tie-break.  MySQL 8 reads these backwards for DESC.
+
+ALTER TABLE contact
+  ADD INDEX idx_contact_name (deleted, name),
+  ADD INDEX idx_contact_company (deleted, company),
+  ADD INDEX idx_contact_birthdate (deleted, birthdate);
+
+ALTER TABLE address
+  ADD INDEX idx_address_city (city);
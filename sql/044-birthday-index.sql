@@ -0,0 +1,8 @@
+-- Day-of-year index for upcoming birthdays (GET /contact/birthdays?days=N).
+-- birth_md is the month and day of the birthdate as month * 100 + day, e.g. 1225 for December 25, so a window
+-- of days is one range of the index, or two when it crosses the end of the year (see BirthdayWindow).
+-- The column is virtual: adding it does not rebuild the table, and only the index stores its values.
+
+ALTER TABLE contact
+  ADD COLUMN birth_md SMALLINT AS (MONTH(birthdate) * 100 + DAYOFMONTH(birthdate)) VIRTUAL,
+  ADD INDEX idx_contact_birth_md (deleted, birth_md);
@@ -0,0 +1,15 @@
+-- Invalidation log for cache coherence across nodes (see InvalidationPoller).
+-- Every insert, update and delete of a contact adds a row in its own transaction, with the write's version as seq
+-- and the node that made it.  Versions commit in order (see 030-row-versions.sql), so each node polls
+-- "WHERE seq > <last seq seen>" on the primary key and misses nothing.  Contacts written together share a seq.
+-- Rows older than invalidationRetentionMs are deleted by the nodes.
+
+CREATE TABLE contact_invalidation (
+  seq BIGINT NOT NULL,
+  contact_id INT NOT NULL,
+  change_type ENUM('INSERT', 'UPDATE', 'DELETE') NOT NULL,
+  node VARCHAR(64) NULL,
+  created TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (seq, contact_id),
+  INDEX idx_contact_invalidation_created (created)
+);
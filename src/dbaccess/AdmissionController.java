@@ -0,0 +1,239 @@
+package dbaccess;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many database operations run at once, adapting the limit to the latency the database shows.
+ *
+ * While operations complete within LATENCY_TOLERANCE times the lowest latency recently seen for their kind,
+ * the limit grows by about one per limit operations.  When they get slower the database is queueing work,
+ * and the limit is cut by BACKOFF.
+ *
+ * Operations over the limit wait in a bounded queue until their deadline.  When the queue is full, or the
+ * deadline passes, they are refused with an OverloadException straight away rather than piling up.
+ *
+ * Expensive operations (SCAN: lists and searches) are shed first: they may only use SCAN_SHARE of the limit
+ * and half of the queue, and do not start while a cheap operation (POINT: reads and writes of one contact) waits.
+ *
+ * This class is thread safe and is shared by every ContactDAO of a web application.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class AdmissionController {
+
+	/**
+	 * How expensive an operation is
+	 */
+	public enum QueryClass { POINT, SCAN }
+
+	/**
+	 * Share of the limit that SCAN operations may use
+	 */
+	private static final double SCAN_SHARE = 0.75;
+
+	/**
+	 * Latency, relative to the lowest recently seen, above which the limit is cut
+	 */
+	private static final double LATENCY_TOLERANCE = 2.0;
+
+	/**
+	 * Factor the limit is cut by
+	 */
+	private static final double BACKOFF = 0.9;
+
+	/**
+	 * Least time between two cuts, so one burst of slow operations only cuts the limit once
+	 */
+	private static final long BACKOFF_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * Lowest latencies are forgotten after one to two windows, so the limit can adapt to a database that has
+	 * become slower for good
+	 */
+	private static final long LATENCY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	/**
+	 * Longest wait for operations without a deadline
+	 */
+	private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * Suggested wait before retrying a refused operation
+	 */
+	private static final int RETRY_AFTER_SECONDS = 1;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition pointTurn = lock.newCondition();
+	private final Condition scanTurn = lock.newCondition();
+
+	private final int maxLimit;
+	private final int queueSize;
+
+	private double limit;
+	private int inFlight = 0;
+	private int pointWaiting = 0;
+	private int scanWaiting = 0;
+
+	/**
+	 * Lowest latency of each QueryClass in the previous and in the current window, 0 if none yet
+	 */
+	private final long[] previousMinLatency = new long[QueryClass.values().length];
+	private final long[] currentMinLatency = new long[QueryClass.values().length];
+	private long windowStart = System.nanoTime();
+	private long lastBackoff = System.nanoTime() - BACKOFF_INTERVAL_NANOS;
+
+	/**
+	 * @param initialLimit - number of operations allowed at once to start with
+	 * @param maxLimit - the most the limit can grow to
+	 * @param queueSize - maximum number of operations waiting
+	 */
+	public AdmissionController(int initialLimit, int maxLimit, int queueSize) {
+		if(initialLimit < 1 || maxLimit < initialLimit || queueSize < 0) {
+			throw new IllegalArgumentException("Need 1 <= initialLimit <= maxLimit and queueSize >= 0");
+		}
+		this.limit = initialLimit;
+		this.maxLimit = maxLimit;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Wait until an operation may start.  Every acquire() must be followed by a release().
+	 * @param queryClass - how expensive the operation is
+	 * @param deadlineNanos - System.nanoTime() by which the operation must start, 0 for none
+	 * @throws OverloadException if the operation is refused
+	 */
+	public void acquire(QueryClass queryClass, long deadlineNanos) throws OverloadException {
+		lock.lock();
+		try {
+			if(mayStart(queryClass)) {
+				inFlight++;
+				return;
+			}
+
+			int waiting = pointWaiting + scanWaiting;
+			if(waiting >= queueSize || (queryClass == QueryClass.SCAN && waiting >= queueSize / 2)) {
+				throw new OverloadException("Database busy", RETRY_AFTER_SECONDS);
+			}
+
+			long remaining = (deadlineNanos != 0) ? deadlineNanos - System.nanoTime() : MAX_WAIT_NANOS;
+			Condition turn = (queryClass == QueryClass.POINT) ? pointTurn : scanTurn;
+			changeWaiting(queryClass, 1);
+			try {
+				while(!mayStart(queryClass)) {
+					if(remaining <= 0) {
+						throw new OverloadException("Timed out waiting for the database", RETRY_AFTER_SECONDS);
+					}
+					remaining = turn.awaitNanos(remaining);
+				}
+				inFlight++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OverloadException("Interrupted waiting for the database", RETRY_AFTER_SECONDS);
+			} finally {
+				changeWaiting(queryClass, -1);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Note that an operation has finished, and adapt the limit to its latency.
+	 * @param queryClass - the class it was acquired with
+	 * @param latencyNanos - how long it took
+	 */
+	public void release(QueryClass queryClass, long latencyNanos) {
+		lock.lock();
+		try {
+			inFlight--;
+			adapt(queryClass, latencyNanos);
+			pointTurn.signalAll();
+			if(pointWaiting == 0) {
+				scanTurn.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of operations currently allowed at once
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of operations running
+	 */
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of operations waiting to start
+	 */
+	public int getWaiting() {
+		lock.lock();
+		try {
+			return pointWaiting + scanWaiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean mayStart(QueryClass queryClass) {
+		if(queryClass == QueryClass.POINT) {
+			return inFlight < (int) limit;
+		}
+		return pointWaiting == 0 && inFlight < Math.max(1, (int) (limit * SCAN_SHARE));
+	}
+
+	private void changeWaiting(QueryClass queryClass, int change) {
+		if(queryClass == QueryClass.POINT) {
+			pointWaiting += change;
+		} else {
+			scanWaiting += change;
+		}
+	}
+
+	private void adapt(QueryClass queryClass, long latencyNanos) {
+		long now = System.nanoTime();
+		if(now - windowStart > LATENCY_WINDOW_NANOS) {
+			System.arraycopy(currentMinLatency, 0, previousMinLatency, 0, currentMinLatency.length);
+			Arrays.fill(currentMinLatency, 0);
+			windowStart = now;
+		}
+
+		int i = queryClass.ordinal();
+		if(currentMinLatency[i] == 0 || latencyNanos < currentMinLatency[i]) {
+			currentMinLatency[i] = latencyNanos;
+		}
+		long minLatency = (previousMinLatency[i] != 0) ? Math.min(previousMinLatency[i], currentMinLatency[i])
+				: currentMinLatency[i];
+
+		if(latencyNanos > minLatency * LATENCY_TOLERANCE) {
+			if(now - lastBackoff >= BACKOFF_INTERVAL_NANOS) {
+				limit = Math.max(1, limit * BACKOFF);
+				lastBackoff = now;
+			}
+		} else if(inFlight + 1 >= limit / 2) {
+			// only grow while the limit is actually being used
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package dbaccess;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+
+import models.Contact;
+
+/**
+ * A run of consecutive days in which to look for birthdays, e.g. today and the next 6 days.
+ *
+ * Birthdays are matched on their month and day only, as month * 100 + day (see monthDay()), which the database
+ * keeps in the indexed birth_md column (see sql/044-birthday-index.sql).  A window crossing the end of the year
+ * matches two ranges, from its first day to December 31 and from January 1 to its last day.  Contacts born on
+ * February 29 celebrate on February 28 in other years.  Windows of a year or more match every birthday.
+ *
+ * Contacts are ordered by their next birthday in the window, then by id.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class BirthdayWindow {
+
+	/**
+	 * Longest window, in days.  Every birthday falls in a window this long.
+	 */
+	public static final int MAX_DAYS = 366;
+
+	private static final int FEBRUARY_28 = 228;
+	private static final int FEBRUARY_29 = 229;
+
+	private final LocalDate first;
+	private final int days;
+	private final int start;
+	private final int end;
+	private final boolean all;
+
+	/**
+	 * @param first - first day of the window, e.g. today
+	 * @param days - number of days in the window, at least 1
+	 */
+	public BirthdayWindow(LocalDate first, int days) {
+		if(days < 1) {
+			throw new IllegalArgumentException("A birthday window needs at least one day");
+		}
+		this.first = first;
+		this.days = days;
+		this.all = days >= MAX_DAYS;
+
+		LocalDate last = first.plusDays(Math.min(days, MAX_DAYS) - 1);
+		this.start = monthDay(first);
+		// February 29 birthdays are on February 28 when there is no February 29
+		this.end = (monthDay(last) == FEBRUARY_28 && !last.isLeapYear()) ? FEBRUARY_29 : monthDay(last);
+	}
+
+	public LocalDate getFirst() {
+		return first;
+	}
+
+	public int getDays() {
+		return days;
+	}
+
+	/**
+	 * @param date - a date
+	 * @return its month and day as month * 100 + day, e.g. 1225 for December 25
+	 */
+	public static int monthDay(LocalDate date) {
+		return date.getMonthValue() * 100 + date.getDayOfMonth();
+	}
+
+	/**
+	 * @param birthdate - a contact's birthdate, or null
+	 * @return true if the contact has a birthday in this window
+	 */
+	public boolean contains(LocalDate birthdate) {
+		if(birthdate == null) {
+			return false;
+		}
+		int monthDay = monthDay(birthdate);
+		return all || (wraps() ? (monthDay >= start || monthDay <= end) : (monthDay >= start && monthDay <= end));
+	}
+
+	/**
+	 * @return the WHERE conditions of a query over contact c matching the birthdays in this window,
+	 * 			with no parameters
+	 */
+	String whereClause() {
+		if(all) {
+			return "AND c.birth_md IS NOT NULL ";
+		}
+		if(wraps()) {
+			return "AND (c.birth_md BETWEEN " + start + " AND 1231 OR c.birth_md BETWEEN 101 AND " + end + ") ";
+		}
+		return "AND c.birth_md BETWEEN " + start + " AND " + end + " ";
+	}
+
+	/**
+	 * @return the ORDER BY columns of a query over contact c, ordering contacts by their next birthday
+	 */
+	String orderBy() {
+		return "c.birth_md < " + start + ", c.birth_md, c.id";
+	}
+
+	/**
+	 * @return orders Contacts the way orderBy() orders rows
+	 */
+	public Comparator<Contact> comparator() {
+		return new Comparator<Contact>() {
+
+			// @Override
+			public int compare(Contact a, Contact b) {
+				int c = Integer.compare(order(a), order(b));
+				return (c != 0) ? c : Integer.compare(a.getId(), b.getId());
+			}
+		};
+	}
+
+	/**
+	 * Helper function tells whether the window crosses the end of the year.
+	 */
+	private boolean wraps() {
+		return end < start;
+	}
+
+	/**
+	 * Helper function places a contact's birthday in the year starting on the first day of the window.
+	 */
+	private int order(Contact contact) {
+		if(contact.getBirthdate() == null) {
+			return Integer.MAX_VALUE;
+		}
+		int monthDay = monthDay(contact.getBirthdate());
+		return (monthDay < start) ? 10000 + monthDay : monthDay;
+	}
+}
@@ -0,0 +1,244 @@
+package dbaccess;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps database connections open between ContactDAO operations, so each operation does not pay for connecting.
+ *
+ * Idle connections are kept per JDBC URL, up to maxIdle per URL.  A connection idle for more than
+ * VALIDATE_AFTER_IDLE_MILLIS is checked before it is reused, and connections older than maxAgeMillis are closed
+ * rather than reused.
+ *
+ * This class is thread safe and is shared by every ContactDAO of a web application.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ConnectionPool {
+
+	/**
+	 * Idle time after which a connection is checked with Connection.isValid() before being reused
+	 */
+	private static final long VALIDATE_AFTER_IDLE_MILLIS = 5000;
+
+	/**
+	 * Seconds isValid() may take
+	 */
+	private static final int VALIDATE_TIMEOUT_SECONDS = 1;
+
+	/**
+	 * A connection, the database it belongs to, and when it was opened and last released
+	 */
+	private static class PooledConnection {
+		final Connection connection;
+		final String url;
+		final long opened;
+		final long idleSince;
+
+		PooledConnection(Connection connection, String url, long opened, long idleSince) {
+			this.connection = connection;
+			this.url = url;
+			this.opened = opened;
+			this.idleSince = idleSince;
+		}
+	}
+
+	private final String jdbcUsername;
+	private final String jdbcPassword;
+	private final int maxIdle;
+	private final long maxAgeMillis;
+
+	/**
+	 * Idle connections of each URL, most recently released first
+	 */
+	private final Map<String, Deque<PooledConnection>> idle = new HashMap<String, Deque<PooledConnection>>();
+
+	/**
+	 * Connections handed out and not yet released
+	 */
+	private final Map<Connection, PooledConnection> borrowed = new HashMap<Connection, PooledConnection>();
+
+	private boolean closed = false;
+
+	/**
+	 * @param jdbcUsername
+	 * @param jdbcPassword
+	 * @param maxIdle - most idle connections kept per URL
+	 * @param maxAgeMillis - connections are closed instead of reused once this old
+	 */
+	public ConnectionPool(String jdbcUsername, String jdbcPassword, int maxIdle, long maxAgeMillis) {
+		this.jdbcUsername = jdbcUsername;
+		this.jdbcPassword = jdbcPassword;
+		this.maxIdle = maxIdle;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * Take an idle connection to a database, or open a new one.  Every connection borrowed must be released.
+	 * @param url - JDBC URL
+	 * @return the connection, in auto-commit mode and not read-only
+	 * @throws SQLException
+	 */
+	public Connection borrow(String url) throws SQLException {
+		long now = System.currentTimeMillis();
+		while(true) {
+			PooledConnection candidate;
+			synchronized(this) {
+				Deque<PooledConnection> connections = idle.get(url);
+				candidate = (connections != null) ? connections.pollFirst() : null;
+			}
+			if(candidate == null) {
+				break;
+			}
+			if(now - candidate.opened < maxAgeMillis && isUsable(candidate, now)) {
+				synchronized(this) {
+					borrowed.put(candidate.connection, candidate);
+				}
+				return candidate.connection;
+			}
+			closeQuietly(candidate.connection);
+		}
+
+		Connection connection = open(url);
+		synchronized(this) {
+			borrowed.put(connection, new PooledConnection(connection, url, now, now));
+		}
+		return connection;
+	}
+
+	/**
+	 * Return a borrowed connection.  It is kept for reuse if it is healthy and there is room, otherwise closed.
+	 * A transaction left open is rolled back.
+	 * @param connection - connection from borrow()
+	 */
+	public void release(Connection connection) {
+		PooledConnection pooled;
+		synchronized(this) {
+			pooled = borrowed.remove(connection);
+		}
+		if(pooled == null) {
+			closeQuietly(connection);
+			return;
+		}
+		try {
+			if(connection.isClosed()) {
+				return;
+			}
+			if(!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			if(connection.isReadOnly()) {
+				connection.setReadOnly(false);
+			}
+		} catch (SQLException e) {
+			closeQuietly(connection);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		synchronized(this) {
+			Deque<PooledConnection> connections = idle.get(pooled.url);
+			if(connections == null) {
+				connections = new ArrayDeque<PooledConnection>();
+				idle.put(pooled.url, connections);
+			}
+			if(!closed && now - pooled.opened < maxAgeMillis && connections.size() < maxIdle) {
+				// reused most recently released first, so surplus connections age out
+				connections.addFirst(new PooledConnection(connection, pooled.url, pooled.opened, now));
+				return;
+			}
+		}
+		closeQuietly(connection);
+	}
+
+	/**
+	 * Open connections to a database ahead of time, so the first requests do not wait for them.
+	 * @param url - JDBC URL
+	 * @param count - number of idle connections wanted, at most maxIdle
+	 * @throws SQLException
+	 */
+	public void warmUp(String url, int count) throws SQLException {
+		List<Connection> connections = new ArrayList<Connection>();
+		try {
+			for(int i = idleCount(url); i < Math.min(count, maxIdle); i++) {
+				connections.add(borrow(url));
+			}
+		} finally {
+			for(Connection connection : connections) {
+				release(connection);
+			}
+		}
+	}
+
+	/**
+	 * @param url - JDBC URL
+	 * @return number of idle connections to the database
+	 */
+	public synchronized int idleCount(String url) {
+		Deque<PooledConnection> connections = idle.get(url);
+		return (connections != null) ? connections.size() : 0;
+	}
+
+	/**
+	 * Close every idle connection and stop keeping released ones.
+	 */
+	public void close() {
+		List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+		synchronized(this) {
+			closed = true;
+			for(Deque<PooledConnection> connections : idle.values()) {
+				toClose.addAll(connections);
+				connections.clear();
+			}
+		}
+		for(PooledConnection connection : toClose) {
+			closeQuietly(connection.connection);
+		}
+	}
+
+	private boolean isUsable(PooledConnection candidate, long now) {
+		if(now - candidate.idleSince < VALIDATE_AFTER_IDLE_MILLIS) {
+			return true;
+		}
+		try {
+			return candidate.connection.isValid(VALIDATE_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private Connection open(String url) throws SQLException {
+		if(url.startsWith("jdbc:mysql:")) {
+			try {
+				Class.forName("com.mysql.cj.jdbc.Driver");
+			} catch (ClassNotFoundException e) {
+				throw new SQLException(e);
+			}
+		}
+
+		Properties properties = new Properties();
+		properties.setProperty("user", jdbcUsername);
+		properties.setProperty("password", jdbcPassword);
+		properties.setProperty("autoReconnect", "true");
+
+		return DriverManager.getConnection(url, properties);
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+}
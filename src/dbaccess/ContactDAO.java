@@ -13,18 +13,56 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 // import java.sql.Date; // identify with java.sql in code because eclipse still infers java.util.Date?
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
+import dbaccess.AdmissionController.QueryClass;
+import images.ImageStore;
+import images.ImageTooLargeException;
 import models.Address;
 import models.Contact;
+import models.ContactDelta;
+import models.ContactInvalidation;
+import models.ContactPatch;
 
 /**
  * This class maintains Contact data in a MySQL database.  This includes CRUD operations and searching/listing all contacts.
  * 
  * Each operation attempts to create a new database connection and closes this connection before returning.
  * 
+ * If an ImageStore is given, profile images are kept in it and the contact row only holds the image's hash
+ * (profile_img_hash).  Otherwise images are kept in the profile_img BLOB.  Rows with a BLOB are still read,
+ * and can be moved into the store with migrateProfileImages().
+ * 
+ * Every write takes the next value of the change_seq counter as the version of the rows it touches, within the
+ * write's transaction.  Deleted contacts are kept as tombstones (deleted = 1) so listChangedSince() can report them.
+ * 
+ * If a ReplicaRouter is set, read-only operations go to a read replica and writes go to the primary (jdbcURL).
+ * 
+ * If an AdmissionController is set, each operation waits for its turn before connecting, and is refused with an
+ * OverloadException if the database is too busy.  If a deadline is set, every statement is given a query timeout
+ * of the time left, and statements are not started after it.
+ * 
+ * If a QueryLog is set, every statement is timed and slow ones are recorded in it.
+ * 
+ * Every write also adds its contacts to the invalidation log (contact_invalidation) in its own transaction, with
+ * the node id if one is set, so other nodes can tell which contacts they hold are stale (see listInvalidationsSince).
+ * 
+ * If a RequestTiming is set, the time spent waiting for admission, connecting, executing statements, reading
+ * profile images and mapping rows is added to it.
+ * 
+ * If a ConnectionPool is set, connections are borrowed from it instead of opened, and returned to it instead of closed.
+ * 
  * @author Rebecca Chandler
  *
  */
@@ -33,12 +71,58 @@ public class ContactDAO {
 	private String jdbcUsername;
 	private String jdbcPassword;
 	private Connection jdbcConnection;
+	private ImageStore imageStore;
+	private ReplicaRouter replicaRouter;
+	private boolean readFromPrimary = false;
+	private int replica = -1;
+	private AdmissionController admissionController;
+	private long deadline = 0;
+	private QueryClass admittedClass = null;
+	private long admittedAt;
+	private QueryLog queryLog;
+	private ConnectionPool connectionPool;
+	private RequestTiming requestTiming;
+	private String nodeId;
 	
 	/**
 	 * Conversion used by date parser
 	 */
 	private static int MILLISEC_PER_DAY = 86400000;
 	
+	/**
+	 * Maps Contact attribute names to their columns in the contact table.  Used to build partial updates.
+	 */
+	private static final Map<String, String> CONTACT_COLUMNS = new HashMap<String, String>();
+	
+	/**
+	 * Maps Address attribute names to their columns in the address table.  Used to build partial updates.
+	 */
+	private static final Map<String, String> ADDRESS_COLUMNS = new HashMap<String, String>();
+	
+	/**
+	 * Selects every column read into a Contact.  The profile_img BLOB is left out, see getProfileImage().
+	 */
+	private static final String SELECT_CONTACT = "SELECT c.id, c.name, c.company, c.profile_img_hash, c.email, "
+			+ "c.birthdate, c.phone_work, c.phone_personal, c.address_id, c.version, c.deleted, "
+			+ "a.line1, a.line2, a.city, a.state, a.zip, a.country "
+			+ "FROM contact c, address a ";
+	
+	static {
+		CONTACT_COLUMNS.put("name", "name");
+		CONTACT_COLUMNS.put("company", "company");
+		CONTACT_COLUMNS.put("email", "email");
+		CONTACT_COLUMNS.put("birthdate", "birthdate");
+		CONTACT_COLUMNS.put("workPhone", "phone_work");
+		CONTACT_COLUMNS.put("personalPhone", "phone_personal");
+		
+		ADDRESS_COLUMNS.put("line1", "line1");
+		ADDRESS_COLUMNS.put("line2", "line2");
+		ADDRESS_COLUMNS.put("city", "city");
+		ADDRESS_COLUMNS.put("state", "state");
+		ADDRESS_COLUMNS.put("zip", "zip");
+		ADDRESS_COLUMNS.put("country", "country");
+	}
+	
 	/**
 	 * Initialize a ContactDAO with credentials necessary to connect to the database.
 	 * @param jdbcURL
@@ -52,24 +136,249 @@ public class ContactDAO {
 	}
 	
 	/**
-	 * Attempts to connect to the MySQL database.
+	 * Initialize a ContactDAO with credentials necessary to connect to the database,
+	 * keeping profile images in an ImageStore.
+	 * @param jdbcURL
+	 * @param jdbcUsername
+	 * @param jdbcPassword
+	 * @param imageStore - where profile images are kept, null to keep them in the database
+	 */
+	public ContactDAO(String jdbcURL, String jdbcUsername, String jdbcPassword, ImageStore imageStore) {
+		this(jdbcURL, jdbcUsername, jdbcPassword);
+		this.imageStore = imageStore;
+	}
+	
+	/**
+	 * Send read-only operations to read replicas.
+	 * @param replicaRouter - chooses the replica for each read
+	 * @param readFromPrimary - true to read from the primary anyway, e.g. so a client sees its own recent writes
+	 */
+	public void setReplicaRouter(ReplicaRouter replicaRouter, boolean readFromPrimary) {
+		this.replicaRouter = replicaRouter;
+		this.readFromPrimary = readFromPrimary;
+	}
+	
+	/**
+	 * Limit the database operations run at once, and give them a deadline.
+	 * @param admissionController - decides when each operation may start, null for no limit
+	 * @param deadline - System.nanoTime() by which all this ContactDAO's statements must finish, 0 for none
+	 */
+	public void setAdmissionController(AdmissionController admissionController, long deadline) {
+		this.admissionController = admissionController;
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Time every statement, keeping the slow ones in a QueryLog.
+	 * @param queryLog - where slow queries are recorded, null to not time statements
+	 */
+	public void setQueryLog(QueryLog queryLog) {
+		this.queryLog = queryLog;
+	}
+	
+	/**
+	 * Reuse connections kept open in a ConnectionPool.
+	 * @param connectionPool - where connections are borrowed from, null to open a new connection for each operation
+	 */
+	public void setConnectionPool(ConnectionPool connectionPool) {
+		this.connectionPool = connectionPool;
+	}
+	
+	/**
+	 * Record where the time of this ContactDAO's operations goes.
+	 * @param requestTiming - phases of the request the operations are part of, null to not record them
+	 */
+	public void setRequestTiming(RequestTiming requestTiming) {
+		this.requestTiming = requestTiming;
+	}
+	
+	/**
+	 * Name the node making this ContactDAO's writes in the invalidation log, so it can skip its own writes.
+	 * @param nodeId - id of this node, at most 64 characters, or null
+	 */
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+	
+	/**
+	 * Attempts to connect to the primary database.
+	 * Once this ContactDAO has connected for a write, its reads also go to the primary.
+	 * @param queryClass - how expensive the operation is, for admission control
+	 * @throws SQLException
+	 */
+	protected void connect(QueryClass queryClass) throws SQLException {
+		readFromPrimary = true;
+		if(jdbcConnection == null || jdbcConnection.isClosed()) {
+			admit(queryClass);
+			long start = System.nanoTime();
+			try {
+				jdbcConnection = openConnection(jdbcURL);
+			} catch (SQLException e) {
+				leave();
+				throw e;
+			} finally {
+				timed(RequestTiming.Phase.DB_CONNECT, start);
+			}
+		}
+	}
+	
+	/**
+	 * Attempts to connect to a database for a read-only operation.
+	 * Connects to the replica chosen by the ReplicaRouter, or to the primary if there is none, if it cannot be
+	 * reached, or if reads must go to the primary.
+	 * @param queryClass - how expensive the operation is, for admission control
 	 * @throws SQLException
 	 */
-	protected void connect() throws SQLException {
+	protected void connectForRead(QueryClass queryClass) throws SQLException {
+		if(replicaRouter == null || readFromPrimary) {
+			connect(queryClass);
+			return;
+		}
 		if(jdbcConnection == null || jdbcConnection.isClosed()) {
+			admit(queryClass);
+			long start = System.nanoTime();
+			replica = replicaRouter.acquire();
+			try {
+				jdbcConnection = openConnection(replicaRouter.getURL(replica));
+				jdbcConnection.setReadOnly(true);
+			} catch (SQLException e) {
+				e.printStackTrace();
+				try {
+					closeConnection();
+				} catch (SQLException e2) {
+					e2.printStackTrace();
+				}
+				replicaRouter.release(replica);
+				replica = -1;
+				try {
+					jdbcConnection = openConnection(jdbcURL);
+				} catch (SQLException e2) {
+					leave();
+					throw e2;
+				}
+			} finally {
+				timed(RequestTiming.Phase.DB_CONNECT, start);
+			}
+		}
+	}
+	
+	/**
+	 * Helper function waits for the AdmissionController to let an operation start, if there is one.
+	 * @param queryClass - how expensive the operation is
+	 * @throws SQLException
+	 */
+	private void admit(QueryClass queryClass) throws SQLException {
+		if(admissionController != null && admittedClass == null) {
+			long start = System.nanoTime();
+			try {
+				admissionController.acquire(queryClass, deadline);
+			} finally {
+				timed(RequestTiming.Phase.DB_WAIT, start);
+			}
+			admittedClass = queryClass;
+			admittedAt = System.nanoTime();
+		}
+	}
+	
+	/**
+	 * Helper function tells the AdmissionController that the current operation has finished.
+	 */
+	private void leave() {
+		if(admittedClass != null) {
+			admissionController.release(admittedClass, System.nanoTime() - admittedAt);
+			admittedClass = null;
+		}
+	}
+	
+	/**
+	 * Helper function prepares a statement with a query timeout from the deadline, timed by the QueryLog.
+	 * @param sql - the statement
+	 * @return the PreparedStatement
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepareStatement(String sql) throws SQLException {
+		return logged(withTimeout(jdbcConnection.prepareStatement(sql)), sql);
+	}
+	
+	/**
+	 * Helper function prepares a statement with a query timeout from the deadline, timed by the QueryLog.
+	 * @param sql - the statement
+	 * @param autoGeneratedKeys - e.g. Statement.RETURN_GENERATED_KEYS
+	 * @return the PreparedStatement
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		return logged(withTimeout(jdbcConnection.prepareStatement(sql, autoGeneratedKeys)), sql);
+	}
+	
+	/**
+	 * Helper function creates a statement with a query timeout from the deadline, timed by the QueryLog.
+	 * @return the Statement
+	 * @throws SQLException
+	 */
+	private Statement createStatement() throws SQLException {
+		return logged(withTimeout(jdbcConnection.createStatement()), null);
+	}
+	
+	/**
+	 * Helper function wraps a statement so the QueryLog and the RequestTiming time it, if there are.
+	 */
+	private <T extends Statement> T logged(T statement, String sql) {
+		T logged = (queryLog != null) ? queryLog.wrap(statement, sql, jdbcConnection) : statement;
+		return (requestTiming != null) ? requestTiming.wrap(logged) : logged;
+	}
+	
+	/**
+	 * Helper function adds the time since start to a phase of the RequestTiming, if there is one.
+	 * @param phase - the phase
+	 * @param start - System.nanoTime() when the phase started
+	 */
+	private void timed(RequestTiming.Phase phase, long start) {
+		if(requestTiming != null) {
+			requestTiming.add(phase, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Helper function sets a statement's query timeout to the time left before the deadline, rounded up to a second.
+	 * @throws OverloadException if the deadline has passed
+	 */
+	private <T extends Statement> T withTimeout(T statement) throws SQLException {
+		if(deadline != 0) {
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0) {
+				statement.close();
+				throw new OverloadException("Request deadline passed", 1);
+			}
+			statement.setQueryTimeout((int) TimeUnit.NANOSECONDS.toSeconds(remaining + TimeUnit.SECONDS.toNanos(1) - 1));
+		}
+		return statement;
+	}
+	
+	/**
+	 * Helper function opens a connection with this ContactDAO's credentials, or borrows one from the ConnectionPool.
+	 * @param url - JDBC URL
+	 * @return the connection
+	 * @throws SQLException
+	 */
+	private Connection openConnection(String url) throws SQLException {
+		if(connectionPool != null) {
+			return connectionPool.borrow(url);
+		}
+		if(url.startsWith("jdbc:mysql:")) {
 			try {
 				Class.forName("com.mysql.cj.jdbc.Driver");
 			} catch (ClassNotFoundException e) {
 				throw new SQLException(e);
 			}
-			
-			Properties properties = new Properties();
-			properties.setProperty("user", jdbcUsername);
-			properties.setProperty("password", jdbcPassword);
-			properties.setProperty("autoReconnect", "true");
-			
-			jdbcConnection = DriverManager.getConnection(jdbcURL, properties);
 		}
+		
+		Properties properties = new Properties();
+		properties.setProperty("user", jdbcUsername);
+		properties.setProperty("password", jdbcPassword);
+		properties.setProperty("autoReconnect", "true");
+		
+		return DriverManager.getConnection(url, properties);
 	}
 	
 	/**
@@ -77,8 +386,31 @@ public class ContactDAO {
 	 * @throws SQLException
 	 */
 	protected void disconnect() throws SQLException {
-		if(jdbcConnection != null && !jdbcConnection.isClosed()) {
-			jdbcConnection.close();
+		if(replica >= 0) {
+			replicaRouter.release(replica);
+			replica = -1;
+		}
+		try {
+			closeConnection();
+		} finally {
+			leave();
+		}
+	}
+	
+	/**
+	 * Helper function closes the connection, or returns it to the ConnectionPool.
+	 * @throws SQLException
+	 */
+	private void closeConnection() throws SQLException {
+		Connection connection = jdbcConnection;
+		jdbcConnection = null;
+		if(connection == null) {
+			return;
+		}
+		if(connectionPool != null) {
+			connectionPool.release(connection);
+		} else if(!connection.isClosed()) {
+			connection.close();
 		}
 	}
 	
@@ -87,65 +419,113 @@ public class ContactDAO {
 	 * 
 	 * Null fields will result in null values in the database.
 	 * If the Conact's Address is null, an Address object with empty fields is created.
+	 * The ids assigned by the database are set on the Contact and its Address.
 	 * 
 	 * @param contact - the contact to insert into the database
 	 * @return true on success
 	 * @throws SQLException
 	 */
 	public boolean insertContact(Contact contact) throws SQLException {
-		String sql1 = "INSERT INTO address(line1, line2, city, state, zip, country) " + 
-				"VALUES(?, ?, ?, ?, ?, ?)";
-		String sql2 = "INSERT INTO contact(name, company, profile_img, email, birthdate, phone_work, phone_personal, address_id) " + 
-				"VALUES (?, ?, ?, ?, ?, ?, ?, LAST_INSERT_ID())";
-		// LAST_INSERT_ID() refers to last auto-increment PK inserted using this connection
-			
-		connect();
-		PreparedStatement statement;
-		
-		Address address = contact.getAddress();
-		if (address == null) {
-			address = new Address(0, "", "", "", "", "", "", "") ;
-			contact.setAddress(address);
+		return insertContacts(Collections.singletonList(contact));
+	}
+	
+	/**
+	 * Inserts several new contacts into the database with one multi-row INSERT per table, in one transaction.
+	 * All the contacts share one version.
+	 * 
+	 * Null fields and Addresses are handled as in insertContact(), and the assigned ids are set on each Contact
+	 * and Address.  This relies on MySQL assigning consecutive auto-increment ids to the rows of one INSERT,
+	 * which holds for plain multi-row INSERTs in every innodb_autoinc_lock_mode.
+	 * 
+	 * @param contacts - the contacts to insert into the database
+	 * @return true on success
+	 * @throws SQLException
+	 */
+	public boolean insertContacts(List<Contact> contacts) throws SQLException {
+		if(contacts.isEmpty()) {
+			return true;
 		}
-
-		statement = jdbcConnection.prepareStatement(sql1);
+		String sql1 = "INSERT INTO address(line1, line2, city, state, zip, country, version) VALUES "
+				+ repeat("(?, ?, ?, ?, ?, ?, ?)", contacts.size());
+		String sql2 = "INSERT INTO contact(name, company, profile_img, email, birthdate, phone_work, phone_personal, profile_img_hash, address_id, version) VALUES "
+				+ repeat("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", contacts.size());
 		
-		statement.setString(1, address.getLine1());
-		statement.setString(2, address.getLine2());
-		statement.setString(3, address.getCity());
-		statement.setString(4, address.getState());
-		statement.setString(5, address.getZip());
-		statement.setString(6, address.getCountry());
-		
-		int result1 = statement.executeUpdate();
-		statement = jdbcConnection.prepareStatement(sql2);
-
-		statement.setString(1, contact.getName());
-		statement.setString(2, contact.getCompany());
-
-		if(contact.getProfileImage() != null) {
-			statement.setBlob(3, new ByteArrayInputStream(contact.getProfileImage()));
-		} else {
-			statement.setNull(3, java.sql.Types.BLOB);
+		for(Contact contact : contacts) {
+			if (contact.getAddress() == null) {
+				contact.setAddress(new Address(0, "", "", "", "", "", "", ""));
+			}
 		}
-
-		statement.setString(4, contact.getEmail());
+			
+		connect(QueryClass.POINT);
+		jdbcConnection.setAutoCommit(false);
+		PreparedStatement statement = null;
+		try {
+			long version = nextVersion();
+			statement = prepareStatement(sql1, Statement.RETURN_GENERATED_KEYS);
+			
+			int offset = 0;
+			for(Contact contact : contacts) {
+				Address address = contact.getAddress();
+				statement.setString(offset + 1, address.getLine1());
+				statement.setString(offset + 2, address.getLine2());
+				statement.setString(offset + 3, address.getCity());
+				statement.setString(offset + 4, address.getState());
+				statement.setString(offset + 5, address.getZip());
+				statement.setString(offset + 6, address.getCountry());
+				statement.setLong(offset + 7, version);
+				offset += 7;
+			}
+			
+			int result1 = statement.executeUpdate();
+			ResultSet keys = statement.getGeneratedKeys();
+			for(Contact contact : contacts) {
+				contact.getAddress().setId(readNextKey(keys));
+			}
+			keys.close();
+			statement.close();
+			statement = prepareStatement(sql2, Statement.RETURN_GENERATED_KEYS);
+			
+			offset = 0;
+			for(Contact contact : contacts) {
+				statement.setString(offset + 1, contact.getName());
+				statement.setString(offset + 2, contact.getCompany());
+				setProfileImage(statement, offset + 3, offset + 8, contact);
+				statement.setString(offset + 4, contact.getEmail());
+				
+				if(contact.getBirthdate() != null) {
+					statement.setDate(offset + 5, toSqlDate(contact.getBirthdate()));
+				} else {
+					statement.setNull(offset + 5, java.sql.Types.DATE);
+				}
+				
+				statement.setString(offset + 6, contact.getWorkPhone());
+				statement.setString(offset + 7, contact.getPersonalPhone());
+				statement.setInt(offset + 9, contact.getAddress().getId());
+				statement.setLong(offset + 10, version);
+				offset += 10;
+			}
 		
-		if(contact.getBirthdate() != null) {
-			statement.setDate(5, new java.sql.Date(contact.getBirthdate().toEpochDay()*MILLISEC_PER_DAY));
-		} else {
-			statement.setNull(5, java.sql.Types.DATE);
+			int result2 = statement.executeUpdate();
+			keys = statement.getGeneratedKeys();
+			List<Integer> ids = new ArrayList<Integer>(contacts.size());
+			for(Contact contact : contacts) {
+				contact.setId(readNextKey(keys));
+				ids.add(contact.getId());
+			}
+			keys.close();
+			logInvalidation(version, ContactInvalidation.Type.INSERT, ids);
+			
+			jdbcConnection.commit();
+			return (result1 == contacts.size())&&(result2 == contacts.size());
+		} catch (SQLException e) {
+			jdbcConnection.rollback();
+			throw e;
+		} finally {
+			if(statement != null) {
+				statement.close();
+			}
+			disconnect();
 		}
-		
-		statement.setString(6, contact.getWorkPhone());
-		statement.setString(7, contact.getPersonalPhone());
-	
-		int result2 = statement.executeUpdate();
-		
-		statement.close();		
-		disconnect();
-		
-		return (result1 > 0)&&(result2 > 0);
 	}
 	
 	/**
@@ -155,8 +535,18 @@ public class ContactDAO {
 	 * @throws SQLException
 	 */
 	public List<Contact> listAllContacts() throws SQLException {
-		String whereClause = "WHERE c.address_id = a.id ";
-		return searchAll(whereClause);
+		return listAllContacts(0);
+	}
+	
+	/**
+	 * List the contacts with the lowest ids.
+	 * 
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return a List<Contact> of at most limit contacts, in id order
+	 * @throws SQLException
+	 */
+	public List<Contact> listAllContacts(int limit) throws SQLException {
+		return searchAll("", Collections.emptyList(), "c.id", limit);
 	}
 	
 	/**
@@ -172,15 +562,46 @@ public class ContactDAO {
 	 * @throws SQLException
 	 */
 	public List<Contact> searchAllContacts(String emailPart, String phonePart) throws SQLException {
-		String whereClause = "WHERE c.address_id = a.id ";
+		return searchAllContacts(emailPart, phonePart, 0);
+	}
+	
+	/**
+	 * Search for contacts as searchAllContacts(emailPart, phonePart), returning only the matches with the lowest ids.
+	 * 
+	 * @param emailPart - part of Contact's email on which to match
+	 * @param phonePart - part of a Contact's name on which to match
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return a List<Contact> of at most limit matching Contacts, in id order
+	 * @throws SQLException
+	 */
+	public List<Contact> searchAllContacts(String emailPart, String phonePart, int limit) throws SQLException {
+		return searchAllContacts(emailPart, phonePart, null, limit);
+	}
+	
+	/**
+	 * Search for contacts as searchAllContacts(emailPart, phonePart), returning the first matches in a given order.
+	 * 
+	 * @param emailPart - part of Contact's email on which to match
+	 * @param phonePart - part of a Contact's name on which to match
+	 * @param sort - order of the contacts returned, null for id order
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return a List<Contact> of at most limit matching Contacts, in that order
+	 * @throws SQLException
+	 */
+	public List<Contact> searchAllContacts(String emailPart, String phonePart, ContactSort sort, int limit) throws SQLException {
+		String whereClause = "";
+		List<Object> values = new ArrayList<Object>();
 		if(emailPart != null) {
-			whereClause = "AND email like \"%" + emailPart + "%\" ";
+			whereClause += "AND c.email LIKE ? ";
+			values.add("%" + emailPart + "%");
 		}
 		if(phonePart != null) {
-			whereClause += "AND phone like \"%" + phonePart + "%\" ";
+			whereClause += "AND (c.phone_work LIKE ? OR c.phone_personal LIKE ?) ";
+			values.add("%" + phonePart + "%");
+			values.add("%" + phonePart + "%");
 		}
 		 
-		return searchAll(whereClause);
+		return searchAll(whereClause, values, (sort != null) ? sort.orderBy() : "c.id", limit);
 	}
 	
 	/**
@@ -199,90 +620,154 @@ public class ContactDAO {
 	 * @throws SQLException
 	 */
 	public List<Contact> searchAllContactsByLocation(String city, String state) throws SQLException {
+		return searchAllContactsByLocation(city, state, 0);
+	}
+	
+	/**
+	 * Search for contacts as searchAllContactsByLocation(city, state), returning only the matches with the lowest ids.
+	 * 
+	 * @param city - full name of a city on which to match
+	 * @param state - full name of state on which to match
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return a List<Contact> of at most limit matching Contacts, in id order
+	 * @throws SQLException
+	 */
+	public List<Contact> searchAllContactsByLocation(String city, String state, int limit) throws SQLException {
+		return searchAllContactsByLocation(city, state, null, limit);
+	}
+	
+	/**
+	 * Search for contacts as searchAllContactsByLocation(city, state), returning the first matches in a given order.
+	 * 
+	 * @param city - full name of a city on which to match
+	 * @param state - full name of state on which to match
+	 * @param sort - order of the contacts returned, null for id order
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return a List<Contact> of at most limit matching Contacts, in that order
+	 * @throws SQLException
+	 */
+	public List<Contact> searchAllContactsByLocation(String city, String state, ContactSort sort, int limit) throws SQLException {
 		
-		String whereClause = "WHERE c.address_id = a.id ";
+		String whereClause = "";
+		List<Object> values = new ArrayList<Object>();
 		if(state != null) {
-			whereClause = "AND state = " + state + " ";
+			whereClause += "AND a.state = ? ";
+			values.add(state);
 		}
 		if(city != null) {
-			whereClause += "AND city = " + city + " ";
+			whereClause += "AND a.city = ? ";
+			values.add(city);
 		}
 		
-		return searchAll(whereClause);
+		return searchAll(whereClause, values, (sort != null) ? sort.orderBy() : "c.id", limit);
 	}
 	
-	private List<Contact> searchAll(String whereClause) throws SQLException {
+	/**
+	 * List the contacts with a birthday in a window of days, by their next birthday.
+	 * 
+	 * Birthdays are found with the index on birth_md (see sql/044-birthday-index.sql), so the time taken
+	 * depends on the number of birthdays in the window rather than on the number of contacts.
+	 * 
+	 * @param window - the days, see BirthdayWindow
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return a List<Contact> of at most limit Contacts, with the nearest birthdays first
+	 * @throws SQLException
+	 */
+	public List<Contact> listBirthdays(BirthdayWindow window, int limit) throws SQLException {
+		return searchAll(window.whereClause(), Collections.emptyList(), window.orderBy(), limit);
+	}
+	
+	/**
+	 * Helper function lists the contacts matching extra conditions.  Deleted contacts are left out.
+	 * With a limit, the database stops after the first limit rows of an index in the sort order
+	 * rather than sorting every match.
+	 * 
+	 * @param whereClause - conditions to add to the WHERE clause, each starting with AND.  May be empty.
+	 * @param values - values of the conditions' parameters, in order
+	 * @param orderBy - ORDER BY columns, e.g. from ContactSort.orderBy()
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return a List<Contact> of matching Contacts
+	 * @throws SQLException
+	 */
+	private List<Contact> searchAll(String whereClause, List<Object> values, String orderBy, int limit) throws SQLException {
 		List<Contact> listContact = new ArrayList<Contact>();
 		
-		String sql = "SELECT c.*, a.line1, a.line2, a.city, a.state,  a.zip, a.country "
-				+ "FROM contact c, address a "
-				+  whereClause;
-		
-		connect();
+		String sql = SELECT_CONTACT
+				+ "WHERE c.address_id = a.id AND c.deleted = 0 "
+				+ whereClause
+				+ "ORDER BY " + orderBy
+				+ ((limit > 0) ? " LIMIT ?" : "");
 		
-		Statement statement = jdbcConnection.createStatement();
-		ResultSet resultSet = statement.executeQuery(sql);
-		
-		Contact contact = null;
-		Address address = null;
-		
-		while (resultSet.next()) {
-			int id = resultSet.getInt("id");
-			String name = resultSet.getString("name");
-			String company = resultSet.getString("company");
-			Blob profileImgBlob = resultSet.getBlob("profile_img");
-			String email = resultSet.getString("email");
-			Date birthdateSQL = resultSet.getDate("birthdate");
-			String workPhone = resultSet.getString("phone_work");
-			String personalPhone = resultSet.getString("phone_personal");
-			int addressId = resultSet.getInt("address_id");
-			
-			String line1 = resultSet.getString("line1");
-			String line2 = resultSet.getString("line2");
-			String city = resultSet.getString("city");
-			String state = resultSet.getString("state");
-			String zip = resultSet.getString("zip");
-			String country = resultSet.getString("country");
-
-			byte[] profileImg = parseBlob(profileImgBlob);
-			LocalDate birthdate = parseDate(birthdateSQL);
+		connectForRead(QueryClass.SCAN);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			int index = 1;
+			for(Object value : values) {
+				setParameter(statement, index++, value);
+			}
+			if(limit > 0) {
+				statement.setInt(index, limit);
+			}
+			ResultSet resultSet = statement.executeQuery();
 			
-			address = new Address(addressId, line1, line2, "", city, state, zip, country);
-			contact = new Contact(id, name, company, profileImg, email,
-					birthdate, workPhone, personalPhone, address);
+			long start = System.nanoTime();
+			while (resultSet.next()) {
+				listContact.add(readContact(resultSet));
+			}
+			timed(RequestTiming.Phase.MAP, start);
 			
-			listContact.add(contact);
+			resultSet.close();
+			statement.close();
+		} finally {
+			disconnect();
 		}
 		
-		resultSet.close();
-		statement.close();
-		
-		disconnect();
-		
 		return listContact;
 	}
 	
 	/**
 	 * Delete the Contact identified by an id
 	 * 
+	 * The contact row is kept as a tombstone, with its fields, its address and its image reference cleared,
+	 * so that the delete is reported by listChangedSince().
+	 * 
 	 * @param id - Contact.id attribute value.  Refers to a contact's primary key.
 	 * @return true on success
 	 * @throws SQLException
 	 */
 	public boolean deleteContact(int id) throws SQLException {
-		String sql = "DELETE c, a "
-				+ "FROM contact c, address a "
-				+ "WHERE c.id = ? AND c.address_id = a.id ";
+		String sql = "UPDATE contact c, address a "
+				+ "SET c.deleted = 1, c.version = ?, c.name = NULL, c.company = NULL, c.profile_img = NULL, "
+				+ "c.profile_img_hash = NULL, c.email = NULL, c.birthdate = NULL, c.phone_work = NULL, c.phone_personal = NULL, "
+				+ "a.version = ?, a.line1 = NULL, a.line2 = NULL, a.city = NULL, a.state = NULL, a.zip = NULL, a.country = NULL "
+				+ "WHERE c.id = ? AND c.address_id = a.id AND c.deleted = 0";
 		
-		connect();
+		connect(QueryClass.POINT);
+		jdbcConnection.setAutoCommit(false);
 		
-		PreparedStatement statement = jdbcConnection.prepareStatement(sql);
-		statement.setInt(1, id);
-		
-		boolean rowDeleted = statement.executeUpdate() > 0;
-		statement.close();
-		disconnect();
-		return rowDeleted;
+		PreparedStatement statement = null;
+		try {
+			long version = nextVersion();
+			statement = prepareStatement(sql);
+			statement.setLong(1, version);
+			statement.setLong(2, version);
+			statement.setInt(3, id);
+			
+			boolean rowDeleted = statement.executeUpdate() > 0;
+			if(rowDeleted) {
+				logInvalidation(version, ContactInvalidation.Type.DELETE, Collections.singletonList(id));
+			}
+			jdbcConnection.commit();
+			return rowDeleted;
+		} catch (SQLException e) {
+			jdbcConnection.rollback();
+			throw e;
+		} finally {
+			if(statement != null) {
+				statement.close();
+			}
+			disconnect();
+		}
 	}
 	
 	/**
@@ -293,56 +778,493 @@ public class ContactDAO {
 	 * @throws SQLException
 	 */
 	public boolean updateContact(Contact contact) throws SQLException {
+		return updateContact(contact, true);
+	}
+	
+	/**
+	 * Update the attribute values of a given Contact identified by Contact.id
+	 * 
+	 * @param contact - the Contact whose updates will be pushed to the database.  Identified by Contact.id.
+	 * @param replaceProfileImage - false to keep the stored profile image, ignoring the Contact's
+	 * @return true on success
+	 * @throws SQLException
+	 */
+	public boolean updateContact(Contact contact, boolean replaceProfileImage) throws SQLException {
 		String sql = "UPDATE contact c, address a " + 
-				"SET c.name = ?, c.company = ?, c.profile_img = ?, c.email = ?, " + 
+				"SET c.name = ?, c.company = ?, c.email = ?, " + 
 				"c.birthdate = ?, c.phone_work = ?, c.phone_personal = ?, " +
-				"a.line1 = ?, a.line2 = ?, a.city = ?, a.state = ?, a.zip = ?, a.country = ? " + 
-				"WHERE c.id = ? AND a.id = c.address_id";
-		
-		connect();
-		PreparedStatement statement = jdbcConnection.prepareStatement(sql);
+				"a.line1 = ?, a.line2 = ?, a.city = ?, a.state = ?, a.zip = ?, a.country = ?, " + 
+				(replaceProfileImage ? "c.profile_img = ?, c.profile_img_hash = ?, " : "") +
+				"c.version = ?, a.version = ? " + 
+				"WHERE c.id = ? AND a.id = c.address_id AND c.deleted = 0";
 		
 		Address address = contact.getAddress();
 		if (address == null) {
 			address = new Address(0, "", "", "", "", "", "", "");
 			contact.setAddress(address);
 		}
+		
+		connect(QueryClass.POINT);
+		jdbcConnection.setAutoCommit(false);
+		PreparedStatement statement = null;
+		try {
+			long version = nextVersion();
+			statement = prepareStatement(sql);
 
-		statement.setString(1, contact.getName());
-		statement.setString(2,  contact.getCompany());
+			statement.setString(1, contact.getName());
+			statement.setString(2,  contact.getCompany());
+			statement.setString(3, contact.getEmail());
 		
-		if(contact.getProfileImage() != null) {
-			statement.setBlob(3, new ByteArrayInputStream(contact.getProfileImage()));
-		} else {
-			statement.setNull(3, java.sql.Types.BLOB);
-		}
+			if(contact.getBirthdate() != null) {
+				statement.setDate(4, toSqlDate(contact.getBirthdate()));
+			} else {
+				statement.setNull(4, java.sql.Types.DATE);
+			}
+			statement.setString(5, contact.getWorkPhone());
+			statement.setString(6, contact.getPersonalPhone());
 
-		statement.setString(4, contact.getEmail());
 		
-		if(contact.getBirthdate() != null) {
-			statement.setDate(5, new java.sql.Date(contact.getBirthdate().toEpochDay()*MILLISEC_PER_DAY));
+			statement.setString(7, address.getLine1());
+			statement.setString(8, address.getLine2());
+			statement.setString(9, address.getCity());
+			statement.setString(10, address.getState());
+			statement.setString(11, address.getZip());
+			statement.setString(12, address.getCountry());
+			
+			int index = 13;
+			if(replaceProfileImage) {
+				setProfileImage(statement, index, index + 1, contact);
+				index += 2;
+			}
+		
+			statement.setLong(index++, version);
+			statement.setLong(index++, version);
+			statement.setInt(index, contact.getId());
+		
+			boolean rowUpdated = statement.executeUpdate() > 0;
+			if(rowUpdated) {
+				logInvalidation(version, ContactInvalidation.Type.UPDATE, Collections.singletonList(contact.getId()));
+			}
+			jdbcConnection.commit();
+			return rowUpdated;
+		} catch (SQLException e) {
+			jdbcConnection.rollback();
+			throw e;
+		} finally {
+			if(statement != null) {
+				statement.close();
+			}
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Replace the profile image of the Contact identified by id with an image read from a stream.
+	 * 
+	 * With an image store the stream is written straight into it and only the image's hash is kept in the row.
+	 * The contact is looked up on the primary first, since nothing removes images from the store.
+	 * Otherwise the image is read into memory and kept in the profile_img BLOB.
+	 * 
+	 * @param id - Contact.id attribute value.  Refers to a contact's primary key.
+	 * @param is - stream of the image file contents.  Not closed.
+	 * @param maxBytes - largest image accepted
+	 * @return true if the contact exists
+	 * @throws ImageTooLargeException if the stream holds more than maxBytes
+	 * @throws IOException if the image cannot be read or stored
+	 * @throws SQLException
+	 */
+	public boolean updateProfileImage(int id, InputStream is, long maxBytes) throws SQLException, IOException {
+		String sql = "UPDATE contact SET profile_img = ?, profile_img_hash = ?, version = ? WHERE id = ? AND deleted = 0";
+		
+		byte[] img = null;
+		String hash = null;
+		if(imageStore != null) {
+			// an unknown id must not leave its upload in the store
+			readFromPrimary = true;
+			if(!contactExists(id)) {
+				return false;
+			}
+			hash = imageStore.put(is, maxBytes);
 		} else {
-			statement.setNull(5, java.sql.Types.DATE);
+			img = readImage(is, maxBytes);
+		}
+		
+		connect(QueryClass.POINT);
+		jdbcConnection.setAutoCommit(false);
+		try {
+			long version = nextVersion();
+			boolean rowUpdated = executePatch(sql, Arrays.<Object>asList(img, hash, version), id);
+			if(rowUpdated) {
+				logInvalidation(version, ContactInvalidation.Type.UPDATE, Collections.singletonList(id));
+			}
+			jdbcConnection.commit();
+			return rowUpdated;
+		} catch (SQLException e) {
+			jdbcConnection.rollback();
+			throw e;
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Apply a partial update to the Contact identified by id.
+	 * 
+	 * Only the columns named in the patch are written.  The address table is only updated when the patch
+	 * has address fields, and the profile image columns are only rewritten when the patch supplies an image.
+	 * Both statements run in one transaction, which also bumps the contact's version.
+	 * 
+	 * @param id - Contact.id attribute value.  Refers to a contact's primary key.
+	 * @param patch - the fields to update
+	 * @return true if the contact exists
+	 * @throws SQLException
+	 */
+	public boolean patchContact(int id, ContactPatch patch) throws SQLException {
+		if(patch.isEmpty()) {
+			return contactExists(id);
 		}
-		statement.setString(6, contact.getWorkPhone());
-		statement.setString(7, contact.getPersonalPhone());
-
 		
-		statement.setString(8, address.getLine1());
-		statement.setString(9, address.getLine2());
-		statement.setString(10, address.getCity());
-		statement.setString(11, address.getState());
-		statement.setString(12, address.getZip());
-		statement.setString(13, address.getCountry());
+		// bound in the order patchStatements() names the columns
+		List<Object> contactValues = new ArrayList<Object>(patch.getContactFields().values());
+		if(patch.isProfileImageSet()) {
+			byte[] img = patch.getProfileImage();
+			String hash = null;
+			if(img != null && imageStore != null) {
+				hash = storeImage(img);
+				img = null;
+			}
+			contactValues.add(img);
+			contactValues.add(hash);
+		}
+		List<Object> addressValues = new ArrayList<Object>(patch.getAddressFields().values());
+		List<String> statements = patchStatements(patch);
 		
-		statement.setInt(14, contact.getId());
+		connect(QueryClass.POINT);
+		jdbcConnection.setAutoCommit(false);
+		
+		boolean rowUpdated = false;
+		try {
+			long version = nextVersion();
+			contactValues.add(version);
+			rowUpdated = executePatch(statements.get(0), contactValues, id);
+			
+			if(rowUpdated && statements.size() > 1) {
+				addressValues.add(version);
+				executePatch(statements.get(1), addressValues, id);
+			}
+			if(rowUpdated) {
+				logInvalidation(version, ContactInvalidation.Type.UPDATE, Collections.singletonList(id));
+			}
+			jdbcConnection.commit();
+		} catch (SQLException e) {
+			jdbcConnection.rollback();
+			throw e;
+		} finally {
+			disconnect();
+		}
 		
-		boolean rowUpdated = statement.executeUpdate() > 0;
-		statement.close();
-		disconnect();
 		return rowUpdated;
 	}
 	
+	/**
+	 * Build the UPDATE statements of a partial update, setting only the columns named in the patch.
+	 * 
+	 * The contact statement sets the patched contact columns, then profile_img and profile_img_hash if the patch
+	 * supplies an image, then version.  The address statement is only built when the patch has address fields,
+	 * and sets them, then version.  Each statement's last parameter is the contact id.
+	 * 
+	 * @param patch - the fields to update
+	 * @return the contact statement followed by the address statement, if any; empty if the patch is empty
+	 */
+	public static List<String> patchStatements(ContactPatch patch) {
+		List<String> statements = new ArrayList<String>();
+		if(patch.isEmpty()) {
+			return statements;
+		}
+		
+		List<String> contactColumns = new ArrayList<String>();
+		for(String field : patch.getContactFields().keySet()) {
+			contactColumns.add(CONTACT_COLUMNS.get(field));
+		}
+		if(patch.isProfileImageSet()) {
+			contactColumns.add("profile_img");
+			contactColumns.add("profile_img_hash");
+		}
+		// contact.version is bumped even when only the address changes, since listChangedSince() follows it
+		contactColumns.add("version");
+		statements.add("UPDATE contact SET " + assignments(contactColumns) + " WHERE id = ? AND deleted = 0");
+		
+		if(!patch.getAddressFields().isEmpty()) {
+			List<String> addressColumns = new ArrayList<String>();
+			for(String field : patch.getAddressFields().keySet()) {
+				addressColumns.add(ADDRESS_COLUMNS.get(field));
+			}
+			addressColumns.add("version");
+			statements.add("UPDATE address SET " + assignments(addressColumns)
+					+ " WHERE id = (SELECT address_id FROM contact WHERE id = ?)");
+		}
+		return statements;
+	}
+	
+	/**
+	 * List the changes made after a given version, for incremental sync.
+	 * 
+	 * Writes are versioned in commit order (see nextVersion()), so a client that passes the version returned
+	 * by its last call sees every later change exactly once.  Uses the index on contact.version.
+	 * 
+	 * @param since - version returned by a previous call, or 0 to list every contact
+	 * @return the contacts inserted or updated, and the ids deleted, after since
+	 * @throws SQLException
+	 */
+	public ContactDelta listChangedSince(long since) throws SQLException {
+		String sql = SELECT_CONTACT
+				+ "WHERE c.version > ? AND c.address_id = a.id "
+				+ "ORDER BY c.version";
+		
+		connectForRead(QueryClass.SCAN);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			statement.setLong(1, since);
+			
+			ResultSet resultSet = statement.executeQuery();
+			
+			long version = since;
+			List<Contact> contacts = new ArrayList<Contact>();
+			List<Integer> deleted = new ArrayList<Integer>();
+			long start = System.nanoTime();
+			while (resultSet.next()) {
+				version = Math.max(version, resultSet.getLong("version"));
+				if(resultSet.getBoolean("deleted")) {
+					deleted.add(resultSet.getInt("id"));
+				} else {
+					contacts.add(readContact(resultSet));
+				}
+			}
+			timed(RequestTiming.Phase.MAP, start);
+			
+			resultSet.close();
+			statement.close();
+			return new ContactDelta(version, contacts, deleted);
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * List the entries of the invalidation log after a given seq, in seq order.
+	 * 
+	 * Reads the primary key of contact_invalidation only.  Contacts written together share a seq, so all the
+	 * entries of the last seq are returned even if that makes more than limit.  Entries are read from the primary,
+	 * as a replica may not have the latest yet.
+	 * 
+	 * @param seq - seq of the last entry already read, or getLatestInvalidation() to start from now
+	 * @param limit - maximum number of seqs read
+	 * @return the entries
+	 * @throws SQLException
+	 */
+	public List<ContactInvalidation> listInvalidationsSince(long seq, int limit) throws SQLException {
+		String sql = "SELECT seq, contact_id, change_type, node FROM contact_invalidation "
+				+ "WHERE seq > ? AND seq <= (SELECT MAX(seq) FROM "
+				+ "(SELECT seq FROM contact_invalidation WHERE seq > ? ORDER BY seq LIMIT ?) page) "
+				+ "ORDER BY seq, contact_id";
+		
+		connect(QueryClass.POINT);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			statement.setLong(1, seq);
+			statement.setLong(2, seq);
+			statement.setInt(3, limit);
+			
+			ResultSet resultSet = statement.executeQuery();
+			
+			List<ContactInvalidation> invalidations = new ArrayList<ContactInvalidation>();
+			while (resultSet.next()) {
+				invalidations.add(new ContactInvalidation(resultSet.getLong("seq"), resultSet.getInt("contact_id"),
+						ContactInvalidation.Type.valueOf(resultSet.getString("change_type")), resultSet.getString("node")));
+			}
+			
+			resultSet.close();
+			statement.close();
+			return invalidations;
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * @return seq of the newest entry of the invalidation log, 0 if it is empty
+	 * @throws SQLException
+	 */
+	public long getLatestInvalidation() throws SQLException {
+		String sql = "SELECT MAX(seq) FROM contact_invalidation";
+		
+		connect(QueryClass.POINT);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			ResultSet resultSet = statement.executeQuery();
+			resultSet.next();
+			long seq = resultSet.getLong(1);
+			
+			resultSet.close();
+			statement.close();
+			return seq;
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Delete old entries of the invalidation log.  Their age is taken from the database's clock.
+	 * @param retentionSeconds - entries older than this are deleted
+	 * @param batchSize - maximum number of entries deleted
+	 * @return number of entries deleted
+	 * @throws SQLException
+	 */
+	public int pruneInvalidations(long retentionSeconds, int batchSize) throws SQLException {
+		String sql = "DELETE FROM contact_invalidation WHERE created < CURRENT_TIMESTAMP - INTERVAL ? SECOND LIMIT ?";
+		
+		connect(QueryClass.POINT);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			statement.setLong(1, retentionSeconds);
+			statement.setInt(2, batchSize);
+			int deleted = statement.executeUpdate();
+			statement.close();
+			return deleted;
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Helper function takes the next version number from the change_seq counter.
+	 * 
+	 * Must be called inside a transaction.  The counter row stays locked until the transaction ends,
+	 * so writes commit in version order and a reader never sees a version before a smaller one is visible.
+	 * 
+	 * @return the new version
+	 * @throws SQLException
+	 */
+	private long nextVersion() throws SQLException {
+		Statement statement = createStatement();
+		try {
+			statement.executeUpdate("UPDATE change_seq SET value = LAST_INSERT_ID(value + 1) WHERE id = 1");
+			ResultSet resultSet = statement.executeQuery("SELECT LAST_INSERT_ID()");
+			resultSet.next();
+			long version = resultSet.getLong(1);
+			resultSet.close();
+			return version;
+		} finally {
+			statement.close();
+		}
+	}
+	
+	/**
+	 * Helper function adds contacts changed by a write to the invalidation log.
+	 * Must be called inside the write's transaction, so the entries commit with it.
+	 * 
+	 * @param version - the write's version, from nextVersion()
+	 * @param type - how the contacts were changed
+	 * @param ids - Contact.id values
+	 * @throws SQLException
+	 */
+	private void logInvalidation(long version, ContactInvalidation.Type type, List<Integer> ids) throws SQLException {
+		String sql = "INSERT INTO contact_invalidation(seq, contact_id, change_type, node) VALUES "
+				+ repeat("(?, ?, ?, ?)", ids.size());
+		PreparedStatement statement = prepareStatement(sql);
+		try {
+			int offset = 0;
+			for(int id : ids) {
+				statement.setLong(offset + 1, version);
+				statement.setInt(offset + 2, id);
+				statement.setString(offset + 3, type.name());
+				statement.setString(offset + 4, nodeId);
+				offset += 4;
+			}
+			statement.executeUpdate();
+		} finally {
+			statement.close();
+		}
+	}
+	
+	/**
+	 * Check whether a Contact with the given id exists.
+	 * @param id -  Contact.id attribute value.  Refers to a contact's primary key.
+	 * @return true if found
+	 * @throws SQLException
+	 */
+	public boolean contactExists(int id) throws SQLException {
+		String sql = "SELECT 1 FROM contact WHERE id = ? AND deleted = 0";
+		
+		connectForRead(QueryClass.POINT);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			statement.setInt(1, id);
+			
+			ResultSet resultSet = statement.executeQuery();
+			boolean exists = resultSet.next();
+			
+			resultSet.close();
+			statement.close();
+			return exists;
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Helper function runs one UPDATE statement of a partial update.
+	 * @param sql - UPDATE statement whose last parameter is the contact id
+	 * @param values - values for the SET clause, in order
+	 * @param id - Contact.id
+	 * @return true if a row matched
+	 * @throws SQLException
+	 */
+	private boolean executePatch(String sql, List<Object> values, int id) throws SQLException {
+		PreparedStatement statement = prepareStatement(sql);
+		try {
+			int index = 1;
+			for(Object value : values) {
+				setParameter(statement, index++, value);
+			}
+			statement.setInt(index, id);
+			return statement.executeUpdate() > 0;
+		} finally {
+			statement.close();
+		}
+	}
+	
+	/**
+	 * Helper function joins column names into a SET clause, e.g. "name = ?, email = ?"
+	 */
+	private static String assignments(List<String> columns) {
+		StringBuilder sb = new StringBuilder();
+		for(String column : columns) {
+			if(sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(column).append(" = ?");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Helper function binds a String, Long, LocalDate or byte[] (BLOB) value, or null, to a statement parameter.
+	 */
+	private static void setParameter(PreparedStatement statement, int index, Object value) throws SQLException {
+		if(value == null) {
+			statement.setNull(index, java.sql.Types.NULL);
+		} else if(value instanceof Long) {
+			statement.setLong(index, (Long) value);
+		} else if(value instanceof LocalDate) {
+			statement.setDate(index, toSqlDate((LocalDate) value));
+		} else if(value instanceof byte[]) {
+			statement.setBlob(index, new ByteArrayInputStream((byte[]) value));
+		} else {
+			statement.setString(index, value.toString());
+		}
+	}
+	
 	/**
 	 * Retrieve a Contact referred to by its Id
 	 * @param id -  Contact.id attribute value.  Refers to a contact's primary key.
@@ -351,49 +1273,319 @@ public class ContactDAO {
 	 */
 	public Contact getContact(int id) throws SQLException {
 		Contact contact = null;
-		Address address = null;
-		String sql = "SELECT c.*, a.line1, a.line2, a.city, a.state,  a.zip, a.country "
-				+ "FROM contact c, address a "
-				+ "WHERE c.id = ? and c.address_id = a.id";
-		
-		connect();
-		
-		PreparedStatement statement = jdbcConnection.prepareStatement(sql);
-		statement.setInt(1, id);
-		
-		ResultSet resultSet = statement.executeQuery();
-		
-		if (resultSet.next()) {
-			// int contact_id = resultSet.getInt("id");
-			String name = resultSet.getString("name");
-			String company = resultSet.getString("company");
-			Blob profileImg = resultSet.getBlob("profile_img");
-			String email = resultSet.getString("email");
-			Date birthdateSQL = resultSet.getDate("birthdate");
-			String workPhone = resultSet.getString("phone_work");
-			String personalPhone = resultSet.getString("phone_personal");
-			int addressId = resultSet.getInt("address_id");
-			String line1 = resultSet.getString("line1");
-			String line2 = resultSet.getString("line2");
-			String city = resultSet.getString("city");
-			String state = resultSet.getString("state");
-			String zip = resultSet.getString("zip");
-			String country = resultSet.getString("country");
+		String sql = SELECT_CONTACT
+				+ "WHERE c.id = ? and c.address_id = a.id AND c.deleted = 0";
+		
+		connectForRead(QueryClass.POINT);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			statement.setInt(1, id);
+			
+			ResultSet resultSet = statement.executeQuery();
+			
+			long start = System.nanoTime();
+			if (resultSet.next()) {
+				contact = readContact(resultSet);
+			}
+			timed(RequestTiming.Phase.MAP, start);
+			
+			resultSet.close();
+			statement.close();
+			return contact;
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Retrieve several Contacts by their Ids with one query.
+	 * @param ids - Contact.id attribute values, without duplicates
+	 * @return the Contacts found, by id.  Ids not found are left out.
+	 * @throws SQLException
+	 */
+	public Map<Integer, Contact> getContacts(Collection<Integer> ids) throws SQLException {
+		Map<Integer, Contact> contacts = new HashMap<Integer, Contact>();
+		if(ids.isEmpty()) {
+			return contacts;
+		}
+		String sql = SELECT_CONTACT
+				+ "WHERE c.id IN (" + repeat("?", ids.size()) + ") and c.address_id = a.id AND c.deleted = 0";
+		
+		connectForRead(QueryClass.POINT);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			int index = 1;
+			for(int id : ids) {
+				statement.setInt(index++, id);
+			}
 			
-			byte[] img = parseBlob(profileImg);
-			LocalDate birthdate = parseDate(birthdateSQL);
+			ResultSet resultSet = statement.executeQuery();
 			
-			address = new Address(addressId, line1, line2, "", city, state, zip, country);
-			contact = new Contact(id, name, company, img, email,
-					birthdate, workPhone, personalPhone, address);
+			long start = System.nanoTime();
+			while (resultSet.next()) {
+				Contact contact = readContact(resultSet);
+				contacts.put(contact.getId(), contact);
+			}
+			timed(RequestTiming.Phase.MAP, start);
+			
+			resultSet.close();
+			statement.close();
+			return contacts;
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Retrieve only the profile image of a Contact, without reading its other fields or its address.
+	 * The image is read from the image store, or from the profile_img BLOB if it has not been moved there.
+	 * @param id -  Contact.id attribute value.  Refers to a contact's primary key.
+	 * @return the image file, or null if the contact is not found or has no image
+	 * @throws SQLException
+	 */
+	public byte[] getProfileImage(int id) throws SQLException {
+		String sql = "SELECT profile_img_hash, profile_img FROM contact WHERE id = ? AND deleted = 0";
+		String hash = null;
+		byte[] img = null;
+		
+		connectForRead(QueryClass.POINT);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			statement.setInt(1, id);
+			
+			ResultSet resultSet = statement.executeQuery();
+			long start = System.nanoTime();
+			if (resultSet.next()) {
+				hash = resultSet.getString("profile_img_hash");
+				img = parseBlob(resultSet.getBlob("profile_img"));
+			}
+			timed(RequestTiming.Phase.BLOB, start);
+			
+			resultSet.close();
+			statement.close();
+		} finally {
+			disconnect();
+		}
+		
+		if(hash != null && imageStore != null) {
+			long start = System.nanoTime();
+			try {
+				img = imageStore.get(hash);
+			} catch (IOException e) {
+				throw new SQLException(e);
+			} finally {
+				timed(RequestTiming.Phase.BLOB, start);
+			}
 		}
+		return img;
+	}
+	
+	/**
+	 * Retrieve the image store hash of a Contact's profile image.
+	 * @param id -  Contact.id attribute value.  Refers to a contact's primary key.
+	 * @return the hash, or null if the contact is not found, has no image, or its image is still a BLOB
+	 * @throws SQLException
+	 */
+	public String getProfileImageHash(int id) throws SQLException {
+		String sql = "SELECT profile_img_hash FROM contact WHERE id = ? AND deleted = 0";
 		
-		resultSet.close();
-		statement.close();
-		disconnect();
+		connectForRead(QueryClass.POINT);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			statement.setInt(1, id);
+			
+			ResultSet resultSet = statement.executeQuery();
+			String hash = null;
+			if (resultSet.next()) {
+				hash = resultSet.getString("profile_img_hash");
+			}
+			
+			resultSet.close();
+			statement.close();
+			return hash;
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Move profile images from profile_img BLOBs into the image store, replacing each BLOB with the image's hash.
+	 * Identical images are stored once.  Call repeatedly until it returns 0.
+	 * 
+	 * A row is only changed if it still holds a BLOB, so images replaced by a concurrent update are not overwritten.
+	 * 
+	 * @param batchSize - maximum number of rows to move
+	 * @return number of rows moved
+	 * @throws SQLException
+	 */
+	public int migrateProfileImages(int batchSize) throws SQLException {
+		if(imageStore == null) {
+			throw new IllegalStateException("No image store to migrate profile images into");
+		}
+		String selectSql = "SELECT id, profile_img FROM contact WHERE profile_img IS NOT NULL LIMIT ?";
+		String updateSql = "UPDATE contact SET profile_img_hash = ?, profile_img = NULL "
+				+ "WHERE id = ? AND profile_img IS NOT NULL";
+		
+		connect(QueryClass.SCAN);
+		
+		PreparedStatement select = null;
+		PreparedStatement update = null;
+		int moved = 0;
+		try {
+			select = prepareStatement(selectSql);
+			select.setInt(1, batchSize);
+			update = prepareStatement(updateSql);
+			
+			ResultSet resultSet = select.executeQuery();
+			while (resultSet.next()) {
+				String hash = storeImage(parseBlob(resultSet.getBlob("profile_img")));
+				update.setString(1, hash);
+				update.setInt(2, resultSet.getInt("id"));
+				moved += update.executeUpdate();
+			}
+			resultSet.close();
+		} finally {
+			try {
+				if(select != null) {
+					select.close();
+				}
+				if(update != null) {
+					update.close();
+				}
+			} finally {
+				disconnect();
+			}
+		}
+		return moved;
+	}
+	
+	/**
+	 * Helper function reads the next auto-increment key generated by an INSERT.
+	 * @param keys - result of getGeneratedKeys() on an INSERT prepared with Statement.RETURN_GENERATED_KEYS
+	 * @return the generated key
+	 * @throws SQLException if there are fewer keys than rows read
+	 */
+	private static int readNextKey(ResultSet keys) throws SQLException {
+		if(!keys.next()) {
+			throw new SQLException("Missing generated key");
+		}
+		return keys.getInt(1);
+	}
+	
+	/**
+	 * Helper function repeats the VALUES row of a multi-row INSERT, e.g. "(?, ?), (?, ?)", or an IN list item
+	 */
+	private static String repeat(String row, int count) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < count; i++) {
+			if(i > 0) {
+				sb.append(", ");
+			}
+			sb.append(row);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Helper function reads the current row of a SELECT_CONTACT query into a Contact.
+	 * @param resultSet - result set positioned on a row
+	 * @return Contact, without its profile image bytes
+	 * @throws SQLException
+	 */
+	private static Contact readContact(ResultSet resultSet) throws SQLException {
+		int id = resultSet.getInt("id");
+		String name = resultSet.getString("name");
+		String company = resultSet.getString("company");
+		String profileImgHash = resultSet.getString("profile_img_hash");
+		String email = resultSet.getString("email");
+		Date birthdateSQL = resultSet.getDate("birthdate");
+		String workPhone = resultSet.getString("phone_work");
+		String personalPhone = resultSet.getString("phone_personal");
+		int addressId = resultSet.getInt("address_id");
+		
+		String line1 = resultSet.getString("line1");
+		String line2 = resultSet.getString("line2");
+		String city = resultSet.getString("city");
+		String state = resultSet.getString("state");
+		String zip = resultSet.getString("zip");
+		String country = resultSet.getString("country");
+		
+		LocalDate birthdate = parseDate(birthdateSQL);
+		
+		Address address = new Address(addressId, line1, line2, "", city, state, zip, country);
+		Contact contact = new Contact(id, name, company, null, email,
+				birthdate, workPhone, personalPhone, address);
+		contact.setProfileImageHash(profileImgHash);
 		return contact;
 	}
 	
+	/**
+	 * Helper function binds a Contact's profile image to an INSERT or UPDATE.
+	 * With an image store the image is stored there and only its hash is bound, otherwise the image is bound as a BLOB.
+	 * The Contact's profileImageHash is updated to match.
+	 * 
+	 * @param statement - statement to bind
+	 * @param blobIndex - parameter index of the profile_img column
+	 * @param hashIndex - parameter index of the profile_img_hash column
+	 * @param contact - Contact whose image is bound
+	 * @throws SQLException
+	 */
+	private void setProfileImage(PreparedStatement statement, int blobIndex, int hashIndex, Contact contact) throws SQLException {
+		byte[] img = contact.getProfileImage();
+		String hash = null;
+		if(img != null && imageStore != null) {
+			hash = storeImage(img);
+			img = null;
+		}
+		contact.setProfileImageHash(hash);
+		
+		if(img != null) {
+			statement.setBlob(blobIndex, new ByteArrayInputStream(img));
+		} else {
+			statement.setNull(blobIndex, java.sql.Types.BLOB);
+		}
+		if(hash != null) {
+			statement.setString(hashIndex, hash);
+		} else {
+			statement.setNull(hashIndex, java.sql.Types.CHAR);
+		}
+	}
+	
+	/**
+	 * Helper function reads a whole image from a stream into memory.
+	 * @param is - stream of the image file contents
+	 * @param maxBytes - largest image accepted
+	 * @return image file contents
+	 * @throws ImageTooLargeException if the stream holds more than maxBytes
+	 * @throws IOException
+	 */
+	private static byte[] readImage(InputStream is, long maxBytes) throws IOException {
+		ByteArrayOutputStream img = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int bytesRead;
+		while((bytesRead = is.read(buffer)) >= 0) {
+			if(img.size() + bytesRead > maxBytes) {
+				throw new ImageTooLargeException(maxBytes);
+			}
+			img.write(buffer, 0, bytesRead);
+		}
+		return img.toByteArray();
+	}
+	
+	/**
+	 * Helper function puts an image in the image store.
+	 * @param img - image file contents
+	 * @return the image's hash
+	 * @throws SQLException wrapping any IOException from the store
+	 */
+	private String storeImage(byte[] img) throws SQLException {
+		try {
+			return imageStore.put(img);
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+	
 	/**
 	 * Helper function parses a date if not null.
 	 * @param date - java.sql.Date;
@@ -408,6 +1600,15 @@ public class ContactDAO {
 		
 	}
 	
+	/**
+	 * Helper function converts a LocalDate to the java.sql.Date written to the database.
+	 * @param date - LocalDate, not null
+	 * @return java.sql.Date
+	 */
+	private static Date toSqlDate(LocalDate date) {
+		return new java.sql.Date(date.toEpochDay()*MILLISEC_PER_DAY);
+	}
+	
 	/**
 	 * Helper function parses blob if not null
 	 * @param blob - sql blob
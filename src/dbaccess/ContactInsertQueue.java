@@ -0,0 +1,170 @@
+package dbaccess;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import models.Contact;
+
+/**
+ * Write-behind queue for new contacts.
+ *
+ * submit() adds a contact to a bounded queue and returns at once.  A single flusher thread collects pending
+ * contacts until it has maxBatch of them or the oldest has waited maxDelayMillis, then writes the whole group
+ * with ContactDAO.insertContacts(): one multi-row INSERT per table, in one transaction.
+ * Each caller's future completes with its contact (ids set) once the group has committed.
+ *
+ * close() stops accepting contacts and waits for everything already queued to be written.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactInsertQueue {
+
+	/**
+	 * A queued contact and the future of its caller
+	 */
+	private static class PendingInsert {
+		final Contact contact;
+		final CompletableFuture<Contact> future = new CompletableFuture<Contact>();
+
+		PendingInsert(Contact contact) {
+			this.contact = contact;
+		}
+	}
+
+	private final ContactDAO contactDAO;
+	private final BlockingQueue<PendingInsert> queue;
+	private final int maxBatch;
+	private final long maxDelayMillis;
+	private final Thread flusher;
+	private volatile boolean closed = false;
+
+	/**
+	 * Create the queue and start its flusher thread.
+	 * @param contactDAO - DAO used only by the flusher thread
+	 * @param capacity - maximum number of contacts waiting to be written
+	 * @param maxBatch - maximum number of contacts written together
+	 * @param maxDelayMillis - longest a contact waits for others to join its group
+	 */
+	public ContactInsertQueue(ContactDAO contactDAO, int capacity, int maxBatch, long maxDelayMillis) {
+		this.contactDAO = contactDAO;
+		this.queue = new ArrayBlockingQueue<PendingInsert>(capacity);
+		this.maxBatch = maxBatch;
+		this.maxDelayMillis = maxDelayMillis;
+		this.flusher = new Thread(new Runnable() {
+			public void run() {
+				flushLoop();
+			}
+		}, "contact-insert-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Queue a contact to be inserted.
+	 * @param contact - the contact to insert
+	 * @return future completed with the contact, ids set, once it is committed
+	 * @throws RejectedExecutionException if the queue is full or closed
+	 */
+	public CompletableFuture<Contact> submit(Contact contact) {
+		if(closed) {
+			throw new RejectedExecutionException("Insert queue is closed");
+		}
+		PendingInsert pending = new PendingInsert(contact);
+		if(!queue.offer(pending)) {
+			throw new RejectedExecutionException("Insert queue is full");
+		}
+		return pending.future;
+	}
+
+	/**
+	 * @return number of contacts waiting to be written
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Stop accepting contacts and write everything already queued.
+	 * @param timeoutMillis - longest to wait for the queue to be written
+	 * @return true if the queue was fully written in time
+	 * @throws InterruptedException
+	 */
+	public boolean close(long timeoutMillis) throws InterruptedException {
+		closed = true;
+		flusher.interrupt();
+		flusher.join(timeoutMillis);
+
+		// anything submitted while closing, after the flusher's last drain, is failed rather than left waiting
+		List<PendingInsert> leftover = new ArrayList<PendingInsert>();
+		queue.drainTo(leftover);
+		for(PendingInsert pending : leftover) {
+			pending.future.completeExceptionally(new RejectedExecutionException("Insert queue is closed"));
+		}
+		return !flusher.isAlive() && leftover.isEmpty();
+	}
+
+	private void flushLoop() {
+		List<PendingInsert> batch = new ArrayList<PendingInsert>(maxBatch);
+		while(!closed || !queue.isEmpty()) {
+			try {
+				collect(batch);
+			} catch (InterruptedException e) {
+				// close() interrupts a wait; write what was collected and drain the rest
+			}
+			queue.drainTo(batch, maxBatch - batch.size());
+			if(!batch.isEmpty()) {
+				flush(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Wait for a first contact, then for more until the group is full or the first has waited maxDelayMillis.
+	 */
+	private void collect(List<PendingInsert> batch) throws InterruptedException {
+		if(closed) {
+			return;
+		}
+		PendingInsert first = queue.take();
+		batch.add(first);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		while(batch.size() < maxBatch) {
+			queue.drainTo(batch, maxBatch - batch.size());
+			long remaining = deadline - System.nanoTime();
+			if(batch.size() >= maxBatch || remaining <= 0) {
+				break;
+			}
+			PendingInsert next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+			if(next == null) {
+				break;
+			}
+			batch.add(next);
+		}
+	}
+
+	private void flush(List<PendingInsert> batch) {
+		List<Contact> contacts = new ArrayList<Contact>(batch.size());
+		for(PendingInsert pending : batch) {
+			contacts.add(pending.contact);
+		}
+		try {
+			contactDAO.insertContacts(contacts);
+			for(PendingInsert pending : batch) {
+				pending.future.complete(pending.contact);
+			}
+		} catch (SQLException | RuntimeException e) {
+			e.printStackTrace();
+			for(PendingInsert pending : batch) {
+				pending.future.completeExceptionally(e);
+			}
+		}
+	}
+}
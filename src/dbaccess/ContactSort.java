@@ -0,0 +1,121 @@
+package dbaccess;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+
+import models.Contact;
+
+/**
+ * An order for listing contacts other than by id: by name, company, birthdate or city, ascending or descending.
+ * Contacts with equal values are ordered by id, in the same direction.
+ * 
+ * The database sorts with ORDER BY (see orderBy()), on the indexes added by sql/041-sort-indexes.sql.
+ * Contacts held in memory are sorted with comparator(), which orders the same way: nulls first when ascending,
+ * and strings compared case-insensitively as MySQL's default collation does.  Unlike that collation,
+ * accents are not ignored.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactSort {
+
+	public enum Field {
+		NAME("c.name"), COMPANY("c.company"), BIRTHDATE("c.birthdate"), CITY("a.city");
+
+		private final String column;
+
+		private Field(String column) {
+			this.column = column;
+		}
+	}
+
+	/**
+	 * Orders contacts by id, as they are listed without a sort
+	 */
+	public static final Comparator<Contact> BY_ID = new Comparator<Contact>() {
+
+		// @Override
+		public int compare(Contact a, Contact b) {
+			return Integer.compare(a.getId(), b.getId());
+		}
+	};
+
+	private final Field field;
+	private final boolean descending;
+	private final Comparator<Contact> comparator;
+
+	/**
+	 * @param field - the field to sort on
+	 * @param descending - true for the largest values first
+	 */
+	public ContactSort(final Field field, boolean descending) {
+		this.field = field;
+		this.descending = descending;
+
+		Comparator<Contact> ascending = new Comparator<Contact>() {
+
+			// @Override
+			public int compare(Contact a, Contact b) {
+				int c;
+				if(field == Field.BIRTHDATE) {
+					c = compareValues(a.getBirthdate(), b.getBirthdate());
+				} else {
+					c = compareStrings(value(a), value(b));
+				}
+				return (c != 0) ? c : Integer.compare(a.getId(), b.getId());
+			}
+		};
+		this.comparator = descending ? ascending.reversed() : ascending;
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * @return the ORDER BY columns of a query over contact c and address a
+	 */
+	String orderBy() {
+		String direction = descending ? " DESC" : "";
+		return field.column + direction + ", c.id" + direction;
+	}
+
+	/**
+	 * @return orders Contacts the way orderBy() orders rows
+	 */
+	public Comparator<Contact> comparator() {
+		return comparator;
+	}
+
+	/**
+	 * Helper function reads the string sorted on.
+	 */
+	private String value(Contact contact) {
+		switch(field) {
+		case NAME:
+			return contact.getName();
+		case COMPANY:
+			return contact.getCompany();
+		default:
+			return (contact.getAddress() != null) ? contact.getAddress().getCity() : null;
+		}
+	}
+
+	private static int compareStrings(String a, String b) {
+		if(a == null || b == null) {
+			return (a == null) ? ((b == null) ? 0 : -1) : 1;
+		}
+		return String.CASE_INSENSITIVE_ORDER.compare(a, b);
+	}
+
+	private static int compareValues(LocalDate a, LocalDate b) {
+		if(a == null || b == null) {
+			return (a == null) ? ((b == null) ? 0 : -1) : 1;
+		}
+		return a.compareTo(b);
+	}
+}
@@ -0,0 +1,32 @@
+package dbaccess;
+
+import java.sql.SQLTransientException;
+
+/**
+ * Thrown when a database operation is refused, or given up before it started, because the database is overloaded
+ * or the request's deadline has passed.  The operation may succeed if retried later.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class OverloadException extends SQLTransientException {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2285310526733715402L;
+
+	private final int retryAfterSeconds;
+
+	public OverloadException(String reason, int retryAfterSeconds) {
+		super(reason);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	/**
+	 * @return how long the client should wait before retrying, in seconds
+	 */
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,323 @@
+package dbaccess;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import models.SlowQuery;
+
+/**
+ * Times the statements ContactDAO runs and keeps the slowest.
+ *
+ * wrap() returns a proxy of a Statement or PreparedStatement that records its parameters and times each execution.
+ * Queries that take longer than the threshold are printed with their normalized SQL, parameters and row count,
+ * and kept in a ring buffer of the most recent slow queries.  The first time a statement shape is slow, its
+ * EXPLAIN plan is captured on the same connection and kept for every later slow query of that shape.
+ * Failed statements are printed with their SQL and parameters too.
+ *
+ * This class is thread safe and is shared by every ContactDAO of a web application.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class QueryLog {
+
+	/**
+	 * Most statement shapes whose plan is kept
+	 */
+	private static final int MAX_PLANS = 1000;
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'|\"(?:[^\"\\\\]|\\\\.|\"\")*\"");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(\\.\\d+)?\\b");
+	private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private final long thresholdNanos;
+	private final SlowQuery[] recent;
+	private int next = 0;
+	private final Map<String, String> plans = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param thresholdMillis - queries taking at least this long are logged
+	 * @param size - number of recent slow queries kept
+	 */
+	public QueryLog(long thresholdMillis, int size) {
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this.recent = new SlowQuery[size];
+	}
+
+	/**
+	 * Time a statement's executions.
+	 * @param statement - statement to time
+	 * @param sql - the statement's SQL if it is a PreparedStatement, null for a plain Statement
+	 * @param connection - connection the statement belongs to, used to EXPLAIN it
+	 * @return a proxy of the statement
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Statement> T wrap(T statement, String sql, Connection connection) {
+		Class<?> type = (statement instanceof PreparedStatement) ? PreparedStatement.class : Statement.class;
+		return (T) Proxy.newProxyInstance(QueryLog.class.getClassLoader(), new Class<?>[] { type },
+				new StatementHandler(statement, sql, connection));
+	}
+
+	/**
+	 * @return the slow queries kept, slowest first
+	 */
+	public List<SlowQuery> getSlowest() {
+		List<SlowQuery> queries = new ArrayList<SlowQuery>(recent.length);
+		synchronized(recent) {
+			for(SlowQuery query : recent) {
+				if(query != null) {
+					queries.add(query);
+				}
+			}
+		}
+		Collections.sort(queries, new Comparator<SlowQuery>() {
+
+			// @Override
+			public int compare(SlowQuery a, SlowQuery b) {
+				return Double.compare(b.getMillis(), a.getMillis());
+			}
+		});
+		return queries;
+	}
+
+	/**
+	 * Forget the slow queries kept, and the plans captured.
+	 */
+	public void clear() {
+		synchronized(recent) {
+			Arrays.fill(recent, null);
+			next = 0;
+		}
+		plans.clear();
+	}
+
+	/**
+	 * Reduce a statement to its shape: literals and parameter lists become ?, and whitespace is collapsed.
+	 * @param sql - the statement
+	 * @return the normalized statement
+	 */
+	public static String normalize(String sql) {
+		String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+		normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+		normalized = PARAMETER_LIST.matcher(normalized).replaceAll("?+");
+		return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+	}
+
+	private void record(Connection connection, String sql, Map<Integer, Object> parameters, long rows, long nanos) {
+		if(nanos < thresholdNanos) {
+			return;
+		}
+		String shape = normalize(sql);
+		String plan = plans.get(shape);
+		if(plan == null && plans.size() < MAX_PLANS) {
+			plan = explain(connection, sql, parameters);
+			if(plan != null) {
+				plans.put(shape, plan);
+			}
+		}
+
+		double millis = nanos / 1e6;
+		List<String> values = describe(parameters);
+		System.out.println("Slow query (" + String.format("%.1f", millis) + " ms, " + rows + " rows): " + shape + " " + values);
+
+		SlowQuery query = new SlowQuery(shape, values, rows, millis, System.currentTimeMillis(), plan);
+		synchronized(recent) {
+			if(recent.length > 0) {
+				recent[next] = query;
+				next = (next + 1) % recent.length;
+			}
+		}
+	}
+
+	private static void recordFailure(String sql, Map<Integer, Object> parameters, Throwable error) {
+		System.out.println("Failed query: " + normalize(sql) + " " + describe(parameters) + ": " + error);
+	}
+
+	/**
+	 * Helper function runs EXPLAIN on a statement with the same parameters.
+	 * @return the plan, one line per row of EXPLAIN output, or null if it cannot be captured this time
+	 */
+	private static String explain(Connection connection, String sql, Map<Integer, Object> parameters) {
+		try {
+			if(connection == null || connection.isClosed()) {
+				return null;
+			}
+			PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql);
+			try {
+				for(Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+					Object value = parameter.getValue();
+					if(value instanceof InputStream || value instanceof Reader) {
+						// already consumed by the query
+						return null;
+					}
+					if(value == null) {
+						statement.setNull(parameter.getKey(), Types.NULL);
+					} else {
+						statement.setObject(parameter.getKey(), value);
+					}
+				}
+				ResultSet resultSet = statement.executeQuery();
+				ResultSetMetaData metaData = resultSet.getMetaData();
+				StringBuilder plan = new StringBuilder();
+				while(resultSet.next()) {
+					if(plan.length() > 0) {
+						plan.append('\n');
+					}
+					for(int i = 1; i <= metaData.getColumnCount(); i++) {
+						if(i > 1) {
+							plan.append(", ");
+						}
+						plan.append(metaData.getColumnLabel(i)).append('=').append(resultSet.getString(i));
+					}
+				}
+				resultSet.close();
+				return plan.toString();
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			// kept as the plan, so the shape is not explained again
+			return "EXPLAIN failed: " + e.getMessage();
+		}
+	}
+
+	private static List<String> describe(Map<Integer, Object> parameters) {
+		List<String> values = new ArrayList<String>(parameters.size());
+		for(Object value : parameters.values()) {
+			if(value instanceof byte[]) {
+				values.add("<" + ((byte[]) value).length + " bytes>");
+			} else if(value instanceof InputStream || value instanceof Reader) {
+				values.add("<stream>");
+			} else {
+				values.add(String.valueOf(value));
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Helper function calls a method of a proxied object, throwing what the method throws.
+	 * Also used by RequestTiming.
+	 */
+	static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Records a statement's parameters and times its executions
+	 */
+	private class StatementHandler implements InvocationHandler {
+		private final Statement target;
+		private final String sql;
+		private final Connection connection;
+		private final Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+
+		StatementHandler(Statement target, String sql, Connection connection) {
+			this.target = target;
+			this.sql = sql;
+			this.connection = connection;
+		}
+
+		// @Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+			} else if(name.equals("clearParameters")) {
+				parameters.clear();
+			} else if(name.startsWith("execute")) {
+				return execute(method, args);
+			}
+			return QueryLog.invoke(target, method, args);
+		}
+
+		private Object execute(Method method, Object[] args) throws Throwable {
+			String executed = (args != null && args.length > 0 && args[0] instanceof String) ? (String) args[0] : sql;
+			Map<Integer, Object> bound = new TreeMap<Integer, Object>(parameters);
+			long start = System.nanoTime();
+			Object result;
+			try {
+				result = QueryLog.invoke(target, method, args);
+			} catch (SQLException e) {
+				recordFailure(executed, bound, e);
+				throw e;
+			}
+			long elapsed = System.nanoTime() - start;
+
+			if(result instanceof ResultSet) {
+				return Proxy.newProxyInstance(QueryLog.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+						new ResultSetHandler((ResultSet) result, connection, executed, bound, elapsed));
+			}
+			long rows = (result instanceof Integer) ? (Integer) result
+					: (result instanceof Long) ? (Long) result : target.getUpdateCount();
+			record(connection, executed, bound, rows, elapsed);
+			return result;
+		}
+	}
+
+	/**
+	 * Counts the rows read from a query's results, and records the query when they are closed
+	 */
+	private class ResultSetHandler implements InvocationHandler {
+		private final ResultSet target;
+		private final Connection connection;
+		private final String sql;
+		private final Map<Integer, Object> parameters;
+		private final long elapsed;
+		private long rows = 0;
+		private boolean recorded = false;
+
+		ResultSetHandler(ResultSet target, Connection connection, String sql, Map<Integer, Object> parameters, long elapsed) {
+			this.target = target;
+			this.connection = connection;
+			this.sql = sql;
+			this.parameters = parameters;
+			this.elapsed = elapsed;
+		}
+
+		// @Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.equals("next")) {
+				Object hasNext = QueryLog.invoke(target, method, args);
+				if(Boolean.TRUE.equals(hasNext)) {
+					rows++;
+				}
+				return hasNext;
+			}
+			if(name.equals("close") && !recorded) {
+				recorded = true;
+				target.close();
+				record(connection, sql, parameters, rows, elapsed);
+				return null;
+			}
+			return QueryLog.invoke(target, method, args);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package dbaccess;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses which read replica a query goes to, and which clients must read from the primary instead.
+ *
+ * Each read goes to the replica with the fewest queries in flight.  Ties go round-robin, so an idle set of
+ * replicas is used evenly.  Callers must release() every replica they acquire().
+ *
+ * A client that has just written is sent to the primary for readYourWritesMillis afterwards, so it sees its own
+ * write even if the replicas lag behind.
+ *
+ * This class is thread safe and is shared by every ContactDAO of a web application.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ReplicaRouter {
+
+	/**
+	 * Forget clients' writes once this many are tracked, keeping only those still inside the window
+	 */
+	private static final int MAX_TRACKED_CLIENTS = 10000;
+
+	private final List<String> replicaURLs;
+	private final AtomicInteger[] inFlight;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final long readYourWritesMillis;
+
+	/**
+	 * Time of each client's last write, by client id
+	 */
+	private final Map<String, Long> lastWrites = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * @param replicaURLs - JDBC URLs of the read replicas, at least one
+	 * @param readYourWritesMillis - how long after writing a client reads from the primary
+	 */
+	public ReplicaRouter(List<String> replicaURLs, long readYourWritesMillis) {
+		if(replicaURLs.isEmpty()) {
+			throw new IllegalArgumentException("No replica URLs");
+		}
+		this.replicaURLs = replicaURLs;
+		this.readYourWritesMillis = readYourWritesMillis;
+		this.inFlight = new AtomicInteger[replicaURLs.size()];
+		for(int i = 0; i < inFlight.length; i++) {
+			inFlight[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Choose the least loaded replica and count a query in flight on it.
+	 * @return index of the chosen replica
+	 */
+	public int acquire() {
+		int start = Math.abs(nextReplica.getAndIncrement() % inFlight.length);
+		int best = start;
+		for(int i = 1; i < inFlight.length; i++) {
+			int candidate = (start + i) % inFlight.length;
+			if(inFlight[candidate].get() < inFlight[best].get()) {
+				best = candidate;
+			}
+		}
+		inFlight[best].incrementAndGet();
+		return best;
+	}
+
+	/**
+	 * Count a query on a replica as finished.
+	 * @param replica - index returned by acquire()
+	 */
+	public void release(int replica) {
+		inFlight[replica].decrementAndGet();
+	}
+
+	/**
+	 * @param replica - index returned by acquire()
+	 * @return the replica's JDBC URL
+	 */
+	public String getURL(int replica) {
+		return replicaURLs.get(replica);
+	}
+
+	/**
+	 * @param replica - replica index
+	 * @return number of queries in flight on the replica
+	 */
+	public int getInFlight(int replica) {
+		return inFlight[replica].get();
+	}
+
+	/**
+	 * Note that a client has just written, so its reads go to the primary for a while.
+	 * @param clientId - identifies the client, null if unknown
+	 */
+	public void recordWrite(String clientId) {
+		if(clientId == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if(lastWrites.size() >= MAX_TRACKED_CLIENTS) {
+			Iterator<Long> it = lastWrites.values().iterator();
+			while(it.hasNext()) {
+				if(now - it.next() >= readYourWritesMillis) {
+					it.remove();
+				}
+			}
+		}
+		lastWrites.put(clientId, now);
+	}
+
+	/**
+	 * @param clientId - identifies the client, null if unknown
+	 * @return true if the client wrote within the read-your-writes window and should read from the primary
+	 */
+	public boolean mustReadPrimary(String clientId) {
+		if(clientId == null) {
+			return false;
+		}
+		Long lastWrite = lastWrites.get(clientId);
+		return lastWrite != null && System.currentTimeMillis() - lastWrite < readYourWritesMillis;
+	}
+}
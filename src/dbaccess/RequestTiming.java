@@ -0,0 +1,140 @@
+package dbaccess;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where the time of one request went, phase by phase.
+ *
+ * A ContactDAO given a RequestTiming adds to it the time spent waiting for the AdmissionController, connecting,
+ * executing statements, reading profile images and mapping rows to Contacts.  The web layer adds the time spent
+ * serializing the response, and reports the whole as a Server-Timing header (see toServerTiming()).
+ *
+ * Phases add up the time of every operation of the request, so with shards queried in parallel a phase can
+ * take longer than the request itself.
+ *
+ * This class is thread safe.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class RequestTiming {
+
+	/**
+	 * A part of a request, named as in the Server-Timing header
+	 */
+	public enum Phase {
+		DB_WAIT("db-wait"), DB_CONNECT("db-connect"), DB_QUERY("db-query"), BLOB("blob"), MAP("map"),
+		SERIALIZE("serialize");
+
+		private final String metric;
+
+		private Phase(String metric) {
+			this.metric = metric;
+		}
+
+		/**
+		 * @return name of the phase in the Server-Timing header
+		 */
+		public String getMetric() {
+			return metric;
+		}
+	}
+
+	private final long start = System.nanoTime();
+	private final AtomicLongArray nanos = new AtomicLongArray(Phase.values().length);
+
+	/**
+	 * Add time to a phase.
+	 * @param phase - the phase
+	 * @param elapsedNanos - time spent in it
+	 */
+	public void add(Phase phase, long elapsedNanos) {
+		nanos.addAndGet(phase.ordinal(), elapsedNanos);
+	}
+
+	/**
+	 * @param phase - a phase
+	 * @return time spent in it so far, in nanoseconds
+	 */
+	public long getNanos(Phase phase) {
+		return nanos.get(phase.ordinal());
+	}
+
+	/**
+	 * @return time since the request started, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Time a statement's executions as DB_QUERY.
+	 * @param statement - statement to time
+	 * @return a proxy of the statement
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Statement> T wrap(final T statement) {
+		Class<?> type = (statement instanceof PreparedStatement) ? PreparedStatement.class : Statement.class;
+		return (T) Proxy.newProxyInstance(RequestTiming.class.getClassLoader(), new Class<?>[] { type },
+				new InvocationHandler() {
+
+			// @Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if(!method.getName().startsWith("execute")) {
+					return QueryLog.invoke(statement, method, args);
+				}
+				long executed = System.nanoTime();
+				try {
+					return QueryLog.invoke(statement, method, args);
+				} finally {
+					add(Phase.DB_QUERY, System.nanoTime() - executed);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Format the phases as a Server-Timing header value, e.g. "db-connect;dur=0.8, db-query;dur=12.5, total;dur=15.1".
+	 * Phases that took no time are left out.  Durations are in milliseconds.
+	 * @return the header value
+	 */
+	public String toServerTiming() {
+		StringBuilder header = new StringBuilder();
+		for(Phase phase : Phase.values()) {
+			long phaseNanos = getNanos(phase);
+			if(phaseNanos > 0) {
+				header.append(phase.getMetric()).append(";dur=").append(millis(phaseNanos)).append(", ");
+			}
+		}
+		return header.append("total;dur=").append(millis(getElapsedNanos())).toString();
+	}
+
+	/**
+	 * Format the phases as key=value pairs for a log line, e.g. "total=15.1 db-connect=0.8 db-query=12.5".
+	 * Phases that took no time are left out.  Durations are in milliseconds.
+	 * @return the pairs
+	 */
+	public String toLogFields() {
+		StringBuilder fields = new StringBuilder("total=").append(millis(getElapsedNanos()));
+		for(Phase phase : Phase.values()) {
+			long phaseNanos = getNanos(phase);
+			if(phaseNanos > 0) {
+				fields.append(' ').append(phase.getMetric()).append('=').append(millis(phaseNanos));
+			}
+		}
+		return fields.toString();
+	}
+
+	/**
+	 * Helper function formats nanoseconds as milliseconds with one decimal.
+	 */
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+	}
+}
@@ -0,0 +1,390 @@
+package dbaccess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import images.ImageStore;
+import models.Contact;
+import models.ContactDelta;
+import models.ContactInvalidation;
+import models.ContactPatch;
+
+/**
+ * A ContactDAO whose contacts are split across several databases (see Shards).
+ *
+ * Operations on one contact go to the shard holding it.  New contacts go to the shard chosen by Shards, and a group
+ * inserted together stays on one shard.  Lists and searches query every shard in parallel and merge the results in
+ * id order, keeping at most the requested number of contacts overall.
+ *
+ * Each shard has its own change_seq, so versions are not comparable across shards and listChangedSince() is not
+ * supported.  Read replicas are not supported either.  Each shard also keeps its own invalidation log.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ShardedContactDAO extends ContactDAO {
+
+	/**
+	 * Query run against each shard by fanOut()
+	 */
+	private interface ShardQuery {
+		List<Contact> run(ContactDAO shard) throws SQLException;
+	}
+
+	private final Shards shards;
+	private final List<ContactDAO> shardDAOs;
+
+	/**
+	 * Initialize a ShardedContactDAO with credentials necessary to connect to every shard.
+	 * @param shards - the shard databases
+	 * @param jdbcUsername
+	 * @param jdbcPassword
+	 * @param imageStore - where profile images are kept, null to keep them in the database
+	 */
+	public ShardedContactDAO(Shards shards, String jdbcUsername, String jdbcPassword, ImageStore imageStore) {
+		super(shards.getURL(0), jdbcUsername, jdbcPassword, imageStore);
+		this.shards = shards;
+		this.shardDAOs = new ArrayList<ContactDAO>(shards.size());
+		for(int i = 0; i < shards.size(); i++) {
+			shardDAOs.add(new ContactDAO(shards.getURL(i), jdbcUsername, jdbcPassword, imageStore));
+		}
+	}
+
+	/**
+	 * Does nothing: read replicas are not supported with shards, and every query goes to a shard.
+	 */
+	@Override
+	public void setReplicaRouter(ReplicaRouter replicaRouter, boolean readFromPrimary) {
+	}
+
+	/**
+	 * Applies to the operations on every shard.  A list or search takes one turn per shard.
+	 */
+	@Override
+	public void setAdmissionController(AdmissionController admissionController, long deadline) {
+		for(ContactDAO shard : shardDAOs) {
+			shard.setAdmissionController(admissionController, deadline);
+		}
+	}
+
+	@Override
+	public void setQueryLog(QueryLog queryLog) {
+		for(ContactDAO shard : shardDAOs) {
+			shard.setQueryLog(queryLog);
+		}
+	}
+
+	@Override
+	public void setConnectionPool(ConnectionPool connectionPool) {
+		for(ContactDAO shard : shardDAOs) {
+			shard.setConnectionPool(connectionPool);
+		}
+	}
+
+	/**
+	 * Every shard adds to the same RequestTiming, so with shards queried in parallel their times add up.
+	 */
+	@Override
+	public void setRequestTiming(RequestTiming requestTiming) {
+		for(ContactDAO shard : shardDAOs) {
+			shard.setRequestTiming(requestTiming);
+		}
+	}
+
+	@Override
+	public void setNodeId(String nodeId) {
+		for(ContactDAO shard : shardDAOs) {
+			shard.setNodeId(nodeId);
+		}
+	}
+
+	@Override
+	public boolean insertContacts(List<Contact> contacts) throws SQLException {
+		return shardDAOs.get(shards.shardForInsert()).insertContacts(contacts);
+	}
+
+	@Override
+	public List<Contact> listAllContacts(final int limit) throws SQLException {
+		return fanOut(new ShardQuery() {
+
+			// @Override
+			public List<Contact> run(ContactDAO shard) throws SQLException {
+				return shard.listAllContacts(limit);
+			}
+		}, ContactSort.BY_ID, limit);
+	}
+
+	@Override
+	public List<Contact> searchAllContacts(final String emailPart, final String phonePart, final ContactSort sort,
+			final int limit) throws SQLException {
+		return fanOut(new ShardQuery() {
+
+			// @Override
+			public List<Contact> run(ContactDAO shard) throws SQLException {
+				return shard.searchAllContacts(emailPart, phonePart, sort, limit);
+			}
+		}, (sort != null) ? sort.comparator() : ContactSort.BY_ID, limit);
+	}
+
+	@Override
+	public List<Contact> searchAllContactsByLocation(final String city, final String state, final ContactSort sort,
+			final int limit) throws SQLException {
+		return fanOut(new ShardQuery() {
+
+			// @Override
+			public List<Contact> run(ContactDAO shard) throws SQLException {
+				return shard.searchAllContactsByLocation(city, state, sort, limit);
+			}
+		}, (sort != null) ? sort.comparator() : ContactSort.BY_ID, limit);
+	}
+
+	@Override
+	public List<Contact> listBirthdays(final BirthdayWindow window, final int limit) throws SQLException {
+		return fanOut(new ShardQuery() {
+
+			// @Override
+			public List<Contact> run(ContactDAO shard) throws SQLException {
+				return shard.listBirthdays(window, limit);
+			}
+		}, window.comparator(), limit);
+	}
+
+	@Override
+	public boolean deleteContact(int id) throws SQLException {
+		return shard(id).deleteContact(id);
+	}
+
+	@Override
+	public boolean updateContact(Contact contact) throws SQLException {
+		return shard(contact.getId()).updateContact(contact);
+	}
+
+	@Override
+	public boolean updateContact(Contact contact, boolean replaceProfileImage) throws SQLException {
+		return shard(contact.getId()).updateContact(contact, replaceProfileImage);
+	}
+
+	@Override
+	public boolean updateProfileImage(int id, InputStream is, long maxBytes) throws SQLException, IOException {
+		return shard(id).updateProfileImage(id, is, maxBytes);
+	}
+
+	@Override
+	public boolean patchContact(int id, ContactPatch patch) throws SQLException {
+		return shard(id).patchContact(id, patch);
+	}
+
+	@Override
+	public ContactDelta listChangedSince(long since) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Incremental sync is not supported with shards");
+	}
+
+	/**
+	 * Each shard has its own invalidation log, with its own seqs: poll a ContactDAO per shard instead.
+	 */
+	@Override
+	public List<ContactInvalidation> listInvalidationsSince(long seq, int limit) throws SQLException {
+		throw new SQLFeatureNotSupportedException("The invalidation log is per shard; poll each shard");
+	}
+
+	@Override
+	public long getLatestInvalidation() throws SQLException {
+		throw new SQLFeatureNotSupportedException("The invalidation log is per shard; poll each shard");
+	}
+
+	/**
+	 * Deletes up to batchSize entries on each shard.
+	 */
+	@Override
+	public int pruneInvalidations(long retentionSeconds, int batchSize) throws SQLException {
+		int deleted = 0;
+		for(ContactDAO shard : shardDAOs) {
+			deleted += shard.pruneInvalidations(retentionSeconds, batchSize);
+		}
+		return deleted;
+	}
+
+	@Override
+	public boolean contactExists(int id) throws SQLException {
+		return shard(id).contactExists(id);
+	}
+
+	@Override
+	public Contact getContact(int id) throws SQLException {
+		return shard(id).getContact(id);
+	}
+
+	/**
+	 * Queries the shards holding the ids in parallel, one query per shard.
+	 */
+	@Override
+	public Map<Integer, Contact> getContacts(Collection<Integer> ids) throws SQLException {
+		List<List<Integer>> idsByShard = new ArrayList<List<Integer>>(shardDAOs.size());
+		for(int i = 0; i < shardDAOs.size(); i++) {
+			idsByShard.add(new ArrayList<Integer>());
+		}
+		for(int id : ids) {
+			idsByShard.get(shards.shardOf(id)).add(id);
+		}
+
+		List<Future<Map<Integer, Contact>>> futures = new ArrayList<Future<Map<Integer, Contact>>>();
+		for(int i = 0; i < shardDAOs.size(); i++) {
+			final ContactDAO shard = shardDAOs.get(i);
+			final List<Integer> shardIds = idsByShard.get(i);
+			if(!shardIds.isEmpty()) {
+				futures.add(shards.getExecutor().submit(new Callable<Map<Integer, Contact>>() {
+
+					// @Override
+					public Map<Integer, Contact> call() throws SQLException {
+						return shard.getContacts(shardIds);
+					}
+				}));
+			}
+		}
+
+		Map<Integer, Contact> contacts = new HashMap<Integer, Contact>();
+		for(Map<Integer, Contact> found : getAll(futures)) {
+			contacts.putAll(found);
+		}
+		return contacts;
+	}
+
+	@Override
+	public byte[] getProfileImage(int id) throws SQLException {
+		return shard(id).getProfileImage(id);
+	}
+
+	@Override
+	public String getProfileImageHash(int id) throws SQLException {
+		return shard(id).getProfileImageHash(id);
+	}
+
+	/**
+	 * Moves up to batchSize profile images on each shard.
+	 */
+	@Override
+	public int migrateProfileImages(int batchSize) throws SQLException {
+		int moved = 0;
+		for(ContactDAO shard : shardDAOs) {
+			moved += shard.migrateProfileImages(batchSize);
+		}
+		return moved;
+	}
+
+	private ContactDAO shard(int id) {
+		return shardDAOs.get(shards.shardOf(id));
+	}
+
+	/**
+	 * Helper function runs a query on every shard in parallel and merges the results in order.
+	 * Each shard returns its first limit contacts, so the first limit of all shards are among them.
+	 * 
+	 * @param query - the query, returning contacts in order
+	 * @param order - order of the query's contacts, e.g. ContactSort.BY_ID
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return the merged List<Contact>
+	 * @throws SQLException if the query failed on any shard
+	 */
+	private List<Contact> fanOut(final ShardQuery query, Comparator<Contact> order, int limit) throws SQLException {
+		List<Future<List<Contact>>> futures = new ArrayList<Future<List<Contact>>>(shardDAOs.size());
+		for(final ContactDAO shard : shardDAOs) {
+			futures.add(shards.getExecutor().submit(new Callable<List<Contact>>() {
+
+				// @Override
+				public List<Contact> call() throws SQLException {
+					return query.run(shard);
+				}
+			}));
+		}
+
+		return merge(getAll(futures), order, limit);
+	}
+
+	/**
+	 * Helper function waits for the results of queries on several shards.
+	 * @param futures - the queries
+	 * @return their results, in the same order
+	 * @throws SQLException if any query failed
+	 */
+	private static <T> List<T> getAll(List<Future<T>> futures) throws SQLException {
+		List<T> results = new ArrayList<T>(futures.size());
+		try {
+			for(Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while querying shards", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new SQLException(e.getCause());
+		} finally {
+			for(Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * A list's next contact and the rest of the list, for merge()
+	 */
+	private static class Head {
+		final Contact contact;
+		final Iterator<Contact> rest;
+
+		Head(Contact contact, Iterator<Contact> rest) {
+			this.contact = contact;
+			this.rest = rest;
+		}
+	}
+
+	/**
+	 * Helper function merges lists of contacts, each in the same order, into one list in that order.
+	 * Public so it can be tested without shards.
+	 * @param lists - the lists to merge
+	 * @param order - order of the lists
+	 * @param limit - maximum number of contacts returned, 0 for no limit
+	 * @return the merged List<Contact>
+	 */
+	public static List<Contact> merge(List<List<Contact>> lists, final Comparator<Contact> order, int limit) {
+		PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, lists.size()), new Comparator<Head>() {
+
+			// @Override
+			public int compare(Head a, Head b) {
+				return order.compare(a.contact, b.contact);
+			}
+		});
+		for(List<Contact> list : lists) {
+			Iterator<Contact> it = list.iterator();
+			if(it.hasNext()) {
+				heads.add(new Head(it.next(), it));
+			}
+		}
+
+		List<Contact> merged = new ArrayList<Contact>();
+		while(!heads.isEmpty() && (limit <= 0 || merged.size() < limit)) {
+			Head head = heads.poll();
+			merged.add(head.contact);
+			if(head.rest.hasNext()) {
+				heads.add(new Head(head.rest.next(), head.rest));
+			}
+		}
+		return merged;
+	}
+}
@@ -0,0 +1,129 @@
+package dbaccess;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The databases that contacts are split across, and which of them holds each contact.
+ *
+ * Contacts are placed by id, either:
+ * - by hash: shard i holds the ids with (id - 1) % N == i.  Each shard's MySQL server must be set up to hand out
+ *   only its own ids (auto_increment_increment = N, auto_increment_offset = i + 1, see sql/033-shards.sql).
+ *   New contacts go to the shards in turn.
+ * - by range: shard i holds the ids from lowerBounds[i] up to the next shard's lower bound.  Each shard's
+ *   AUTO_INCREMENT must start at its lower bound.  New contacts go to the last shard, the one whose range is open.
+ *
+ * Also owns the threads used to query the shards in parallel.  This class is thread safe and is shared by every
+ * ShardedContactDAO of a web application.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class Shards {
+
+	private final List<String> urls;
+	private final int[] lowerBounds;
+	private final AtomicInteger nextInsertShard = new AtomicInteger();
+	private final ExecutorService executor;
+
+	/**
+	 * Place contacts by hash.
+	 * @param urls - JDBC URLs of the shards, at least one
+	 */
+	public Shards(List<String> urls) {
+		this(urls, null);
+	}
+
+	/**
+	 * Place contacts by id range.
+	 * @param urls - JDBC URLs of the shards, at least one
+	 * @param lowerBounds - lowest id held by each shard, ascending, or null to place contacts by hash
+	 */
+	public Shards(List<String> urls, int[] lowerBounds) {
+		if(urls.isEmpty()) {
+			throw new IllegalArgumentException("No shard URLs");
+		}
+		if(lowerBounds != null) {
+			if(lowerBounds.length != urls.size()) {
+				throw new IllegalArgumentException("Need one lower bound per shard");
+			}
+			for(int i = 1; i < lowerBounds.length; i++) {
+				if(lowerBounds[i] <= lowerBounds[i - 1]) {
+					throw new IllegalArgumentException("Shard lower bounds must ascend");
+				}
+			}
+		}
+		this.urls = urls;
+		this.lowerBounds = lowerBounds;
+
+		final AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			// @Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "contact-shards-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return number of shards
+	 */
+	public int size() {
+		return urls.size();
+	}
+
+	/**
+	 * @param shard - shard index
+	 * @return the shard's JDBC URL
+	 */
+	public String getURL(int shard) {
+		return urls.get(shard);
+	}
+
+	/**
+	 * @param id - Contact.id
+	 * @return index of the shard holding the contact
+	 */
+	public int shardOf(int id) {
+		if(lowerBounds == null) {
+			return Math.floorMod(id - 1, urls.size());
+		}
+		int index = Arrays.binarySearch(lowerBounds, id);
+		if(index < 0) {
+			// not a lower bound itself: the shard whose range starts below it
+			index = -index - 2;
+		}
+		return Math.max(index, 0);
+	}
+
+	/**
+	 * @return index of the shard that new contacts are inserted into
+	 */
+	public int shardForInsert() {
+		if(lowerBounds == null) {
+			return Math.floorMod(nextInsertShard.getAndIncrement(), urls.size());
+		}
+		return urls.size() - 1;
+	}
+
+	/**
+	 * @return the executor that queries shards in parallel
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Stop the shard query threads.
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,77 @@
+package dbaccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Selects the first k of a stream of items in a given order, without sorting them all.
+ * 
+ * Keeps the k best items seen in a heap whose root is the worst of them, so each item costs at most
+ * O(log k) and memory stays O(k) however many items are added.
+ * 
+ * This class is not thread safe.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class TopK<T> {
+
+	/**
+	 * Initial size of the heap when the number of items is not known
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Comparator<? super T> order;
+	private final int k;
+	private final PriorityQueue<T> heap;
+
+	/**
+	 * The heap starts small and grows as items are added.
+	 * @param order - the order of the items wanted
+	 * @param k - number of items kept, at least 1
+	 */
+	public TopK(Comparator<? super T> order, int k) {
+		this(order, k, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param order - the order of the items wanted
+	 * @param k - number of items kept, at least 1
+	 * @param n - number of items that will be added, so the heap is no larger than needed
+	 */
+	public TopK(Comparator<? super T> order, int k, int n) {
+		this.order = order;
+		this.k = k;
+		this.heap = new PriorityQueue<T>(Math.max(1, Math.min(k, n)), Collections.reverseOrder(order));
+	}
+
+	/**
+	 * Offer an item.
+	 * @param item - the item
+	 * @return true if it is among the first k so far
+	 */
+	public boolean add(T item) {
+		if(heap.size() < k) {
+			heap.add(item);
+			return true;
+		}
+		if(order.compare(item, heap.peek()) >= 0) {
+			return false;
+		}
+		heap.poll();
+		heap.add(item);
+		return true;
+	}
+
+	/**
+	 * @return the items kept, in order
+	 */
+	public List<T> toList() {
+		List<T> items = new ArrayList<T>(heap);
+		Collections.sort(items, order);
+		return items;
+	}
+}
@@ -0,0 +1,220 @@
+package dedup;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Helper functions to normalize contact fields and derive blocking keys from them.
+ * 
+ * Two contacts are only compared by DuplicateDetector if they share a blocking key:
+ *  - the normalized local part of their email,
+ *  - the digits of one of their phone numbers,
+ *  - a band of the MinHash signature of their name tokens (locality sensitive hashing), so names sharing most
+ *    of their tokens, in any order, are likely to share a band.
+ * Keys are 64 bit hashes, tagged by kind so an email and a phone number never share a key.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class BlockingKeys {
+	
+	/**
+	 * MinHash signature layout: BANDS bands of ROWS hashes.  Names with token Jaccard similarity s share
+	 * at least one band with probability 1 - (1 - s^ROWS)^BANDS, e.g. 0.9 for s = 0.67.
+	 */
+	public static final int BANDS = 8;
+	public static final int ROWS = 2;
+	
+	/**
+	 * Fewest digits kept as a phone number, and most: longer numbers keep their last digits, dropping country codes
+	 */
+	private static final int MIN_PHONE_DIGITS = 7;
+	private static final int MAX_PHONE_DIGITS = 10;
+	
+	private static final long EMAIL_TAG = 0x656d61696cL;
+	private static final long PHONE_TAG = 0x70686f6e65L;
+	private static final long NAME_TAG = 0x6e616d65L;
+	
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+	
+	/**
+	 * Seeds of the MinHash functions
+	 */
+	private static final long[] SEEDS = new long[BANDS * ROWS];
+	
+	static {
+		long seed = 0x2545f4914f6cdd1dL;
+		for(int i = 0; i < SEEDS.length; i++) {
+			seed += 0x9e3779b97f4a7c15L;
+			SEEDS[i] = mix(seed);
+		}
+	}
+	
+	private BlockingKeys() { }
+	
+	/**
+	 * Normalize an email address: lowercase, with the local part normalized as by emailLocalPart().
+	 * @param email - email address, may be null
+	 * @return the normalized address, or null if there is none
+	 */
+	public static String normalizeEmail(String email) {
+		String local = emailLocalPart(email);
+		if(local == null) {
+			return null;
+		}
+		int at = email.lastIndexOf('@');
+		return (at >= 0) ? local + email.substring(at).trim().toLowerCase() : local;
+	}
+	
+	/**
+	 * Normalize the local part of an email address: lowercase, without a "+tag" and without dots,
+	 * so "John.Smith+news@example.com" becomes "johnsmith".
+	 * @param email - email address, may be null
+	 * @return the normalized local part, or null if there is none
+	 */
+	public static String emailLocalPart(String email) {
+		if(email == null) {
+			return null;
+		}
+		String local = email.trim().toLowerCase();
+		int at = local.lastIndexOf('@');
+		if(at >= 0) {
+			local = local.substring(0, at);
+		}
+		int plus = local.indexOf('+');
+		if(plus >= 0) {
+			local = local.substring(0, plus);
+		}
+		local = local.replace(".", "");
+		return local.isEmpty() ? null : local;
+	}
+	
+	/**
+	 * Reduce a phone number to its digits, keeping the last MAX_PHONE_DIGITS.
+	 * @param phone - phone number in any format, may be null
+	 * @return the digits, or null if there are fewer than MIN_PHONE_DIGITS
+	 */
+	public static String phoneDigits(String phone) {
+		if(phone == null) {
+			return null;
+		}
+		StringBuilder digits = new StringBuilder(phone.length());
+		for(int i = 0; i < phone.length(); i++) {
+			char c = phone.charAt(i);
+			if(c >= '0' && c <= '9') {
+				digits.append(c);
+			}
+		}
+		if(digits.length() < MIN_PHONE_DIGITS) {
+			return null;
+		}
+		return digits.substring(Math.max(0, digits.length() - MAX_PHONE_DIGITS));
+	}
+	
+	/**
+	 * Split a name into distinct lowercase tokens, without accents or punctuation.
+	 * @param name - a name, may be null
+	 * @return the tokens in order of appearance, empty if there are none
+	 */
+	public static List<String> nameTokens(String name) {
+		if(name == null) {
+			return new ArrayList<String>(0);
+		}
+		String plain = MARKS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("").toLowerCase();
+		Set<String> tokens = new LinkedHashSet<String>();
+		int start = -1;
+		for(int i = 0; i <= plain.length(); i++) {
+			boolean letter = i < plain.length() && Character.isLetterOrDigit(plain.charAt(i));
+			if(letter && start < 0) {
+				start = i;
+			} else if(!letter && start >= 0) {
+				tokens.add(plain.substring(start, i));
+				start = -1;
+			}
+		}
+		return new ArrayList<String>(tokens);
+	}
+	
+	/**
+	 * Compute the banded MinHash signature of a set of tokens.
+	 * @param tokens - distinct tokens
+	 * @return one hash per band, empty if there are no tokens
+	 */
+	public static long[] minHashBands(Collection<String> tokens) {
+		if(tokens.isEmpty()) {
+			return new long[0];
+		}
+		long[] tokenHashes = new long[tokens.size()];
+		int t = 0;
+		for(String token : tokens) {
+			tokenHashes[t++] = hash(token);
+		}
+		
+		long[] bands = new long[BANDS];
+		for(int band = 0; band < BANDS; band++) {
+			long bandHash = band;
+			for(int row = 0; row < ROWS; row++) {
+				long seed = SEEDS[band * ROWS + row];
+				long min = Long.MAX_VALUE;
+				for(long tokenHash : tokenHashes) {
+					min = Math.min(min, mix(tokenHash ^ seed));
+				}
+				bandHash = mix(bandHash * 31 + min);
+			}
+			bands[band] = bandHash;
+		}
+		return bands;
+	}
+	
+	/**
+	 * Compute the blocking keys of a contact from its normalized fields.
+	 * @param emailLocalPart - from emailLocalPart(), or null
+	 * @param phones - from phoneDigits(), nulls ignored
+	 * @param nameTokens - from nameTokens()
+	 * @return the keys, possibly with repeats
+	 */
+	public static long[] keys(String emailLocalPart, String[] phones, List<String> nameTokens) {
+		long[] bands = minHashBands(nameTokens);
+		long[] keys = new long[1 + phones.length + bands.length];
+		int n = 0;
+		if(emailLocalPart != null) {
+			keys[n++] = mix(EMAIL_TAG ^ hash(emailLocalPart));
+		}
+		for(String phone : phones) {
+			if(phone != null) {
+				keys[n++] = mix(PHONE_TAG ^ hash(phone));
+			}
+		}
+		for(long band : bands) {
+			keys[n++] = mix(NAME_TAG ^ band);
+		}
+		return (n == keys.length) ? keys : Arrays.copyOf(keys, n);
+	}
+	
+	/**
+	 * Helper function hashes a string to 64 bits (FNV-1a, then mixed).
+	 */
+	static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+	
+	/**
+	 * Helper function scrambles the bits of a 64 bit value (the SplitMix64 finalizer).
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,484 @@
+package dedup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import models.Contact;
+import models.DuplicateCluster;
+
+/**
+ * Finds groups of contacts that appear to be the same person, without comparing every pair.
+ * 
+ * Each contact gets the blocking keys described in BlockingKeys, and only contacts sharing a key are compared.
+ * The keys are packed with the contact's index into one long each and sorted with Arrays.parallelSort, so each
+ * block is a run of equal keys and no map of blocks is built.  Blocks larger than maxBlockSize are skipped: their
+ * key is too common to tell contacts apart.  A pair sharing several keys is only compared in the block of the
+ * first one.  Blocks are compared in parallel on a ForkJoinPool, and matching pairs are joined into clusters
+ * with a union-find.
+ * 
+ * Two contacts are duplicates if:
+ *  - their normalized emails are the same, or
+ *  - they share a phone number or email local part, and at least half of their name tokens, or
+ *  - they share at least NAME_MATCH of their name tokens, and their birthdate or company.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class DuplicateDetector {
+	
+	/**
+	 * Most contacts one run can examine, so an index fits in INDEX_BITS
+	 */
+	public static final int MAX_CONTACTS = 1 << 24;
+	
+	private static final int INDEX_BITS = 24;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+	
+	/**
+	 * Name token Jaccard similarity needed with a shared phone number or email local part, and on its own
+	 */
+	private static final double NAME_OVERLAP = 0.5;
+	private static final double NAME_MATCH = 0.8;
+	
+	/**
+	 * Contacts per task when computing keys, and pairs per task when comparing
+	 */
+	private static final int CONTACTS_PER_TASK = 4096;
+	private static final long PAIRS_PER_TASK = 100000;
+	
+	/**
+	 * Outcome of one run
+	 */
+	public static class Result {
+		private final List<DuplicateCluster> clusters;
+		private final int contacts;
+		private final int blocks;
+		private final int oversizedBlocks;
+		private final long comparisons;
+		
+		Result(List<DuplicateCluster> clusters, int contacts, int blocks, int oversizedBlocks, long comparisons) {
+			this.clusters = clusters;
+			this.contacts = contacts;
+			this.blocks = blocks;
+			this.oversizedBlocks = oversizedBlocks;
+			this.comparisons = comparisons;
+		}
+		
+		/**
+		 * @return the clusters, ordered by their lowest id
+		 */
+		public List<DuplicateCluster> getClusters() {
+			return clusters;
+		}
+		
+		public int getContacts() {
+			return contacts;
+		}
+		
+		public int getBlocks() {
+			return blocks;
+		}
+		
+		public int getOversizedBlocks() {
+			return oversizedBlocks;
+		}
+		
+		public long getComparisons() {
+			return comparisons;
+		}
+	}
+	
+	/**
+	 * A contact's normalized fields and blocking keys
+	 */
+	private static class Profile {
+		final int id;
+		final String email;
+		final String emailLocalPart;
+		final String[] phones;
+		final String[] nameTokens;
+		final String company;
+		final LocalDate birthdate;
+		final long[] keys;
+		
+		Profile(Contact contact) {
+			id = contact.getId();
+			email = BlockingKeys.normalizeEmail(contact.getEmail());
+			emailLocalPart = BlockingKeys.emailLocalPart(contact.getEmail());
+			phones = new String[] { BlockingKeys.phoneDigits(contact.getWorkPhone()),
+					BlockingKeys.phoneDigits(contact.getPersonalPhone()) };
+			List<String> tokens = BlockingKeys.nameTokens(contact.getName());
+			nameTokens = tokens.toArray(new String[tokens.size()]);
+			Arrays.sort(nameTokens);
+			String plainCompany = (contact.getCompany() != null) ? contact.getCompany().trim().toLowerCase() : "";
+			company = plainCompany.isEmpty() ? null : plainCompany;
+			birthdate = contact.getBirthdate();
+			
+			long[] hashes = BlockingKeys.keys(emailLocalPart, phones, tokens);
+			// only the top bits of a key are kept, next to the contact's index
+			for(int i = 0; i < hashes.length; i++) {
+				hashes[i] >>>= INDEX_BITS;
+			}
+			Arrays.sort(hashes);
+			int n = 0;
+			for(int i = 0; i < hashes.length; i++) {
+				if(n == 0 || hashes[i] != hashes[n - 1]) {
+					hashes[n++] = hashes[i];
+				}
+			}
+			keys = Arrays.copyOf(hashes, n);
+		}
+	}
+	
+	private final ForkJoinPool pool;
+	private final int maxBlockSize;
+	
+	/**
+	 * @param pool - runs the parallel steps
+	 * @param maxBlockSize - largest block compared
+	 */
+	public DuplicateDetector(ForkJoinPool pool, int maxBlockSize) {
+		this.pool = pool;
+		this.maxBlockSize = maxBlockSize;
+	}
+	
+	/**
+	 * Find the duplicate clusters among contacts.
+	 * @param contacts - contacts to examine, at most MAX_CONTACTS
+	 * @return the clusters and counts of the work done
+	 */
+	public Result detect(final List<Contact> contacts) {
+		if(contacts.size() > MAX_CONTACTS) {
+			throw new IllegalArgumentException("At most " + MAX_CONTACTS + " contacts can be examined at once");
+		}
+		final Profile[] profiles = new Profile[contacts.size()];
+		pool.invoke(new ProfileTask(contacts, profiles, 0, profiles.length));
+		
+		int entryCount = 0;
+		for(Profile profile : profiles) {
+			entryCount += profile.keys.length;
+		}
+		long[] entries = new long[entryCount];
+		int e = 0;
+		for(int i = 0; i < profiles.length; i++) {
+			for(long key : profiles[i].keys) {
+				entries[e++] = (key << INDEX_BITS) | i;
+			}
+		}
+		Arrays.parallelSort(entries);
+		
+		// runs of equal keys, as start offsets into entries, with the end of each at the start of the next
+		List<int[]> blocks = new ArrayList<int[]>();
+		// keys of oversized blocks, sorted below for firstCommonKey
+		long[] oversized = new long[16];
+		int oversizedCount = 0;
+		long pairs = 0;
+		for(int start = 0; start < entries.length; ) {
+			int end = start + 1;
+			while(end < entries.length && (entries[end] >>> INDEX_BITS) == (entries[start] >>> INDEX_BITS)) {
+				end++;
+			}
+			int size = end - start;
+			if(size > maxBlockSize) {
+				if(oversizedCount == oversized.length) {
+					oversized = Arrays.copyOf(oversized, oversizedCount * 2);
+				}
+				oversized[oversizedCount++] = entries[start] >>> INDEX_BITS;
+			} else if(size > 1) {
+				blocks.add(new int[] { start, end });
+				pairs += (long) size * (size - 1) / 2;
+			}
+			start = end;
+		}
+		
+		oversized = Arrays.copyOf(oversized, oversizedCount);
+		// keys of 2^39 or more are negative once shifted into entries, so the entries list them first
+		Arrays.sort(oversized);
+		CompareTask compare = new CompareTask(profiles, entries, oversized, blocks, 0, blocks.size(), pairs);
+		long[][] matched = pool.invoke(compare);
+		
+		UnionFind clusters = new UnionFind(profiles.length);
+		for(long[] pairsFound : matched) {
+			for(long pair : pairsFound) {
+				clusters.union((int) (pair >>> 32), (int) pair);
+			}
+		}
+		return new Result(collect(clusters, profiles), profiles.length, blocks.size(), oversizedCount, compare.comparisons());
+	}
+	
+	/**
+	 * Decide whether two contacts are the same person.
+	 */
+	private static boolean isDuplicate(Profile a, Profile b) {
+		if(a.email != null && a.email.equals(b.email)) {
+			return true;
+		}
+		double nameSimilarity = jaccard(a.nameTokens, b.nameTokens);
+		if(nameSimilarity >= NAME_OVERLAP && (sharesPhone(a, b)
+				|| (a.emailLocalPart != null && a.emailLocalPart.equals(b.emailLocalPart)))) {
+			return true;
+		}
+		return nameSimilarity >= NAME_MATCH && ((a.birthdate != null && a.birthdate.equals(b.birthdate))
+				|| (a.company != null && a.company.equals(b.company)));
+	}
+	
+	private static boolean sharesPhone(Profile a, Profile b) {
+		for(String phone : a.phones) {
+			if(phone != null && (phone.equals(b.phones[0]) || phone.equals(b.phones[1]))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Helper function computes the Jaccard similarity of two sorted sets of tokens.
+	 */
+	private static double jaccard(String[] a, String[] b) {
+		if(a.length == 0 || b.length == 0) {
+			return 0;
+		}
+		int i = 0, j = 0, common = 0;
+		while(i < a.length && j < b.length) {
+			int c = a[i].compareTo(b[j]);
+			if(c == 0) {
+				common++;
+				i++;
+				j++;
+			} else if(c < 0) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return (double) common / (a.length + b.length - common);
+	}
+	
+	/**
+	 * Helper function finds the first key two contacts share, other than the keys of oversized blocks.
+	 * @return the key, or -1 if none
+	 */
+	private static long firstCommonKey(long[] a, long[] b, long[] oversized) {
+		int i = 0, j = 0;
+		while(i < a.length && j < b.length) {
+			if(a[i] == b[j]) {
+				if(Arrays.binarySearch(oversized, a[i]) < 0) {
+					return a[i];
+				}
+				i++;
+				j++;
+			} else if(a[i] < b[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Helper function lists the clusters of two or more contacts, as contact ids.
+	 */
+	private static List<DuplicateCluster> collect(UnionFind unionFind, Profile[] profiles) {
+		Map<Integer, List<Integer>> members = new HashMap<Integer, List<Integer>>();
+		for(int i = 0; i < profiles.length; i++) {
+			int root = unionFind.find(i);
+			if(root != i || unionFind.size(i) > 1) {
+				List<Integer> ids = members.get(root);
+				if(ids == null) {
+					ids = new ArrayList<Integer>();
+					members.put(root, ids);
+				}
+				ids.add(profiles[i].id);
+			}
+		}
+		
+		List<DuplicateCluster> clusters = new ArrayList<DuplicateCluster>(members.size());
+		for(List<Integer> ids : members.values()) {
+			Collections.sort(ids);
+			clusters.add(new DuplicateCluster(ids));
+		}
+		Collections.sort(clusters, new Comparator<DuplicateCluster>() {
+		
+			// @Override
+			public int compare(DuplicateCluster a, DuplicateCluster b) {
+				return Integer.compare(a.getIds().get(0), b.getIds().get(0));
+			}
+		});
+		return clusters;
+	}
+	
+	/**
+	 * Computes the profiles of a range of contacts
+	 */
+	private static class ProfileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final List<Contact> contacts;
+		private final Profile[] profiles;
+		private final int from;
+		private final int to;
+		
+		ProfileTask(List<Contact> contacts, Profile[] profiles, int from, int to) {
+			this.contacts = contacts;
+			this.profiles = profiles;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from <= CONTACTS_PER_TASK) {
+				for(int i = from; i < to; i++) {
+					profiles[i] = new Profile(contacts.get(i));
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ProfileTask(contacts, profiles, from, middle), new ProfileTask(contacts, profiles, middle, to));
+		}
+	}
+	
+	/**
+	 * Compares the pairs of a range of blocks, splitting it while it holds more than PAIRS_PER_TASK pairs.
+	 * Returns the matching pairs found, each as the two contact indexes packed in a long.
+	 */
+	private static class CompareTask extends RecursiveTask<long[][]> {
+		private static final long serialVersionUID = 1L;
+		
+		private final Profile[] profiles;
+		private final long[] entries;
+		private final long[] oversized;
+		private final List<int[]> blocks;
+		private final int from;
+		private final int to;
+		private final long pairs;
+		private long comparisons = 0;
+		private CompareTask left;
+		private CompareTask right;
+		
+		CompareTask(Profile[] profiles, long[] entries, long[] oversized, List<int[]> blocks, int from, int to,
+				long pairs) {
+			this.profiles = profiles;
+			this.entries = entries;
+			this.oversized = oversized;
+			this.blocks = blocks;
+			this.from = from;
+			this.to = to;
+			this.pairs = pairs;
+		}
+		
+		/**
+		 * @return pairs compared by this task and its subtasks, once it has completed
+		 */
+		long comparisons() {
+			return (left != null) ? left.comparisons() + right.comparisons() : comparisons;
+		}
+		
+		@Override
+		protected long[][] compute() {
+			if(pairs > PAIRS_PER_TASK && to - from > 1) {
+				// split where half of the pairs are on each side
+				long half = 0;
+				int middle = from;
+				while(middle < to - 1 && half < pairs / 2) {
+					half += pairsIn(blocks.get(middle++));
+				}
+				left = new CompareTask(profiles, entries, oversized, blocks, from, middle, half);
+				right = new CompareTask(profiles, entries, oversized, blocks, middle, to, pairs - half);
+				invokeAll(left, right);
+				long[][] a = left.join();
+				long[][] b = right.join();
+				long[][] all = Arrays.copyOf(a, a.length + b.length);
+				System.arraycopy(b, 0, all, a.length, b.length);
+				return all;
+			}
+			
+			long[] found = new long[16];
+			int n = 0;
+			for(int i = from; i < to; i++) {
+				int[] block = blocks.get(i);
+				long key = entries[block[0]] >>> INDEX_BITS;
+				for(int x = block[0]; x < block[1]; x++) {
+					int a = (int) (entries[x] & INDEX_MASK);
+					for(int y = x + 1; y < block[1]; y++) {
+						int b = (int) (entries[y] & INDEX_MASK);
+						if(firstCommonKey(profiles[a].keys, profiles[b].keys, oversized) != key) {
+							// compared in the block of an earlier key
+							continue;
+						}
+						comparisons++;
+						if(isDuplicate(profiles[a], profiles[b])) {
+							if(n == found.length) {
+								found = Arrays.copyOf(found, n * 2);
+							}
+							found[n++] = ((long) a << 32) | b;
+						}
+					}
+				}
+			}
+			return new long[][] { Arrays.copyOf(found, n) };
+		}
+		
+		private static long pairsIn(int[] block) {
+			long size = block[1] - block[0];
+			return size * (size - 1) / 2;
+		}
+	}
+	
+	/**
+	 * Disjoint sets of contact indexes, with union by size and path halving
+	 */
+	private static class UnionFind {
+		private final int[] parent;
+		private final int[] size;
+		
+		UnionFind(int n) {
+			parent = new int[n];
+			size = new int[n];
+			for(int i = 0; i < n; i++) {
+				parent[i] = i;
+				size[i] = 1;
+			}
+		}
+		
+		int find(int i) {
+			while(parent[i] != i) {
+				parent[i] = parent[parent[i]];
+				i = parent[i];
+			}
+			return i;
+		}
+		
+		/**
+		 * @return size of the set holding i, if i is its root
+		 */
+		int size(int i) {
+			return size[i];
+		}
+		
+		void union(int a, int b) {
+			int rootA = find(a);
+			int rootB = find(b);
+			if(rootA == rootB) {
+				return;
+			}
+			if(size[rootA] < size[rootB]) {
+				int swap = rootA;
+				rootA = rootB;
+				rootB = swap;
+			}
+			parent[rootB] = rootA;
+			size[rootA] += size[rootB];
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package dedup;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import dbaccess.ContactDAO;
+import models.Contact;
+import models.DuplicateCluster;
+import models.DuplicateJobStatus;
+
+/**
+ * Runs DuplicateDetector over every contact in the background, and keeps the clusters of the latest run.
+ * 
+ * Only one run happens at a time.  Contacts are read with ContactDAO.listAllContacts() and compared on this job's
+ * own ForkJoinPool, so a run does not hold up the pools requests use.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class DuplicateJob {
+	
+	private final ContactDAO contactDAO;
+	private final ForkJoinPool pool;
+	private final DuplicateDetector detector;
+	
+	private Thread runner = null;
+	private String state = "idle";
+	private long startedAt = 0;
+	private long finishedAt = 0;
+	private long loadMillis = 0;
+	private long detectMillis = 0;
+	private DuplicateDetector.Result result = null;
+	private String error = null;
+	
+	/**
+	 * @param contactDAO - DAO used only by this job
+	 * @param parallelism - number of threads comparing contacts
+	 * @param maxBlockSize - largest block compared, see DuplicateDetector
+	 */
+	public DuplicateJob(ContactDAO contactDAO, int parallelism, int maxBlockSize) {
+		this.contactDAO = contactDAO;
+		this.pool = new ForkJoinPool(parallelism);
+		this.detector = new DuplicateDetector(pool, maxBlockSize);
+	}
+	
+	/**
+	 * Start a run, unless one is running.
+	 * @return true if a run was started
+	 */
+	public synchronized boolean start() {
+		if(runner != null) {
+			return false;
+		}
+		state = "running";
+		startedAt = System.currentTimeMillis();
+		finishedAt = 0;
+		loadMillis = 0;
+		detectMillis = 0;
+		error = null;
+		runner = new Thread(new Runnable() {
+		
+			// @Override
+			public void run() {
+				runDetection();
+			}
+		}, "duplicate-detection");
+		runner.setDaemon(true);
+		runner.start();
+		return true;
+	}
+	
+	/**
+	 * @return progress of the current run, or outcome of the latest
+	 */
+	public synchronized DuplicateJobStatus getStatus() {
+		int clusters = 0;
+		int duplicates = 0;
+		if(result != null) {
+			clusters = result.getClusters().size();
+			for(DuplicateCluster cluster : result.getClusters()) {
+				duplicates += cluster.getIds().size();
+			}
+		}
+		return new DuplicateJobStatus(state, startedAt, finishedAt, loadMillis, detectMillis,
+				(result != null) ? result.getContacts() : 0, (result != null) ? result.getBlocks() : 0,
+				(result != null) ? result.getOversizedBlocks() : 0, (result != null) ? result.getComparisons() : 0,
+				clusters, duplicates, error);
+	}
+	
+	/**
+	 * @return clusters found by the latest successful run, or null if there has been none
+	 */
+	public synchronized List<DuplicateCluster> getClusters() {
+		return (result != null) ? result.getClusters() : null;
+	}
+	
+	/**
+	 * Stop the comparing threads.  A run in progress fails.
+	 */
+	public void close() {
+		pool.shutdownNow();
+	}
+	
+	private void runDetection() {
+		try {
+			long start = System.currentTimeMillis();
+			List<Contact> contacts = contactDAO.listAllContacts();
+			long loaded = System.currentTimeMillis();
+			synchronized(this) {
+				loadMillis = loaded - start;
+			}
+			
+			DuplicateDetector.Result detected = detector.detect(contacts);
+			long finished = System.currentTimeMillis();
+			System.out.println("Duplicate detection: " + detected.getContacts() + " contacts, " + detected.getBlocks()
+					+ " blocks, " + detected.getComparisons() + " comparisons, " + detected.getClusters().size()
+					+ " clusters in " + (finished - loaded) + " ms.");
+			synchronized(this) {
+				result = detected;
+				detectMillis = finished - loaded;
+				finishedAt = finished;
+				state = "done";
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			synchronized(this) {
+				error = e.toString();
+				finishedAt = System.currentTimeMillis();
+				state = "failed";
+			}
+		} finally {
+			synchronized(this) {
+				runner = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package directory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dbaccess.ContactDAO;
+import dbaccess.ContactSort;
+import dbaccess.TopK;
+import models.Contact;
+import models.ContactDelta;
+
+/**
+ * An in-memory copy of the contact list, started from a ContactSnapshot file and kept current from the database.
+ * 
+ * On startup the snapshot file is mapped, and only the changes made since it was written are read from the database
+ * (see ContactDAO.listChangedSince), instead of every contact.  Changes are then read every catchUpMillis, and
+ * as soon as possible after a write on this node.  Every snapshotIntervalMillis the contacts are written to a new
+ * snapshot file, which replaces the changes held in memory.  With no snapshot file yet, the first catch-up reads
+ * every contact once and a snapshot is written straight away.
+ * 
+ * All of this happens on one background thread.  Readers see the state of the latest catch-up, and never wait for one.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactDirectory {
+	
+	/**
+	 * A snapshot and the changes made since, replaced as a whole by each catch-up
+	 */
+	private static class State {
+		final ContactSnapshot snapshot;
+		final ContactTable changed;
+		final Set<Integer> deleted;
+		final long version;
+		
+		State(ContactSnapshot snapshot, ContactTable changed, Set<Integer> deleted, long version) {
+			this.snapshot = snapshot;
+			this.changed = changed;
+			this.deleted = deleted;
+			this.version = version;
+		}
+	}
+	
+	private final File file;
+	private final ContactDAO contactDAO;
+	private final ScheduledExecutorService executor;
+	private final AtomicBoolean catchUpPending = new AtomicBoolean(false);
+	
+	/**
+	 * Snapshot mapped at startup, until the first catch-up succeeds.  Only used on the executor thread.
+	 */
+	private ContactSnapshot loaded = null;
+	
+	/**
+	 * Null until the first catch-up succeeds
+	 */
+	private volatile State state = null;
+	
+	/**
+	 * Create the directory and start loading it in the background.
+	 * @param file - snapshot file, created if it does not exist
+	 * @param contactDAO - DAO used only by this directory.  Must support listChangedSince (not sharded).
+	 * @param catchUpMillis - time between reads of the latest changes
+	 * @param snapshotIntervalMillis - time between snapshot writes
+	 */
+	public ContactDirectory(File file, ContactDAO contactDAO, long catchUpMillis, long snapshotIntervalMillis) {
+		this.file = file;
+		this.contactDAO = contactDAO;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		
+			// @Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "contact-directory");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		executor.scheduleWithFixedDelay(new Runnable() {
+		
+			// @Override
+			public void run() {
+				catchUp();
+			}
+		}, 0, catchUpMillis, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(new Runnable() {
+		
+			// @Override
+			public void run() {
+				writeSnapshot();
+			}
+		}, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @return true once the directory has caught up with the database
+	 */
+	public boolean isLoaded() {
+		return state != null;
+	}
+	
+	/**
+	 * @return version of the newest change included, or -1 if not loaded yet
+	 */
+	public long getVersion() {
+		State current = state;
+		return (current != null) ? current.version : -1;
+	}
+	
+	/**
+	 * List contacts in id order, as ContactDAO.listAllContacts(limit) does.
+	 * @param limit - maximum number of contacts returned, 0 for all
+	 * @return the contacts, or null if the directory is not loaded yet
+	 */
+	public List<Contact> listContacts(int limit) {
+		return listContacts(null, limit);
+	}
+	
+	/**
+	 * List the first contacts in a given order.
+	 * 
+	 * Only the sort field of each contact is decoded to order them, and with a limit the first limit are
+	 * picked with a TopK rather than by sorting them all.  The list returned materializes each contact
+	 * only when it is read, e.g. while it is serialized.
+	 * 
+	 * @param sort - order of the contacts, null for id order
+	 * @param limit - maximum number of contacts returned, 0 for all
+	 * @return the contacts, or null if the directory is not loaded yet
+	 */
+	public List<Contact> listContacts(ContactSort sort, int limit) {
+		State current = state;
+		if(current == null) {
+			return null;
+		}
+		if(sort == null) {
+			return new ContactList(current.snapshot, current.changed, merge(current, limit));
+		}
+		
+		int[] refs = merge(current, 0);
+		List<Contact> keys;
+		if(limit > 0 && limit < refs.length) {
+			TopK<Contact> first = new TopK<Contact>(sort.comparator(), limit, refs.length);
+			for(int ref : refs) {
+				first.add(sortKey(current, ref, sort.getField()));
+			}
+			keys = first.toList();
+		} else {
+			keys = new ArrayList<Contact>(refs.length);
+			for(int ref : refs) {
+				keys.add(sortKey(current, ref, sort.getField()));
+			}
+			Collections.sort(keys, sort.comparator());
+		}
+		
+		int[] sorted = new int[keys.size()];
+		for(int i = 0; i < sorted.length; i++) {
+			int id = keys.get(i).getId();
+			int row = current.changed.indexOf(id);
+			sorted[i] = (row >= 0) ? ContactList.tableRef(row) : current.snapshot.indexOf(id);
+		}
+		return new ContactList(current.snapshot, current.changed, sorted);
+	}
+	
+	/**
+	 * Read the latest changes soon, e.g. after a write on this node.  Does nothing if a read is already waiting.
+	 */
+	public void requestCatchUp() {
+		if(catchUpPending.compareAndSet(false, true)) {
+			try {
+				executor.execute(new Runnable() {
+				
+					// @Override
+					public void run() {
+						catchUpPending.set(false);
+						catchUp();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// closed
+			}
+		}
+	}
+	
+	/**
+	 * Stop the background thread.  The snapshot file is left as last written.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Map the snapshot file, if there is a valid one.
+	 */
+	private void open() {
+		loaded = ContactSnapshot.empty();
+		if(file.isFile()) {
+			try {
+				loaded = ContactSnapshot.open(file);
+				System.out.println("Contact snapshot " + file + ": " + loaded.size() + " contacts at version "
+						+ loaded.getVersion() + ".");
+			} catch (IOException e) {
+				System.out.println("Contact snapshot " + file + " ignored: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Read the changes made since the latest catch-up.  Failures are retried on the next.
+	 */
+	private void catchUp() {
+		State current = state;
+		if(current == null) {
+			if(loaded == null) {
+				open();
+			}
+			current = new State(loaded, ContactTable.empty(), new HashSet<Integer>(), loaded.getVersion());
+		}
+		try {
+			ContactDelta delta = contactDAO.listChangedSince(current.version);
+			if(state == null || !delta.getContacts().isEmpty() || !delta.getDeleted().isEmpty()) {
+				ContactTable changed = current.changed.apply(delta.getContacts(), delta.getDeleted());
+				// only contacts in the snapshot need to be hidden
+				Set<Integer> deleted = new HashSet<Integer>(current.deleted);
+				for(Contact contact : delta.getContacts()) {
+					deleted.remove(contact.getId());
+				}
+				for(int id : delta.getDeleted()) {
+					if(current.snapshot.indexOf(id) >= 0) {
+						deleted.add(id);
+					}
+				}
+				boolean first = (state == null);
+				state = new State(current.snapshot, changed, Collections.unmodifiableSet(deleted), delta.getVersion());
+				if(first) {
+					System.out.println("Contact directory loaded: " + changed.size() + " changes since the snapshot.");
+					loaded = null;
+					if(current.snapshot.size() == 0 && changed.size() > 0) {
+						writeSnapshot();
+					}
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Write the contacts to a new snapshot file, and replace the changes held in memory with it.
+	 */
+	private void writeSnapshot() {
+		State current = state;
+		if(current == null || (current.changed.size() == 0 && current.deleted.isEmpty())) {
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			List<Contact> contacts = new ContactList(current.snapshot, current.changed, merge(current, 0));
+			ContactSnapshot.write(file, current.version, contacts);
+			ContactSnapshot snapshot = ContactSnapshot.open(file);
+			// catch-ups run on this thread too, so nothing has changed state meanwhile
+			state = new State(snapshot, ContactTable.empty(), Collections.<Integer>emptySet(), current.version);
+			System.out.println("Contact snapshot " + file + " written: " + contacts.size() + " contacts at version "
+					+ current.version + " in " + (System.currentTimeMillis() - start) + " ms.");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Helper function lists the contacts of a snapshot with the changes since applied, in id order.
+	 * @return references to the contacts, see ContactList
+	 */
+	private static int[] merge(State current, int limit) {
+		ContactSnapshot snapshot = current.snapshot;
+		ContactTable changed = current.changed;
+		boolean anyDeleted = !current.deleted.isEmpty();
+		int max = (limit > 0) ? limit : Integer.MAX_VALUE;
+		int[] refs = new int[Math.min(max, snapshot.size() + changed.size())];
+		int n = 0;
+		int row = 0;
+		for(int i = 0; i < snapshot.size() && n < max; i++) {
+			int id = snapshot.getId(i);
+			while(row < changed.size() && changed.getId(row) < id && n < max) {
+				refs[n++] = ContactList.tableRef(row++);
+			}
+			if(n == max) {
+				break;
+			}
+			if(row < changed.size() && changed.getId(row) == id) {
+				refs[n++] = ContactList.tableRef(row++);
+			} else if(!anyDeleted || !current.deleted.contains(id)) {
+				refs[n++] = i;
+			}
+		}
+		while(row < changed.size() && n < max) {
+			refs[n++] = ContactList.tableRef(row++);
+		}
+		return Arrays.copyOf(refs, n);
+	}
+	
+	/**
+	 * Helper function decodes only the id and sort field of a contact.
+	 */
+	private static Contact sortKey(State current, int ref, ContactSort.Field field) {
+		return (ref >= 0) ? current.snapshot.getSortKey(ref, field) : current.changed.getSortKey(-1 - ref, field);
+	}
+}
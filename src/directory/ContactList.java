@@ -0,0 +1,47 @@
+package directory;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import models.Contact;
+
+/**
+ * A read-only list of contacts drawn from a ContactSnapshot and a ContactTable, materialized one at a time as
+ * they are read.  Serializing it never holds more than one contact at once, instead of the whole list.
+ * 
+ * Each element is a reference: a snapshot index (0 or more), or a table row encoded by tableRef().
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+class ContactList extends AbstractList<Contact> implements RandomAccess {
+	
+	private final ContactSnapshot snapshot;
+	private final ContactTable table;
+	private final int[] refs;
+	
+	ContactList(ContactSnapshot snapshot, ContactTable table, int[] refs) {
+		this.snapshot = snapshot;
+		this.table = table;
+		this.refs = refs;
+	}
+	
+	/**
+	 * @param row - a row of the table
+	 * @return the reference to it, always negative
+	 */
+	static int tableRef(int row) {
+		return -1 - row;
+	}
+	
+	@Override
+	public Contact get(int index) {
+		int ref = refs[index];
+		return (ref >= 0) ? snapshot.getContact(ref) : table.getContact(-1 - ref);
+	}
+	
+	@Override
+	public int size() {
+		return refs.length;
+	}
+}
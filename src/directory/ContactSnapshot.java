@@ -0,0 +1,338 @@
+package directory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import dbaccess.ContactSort;
+import models.Address;
+import models.Contact;
+
+/**
+ * A read-only copy of the contact list in a compact binary file, read through a MappedByteBuffer.
+ * 
+ * The file holds a header, then one fixed-width record per contact in id order, then a heap of the strings
+ * the records refer to.  Each distinct string is stored once.  Profile images are not stored, only their
+ * profileImageHash (see ImageStore).  Contacts are decoded from the mapped file when read, so opening a snapshot
+ * costs no more than mapping it, and the operating system's page cache holds the data rather than the heap.
+ * 
+ * File layout, big-endian:
+ *   header: magic, format, version of the newest change included (long), record count, heap offset (long)
+ *   record: id, address id, birthdate (epoch day or NO_DATE), then heap offsets of the STRING_FIELDS (-1 for null)
+ *   heap: for each string its UTF-8 length (int) and bytes
+ * 
+ * The whole file must be under 2 GB, the most a single MappedByteBuffer can map.
+ * 
+ * This class is thread safe.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactSnapshot {
+	
+	private static final int MAGIC = 0x43534e50; // "CSNP"
+	private static final int FORMAT = 1;
+	private static final int HEADER_SIZE = 28;
+	
+	/**
+	 * Strings of a record: name, company, profileImageHash, email, workPhone, personalPhone,
+	 * and the address's line1, line2, line3, city, state, zip, country
+	 */
+	private static final int STRING_FIELDS = 13;
+	private static final int RECORD_SIZE = 12 + 4 * STRING_FIELDS;
+	
+	private static final int NO_DATE = Integer.MIN_VALUE;
+	private static final int NO_STRING = -1;
+	
+	private final ByteBuffer buffer;
+	private final long version;
+	private final int count;
+	private final int heapOffset;
+	
+	private ContactSnapshot(ByteBuffer buffer, long version, int count, int heapOffset) {
+		this.buffer = buffer;
+		this.version = version;
+		this.count = count;
+		this.heapOffset = heapOffset;
+	}
+	
+	/**
+	 * @return an empty snapshot, for a directory with no snapshot file yet
+	 */
+	public static ContactSnapshot empty() {
+		return new ContactSnapshot(ByteBuffer.allocate(0), 0, 0, 0);
+	}
+	
+	/**
+	 * Map a snapshot file.
+	 * @param file - file written by write()
+	 * @return the snapshot
+	 * @throws IOException if the file cannot be read, or is not a complete snapshot
+	 */
+	public static ContactSnapshot open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if(size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				throw new IOException("Not a contact snapshot: " + file);
+			}
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			
+			if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+				throw new IOException("Not a contact snapshot: " + file);
+			}
+			long version = buffer.getLong(8);
+			int count = buffer.getInt(16);
+			long heapOffset = buffer.getLong(20);
+			if(count < 0 || heapOffset != HEADER_SIZE + (long) count * RECORD_SIZE || heapOffset > size) {
+				throw new IOException("Truncated contact snapshot: " + file);
+			}
+			return new ContactSnapshot(buffer, version, count, (int) heapOffset);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Write a snapshot file.  It is written to a temporary file and moved into place,
+	 * so a reader never maps a partially written snapshot.
+	 * 
+	 * @param file - file to write
+	 * @param version - version of the newest change included in contacts (see ContactDAO.listChangedSince)
+	 * @param contacts - the contacts, in id order
+	 * @throws IOException if the file cannot be written, or would be 2 GB or more
+	 */
+	public static void write(File file, long version, Collection<Contact> contacts) throws IOException {
+		if(HEADER_SIZE + (long) contacts.size() * RECORD_SIZE > Integer.MAX_VALUE) {
+			throw new IOException("Contact snapshot would be over 2 GB");
+		}
+		ByteBuffer records = ByteBuffer.allocate(contacts.size() * RECORD_SIZE);
+		Heap heap = new Heap();
+		for(Contact contact : contacts) {
+			Address address = contact.getAddress();
+			records.putInt(contact.getId());
+			records.putInt((address != null) ? address.getId() : 0);
+			records.putInt((contact.getBirthdate() != null) ? (int) contact.getBirthdate().toEpochDay() : NO_DATE);
+			records.putInt(heap.add(contact.getName()));
+			records.putInt(heap.add(contact.getCompany()));
+			records.putInt(heap.add(contact.getProfileImageHash()));
+			records.putInt(heap.add(contact.getEmail()));
+			records.putInt(heap.add(contact.getWorkPhone()));
+			records.putInt(heap.add(contact.getPersonalPhone()));
+			records.putInt(heap.add((address != null) ? address.getLine1() : null));
+			records.putInt(heap.add((address != null) ? address.getLine2() : null));
+			records.putInt(heap.add((address != null) ? address.getLine3() : null));
+			records.putInt(heap.add((address != null) ? address.getCity() : null));
+			records.putInt(heap.add((address != null) ? address.getState() : null));
+			records.putInt(heap.add((address != null) ? address.getZip() : null));
+			records.putInt(heap.add((address != null) ? address.getCountry() : null));
+		}
+		long heapOffset = HEADER_SIZE + (long) records.capacity();
+		if(heapOffset + heap.size() > Integer.MAX_VALUE) {
+			throw new IOException("Contact snapshot would be over 2 GB");
+		}
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(FORMAT);
+		header.putLong(version);
+		header.putInt(contacts.size());
+		header.putLong(heapOffset);
+		header.flip();
+		records.flip();
+		
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while(header.hasRemaining()) {
+				channel.write(header);
+			}
+			while(records.hasRemaining()) {
+				channel.write(records);
+			}
+			ByteBuffer heapBytes = heap.bytes();
+			while(heapBytes.hasRemaining()) {
+				channel.write(heapBytes);
+			}
+			channel.force(false);
+		} finally {
+			raf.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * @return version of the newest change included
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return number of contacts
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * @param index - position of a contact, from 0 to size() - 1
+	 * @return its id
+	 */
+	public int getId(int index) {
+		return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE);
+	}
+	
+	/**
+	 * Find a contact by id.
+	 * @param id - Contact.id value
+	 * @return its position, or -1 if it is not in the snapshot
+	 */
+	public int indexOf(int id) {
+		int low = 0;
+		int high = count - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleId = getId(middle);
+			if(middleId < id) {
+				low = middle + 1;
+			} else if(middleId > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Decode a contact.
+	 * @param index - position of a contact, from 0 to size() - 1
+	 * @return a new Contact, without its profile image bytes
+	 */
+	public Contact getContact(int index) {
+		int record = HEADER_SIZE + index * RECORD_SIZE;
+		int epochDay = buffer.getInt(record + 8);
+		int strings = record + 12;
+		
+		Address address = new Address(buffer.getInt(record + 4), string(strings, 6), string(strings, 7),
+				string(strings, 8), string(strings, 9), string(strings, 10), string(strings, 11), string(strings, 12));
+		Contact contact = new Contact(buffer.getInt(record), string(strings, 0), string(strings, 1), null,
+				string(strings, 3), (epochDay != NO_DATE) ? LocalDate.ofEpochDay(epochDay) : null,
+				string(strings, 4), string(strings, 5), address);
+		contact.setProfileImageHash(string(strings, 2));
+		return contact;
+	}
+	
+	/**
+	 * Decode only the id of a contact and the field it is sorted on, for choosing which contacts to decode in full.
+	 * @param index - position of a contact, from 0 to size() - 1
+	 * @param field - field sorted on
+	 * @return a new Contact with only those set
+	 */
+	public Contact getSortKey(int index, ContactSort.Field field) {
+		int record = HEADER_SIZE + index * RECORD_SIZE;
+		int strings = record + 12;
+		Contact contact = new Contact(buffer.getInt(record));
+		switch(field) {
+		case NAME:
+			contact.setName(string(strings, 0));
+			break;
+		case COMPANY:
+			contact.setCompany(string(strings, 1));
+			break;
+		case BIRTHDATE:
+			int epochDay = buffer.getInt(record + 8);
+			contact.setBirthdate((epochDay != NO_DATE) ? LocalDate.ofEpochDay(epochDay) : null);
+			break;
+		case CITY:
+			Address address = new Address();
+			address.setCity(string(strings, 9));
+			contact.setAddress(address);
+			break;
+		}
+		return contact;
+	}
+	
+	/**
+	 * Helper function decodes a string field of a record.
+	 */
+	private String string(int strings, int field) {
+		int offset = buffer.getInt(strings + 4 * field);
+		if(offset == NO_STRING) {
+			return null;
+		}
+		int position = heapOffset + offset;
+		int length = buffer.getInt(position);
+		byte[] bytes = new byte[length];
+		// a duplicate has its own position, so concurrent readers do not interfere
+		ByteBuffer view = buffer.duplicate();
+		view.position(position + 4);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * The string heap of a snapshot being written.  Each distinct string is added once.
+	 */
+	private static class Heap {
+		private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+		private ByteBuffer bytes = ByteBuffer.allocate(4096);
+		
+		/**
+		 * @return offset of the string in the heap, or NO_STRING for null
+		 * @throws IOException if the heap would be 2 GB or more
+		 */
+		int add(String value) throws IOException {
+			if(value == null) {
+				return NO_STRING;
+			}
+			Integer offset = offsets.get(value);
+			if(offset == null) {
+				byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+				long needed = (long) bytes.position() + 4 + utf8.length;
+				if(needed > Integer.MAX_VALUE) {
+					throw new IOException("Contact snapshot would be over 2 GB");
+				}
+				if(needed > bytes.capacity()) {
+					ByteBuffer grown = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE,
+							Math.max(needed, 2L * bytes.capacity())));
+					bytes.flip();
+					grown.put(bytes);
+					bytes = grown;
+				}
+				offset = bytes.position();
+				bytes.putInt(utf8.length);
+				bytes.put(utf8);
+				offsets.put(value, offset);
+			}
+			return offset;
+		}
+		
+		int size() {
+			return bytes.position();
+		}
+		
+		ByteBuffer bytes() {
+			ByteBuffer written = bytes.duplicate();
+			written.flip();
+			return written;
+		}
+	}
+}
@@ -0,0 +1,382 @@
+package directory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import dbaccess.ContactSort;
+import models.Address;
+import models.Contact;
+
+/**
+ * A compact, read-only table of contacts held in memory, in id order.
+ * 
+ * Each field is a column of ints: ids, address ids and birthdates (as epoch days) are stored as they are.
+ * Fields shared by many contacts (company, line3, city, state, zip and country) are codes into a Dictionary,
+ * so each distinct value is held once however many contacts have it.  The other strings are offsets into one
+ * byte array holding them as UTF-8, instead of a String object each.  Contacts are materialized from the columns
+ * only when read, e.g. while a list is serialized, and are not kept.
+ * 
+ * A table is never changed once built.  apply() builds the next one, sharing the dictionary.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactTable {
+	
+	private static final int NO_DATE = Integer.MIN_VALUE;
+	private static final int NO_CODE = -1;
+	
+	/**
+	 * Strings shared by many contacts, each held once and referred to by code.
+	 * 
+	 * Values are only added, on the thread building tables.  Readers only look up codes of a table published to them,
+	 * so they always see the value.
+	 */
+	private static class Dictionary {
+		private final Map<String, Integer> codes = new HashMap<String, Integer>();
+		private volatile String[] values = new String[64];
+		private int size = 0;
+		
+		synchronized int encode(String value) {
+			if(value == null) {
+				return NO_CODE;
+			}
+			Integer code = codes.get(value);
+			if(code == null) {
+				String[] current = values;
+				if(size == current.length) {
+					current = Arrays.copyOf(current, size * 2);
+				}
+				current[size] = value;
+				values = current;
+				code = size++;
+				codes.put(value, code);
+			}
+			return code;
+		}
+		
+		String decode(int code) {
+			return (code != NO_CODE) ? values[code] : null;
+		}
+	}
+	
+	private final Dictionary dictionary;
+	private final int size;
+	
+	private final int[] ids;
+	private final int[] addressIds;
+	private final int[] birthdates;
+	
+	private final int[] names;
+	private final int[] emails;
+	private final int[] workPhones;
+	private final int[] personalPhones;
+	private final int[] imageHashes;
+	private final int[] line1s;
+	private final int[] line2s;
+	
+	private final int[] companies;
+	private final int[] line3s;
+	private final int[] cities;
+	private final int[] states;
+	private final int[] zips;
+	private final int[] countries;
+	
+	/**
+	 * The strings the offsets refer to, each as its UTF-8 length (a varint) and bytes.  Only grows while
+	 * the table is built.
+	 */
+	private byte[] heap = new byte[0];
+	private int heapSize = 0;
+	
+	private ContactTable(Dictionary dictionary, int capacity) {
+		this.dictionary = dictionary;
+		this.size = capacity;
+		ids = new int[capacity];
+		addressIds = new int[capacity];
+		birthdates = new int[capacity];
+		names = new int[capacity];
+		emails = new int[capacity];
+		workPhones = new int[capacity];
+		personalPhones = new int[capacity];
+		imageHashes = new int[capacity];
+		line1s = new int[capacity];
+		line2s = new int[capacity];
+		companies = new int[capacity];
+		line3s = new int[capacity];
+		cities = new int[capacity];
+		states = new int[capacity];
+		zips = new int[capacity];
+		countries = new int[capacity];
+	}
+	
+	/**
+	 * @return an empty table, with a dictionary of its own
+	 */
+	public static ContactTable empty() {
+		return new ContactTable(new Dictionary(), 0);
+	}
+	
+	/**
+	 * Build the next table: this one with contacts added or replaced, and others removed.
+	 * 
+	 * @param changed - contacts inserted or updated, in the order they were changed.  The last change to an id wins.
+	 * @param deleted - ids of contacts removed
+	 * @return the new table
+	 */
+	public ContactTable apply(Collection<Contact> changed, Collection<Integer> deleted) {
+		TreeMap<Integer, Contact> byId = new TreeMap<Integer, Contact>();
+		for(Contact contact : changed) {
+			byId.put(contact.getId(), contact);
+		}
+		Set<Integer> removed = new HashSet<Integer>(deleted);
+		removed.removeAll(byId.keySet());
+		
+		// rows kept, then each new contact merged in by id
+		int count = 0;
+		for(int row = 0; row < size; row++) {
+			if(!byId.containsKey(ids[row]) && !removed.contains(ids[row])) {
+				count++;
+			}
+		}
+		ContactTable next = new ContactTable(dictionary, count + byId.size());
+		Iterator<Contact> added = byId.values().iterator();
+		Contact contact = added.hasNext() ? added.next() : null;
+		int to = 0;
+		for(int row = 0; row < size; row++) {
+			int id = ids[row];
+			while(contact != null && contact.getId() < id) {
+				next.set(to++, contact);
+				contact = added.hasNext() ? added.next() : null;
+			}
+			if(!byId.containsKey(id) && !removed.contains(id)) {
+				next.copy(to++, this, row);
+			}
+		}
+		while(contact != null) {
+			next.set(to++, contact);
+			contact = added.hasNext() ? added.next() : null;
+		}
+		next.heap = Arrays.copyOf(next.heap, next.heapSize);
+		return next;
+	}
+	
+	/**
+	 * @return number of contacts
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param row - position of a contact, from 0 to size() - 1
+	 * @return its id
+	 */
+	public int getId(int row) {
+		return ids[row];
+	}
+	
+	/**
+	 * Find a contact by id.
+	 * @param id - Contact.id value
+	 * @return its row, or -1 if it is not in the table
+	 */
+	public int indexOf(int id) {
+		int row = Arrays.binarySearch(ids, 0, size, id);
+		return (row >= 0) ? row : -1;
+	}
+	
+	/**
+	 * Materialize a contact.
+	 * @param row - position of a contact, from 0 to size() - 1
+	 * @return a new Contact, without its profile image bytes
+	 */
+	public Contact getContact(int row) {
+		Address address = new Address(addressIds[row], load(line1s[row]), load(line2s[row]),
+				dictionary.decode(line3s[row]), dictionary.decode(cities[row]), dictionary.decode(states[row]),
+				dictionary.decode(zips[row]), dictionary.decode(countries[row]));
+		Contact contact = new Contact(ids[row], load(names[row]), dictionary.decode(companies[row]), null,
+				load(emails[row]), (birthdates[row] != NO_DATE) ? LocalDate.ofEpochDay(birthdates[row]) : null,
+				load(workPhones[row]), load(personalPhones[row]), address);
+		contact.setProfileImageHash(load(imageHashes[row]));
+		return contact;
+	}
+	
+	/**
+	 * Materialize only the id of a contact and the field it is sorted on, as ContactSnapshot.getSortKey() does.
+	 * @param row - position of a contact, from 0 to size() - 1
+	 * @param field - field sorted on
+	 * @return a new Contact with only those set
+	 */
+	public Contact getSortKey(int row, ContactSort.Field field) {
+		Contact contact = new Contact(ids[row]);
+		switch(field) {
+		case NAME:
+			contact.setName(load(names[row]));
+			break;
+		case COMPANY:
+			contact.setCompany(dictionary.decode(companies[row]));
+			break;
+		case BIRTHDATE:
+			contact.setBirthdate((birthdates[row] != NO_DATE) ? LocalDate.ofEpochDay(birthdates[row]) : null);
+			break;
+		case CITY:
+			Address address = new Address();
+			address.setCity(dictionary.decode(cities[row]));
+			contact.setAddress(address);
+			break;
+		}
+		return contact;
+	}
+	
+	/**
+	 * @return the contacts, materialized as they are read
+	 */
+	public List<Contact> asList() {
+		int[] rows = new int[size];
+		for(int row = 0; row < size; row++) {
+			rows[row] = ContactList.tableRef(row);
+		}
+		return new ContactList(ContactSnapshot.empty(), this, rows);
+	}
+	
+	/**
+	 * Helper function encodes a contact into a row.
+	 */
+	private void set(int row, Contact contact) {
+		Address address = contact.getAddress();
+		ids[row] = contact.getId();
+		birthdates[row] = (contact.getBirthdate() != null) ? (int) contact.getBirthdate().toEpochDay() : NO_DATE;
+		names[row] = store(contact.getName());
+		emails[row] = store(contact.getEmail());
+		workPhones[row] = store(contact.getWorkPhone());
+		personalPhones[row] = store(contact.getPersonalPhone());
+		imageHashes[row] = store(contact.getProfileImageHash());
+		companies[row] = dictionary.encode(contact.getCompany());
+		if(address != null) {
+			addressIds[row] = address.getId();
+			line1s[row] = store(address.getLine1());
+			line2s[row] = store(address.getLine2());
+			line3s[row] = dictionary.encode(address.getLine3());
+			cities[row] = dictionary.encode(address.getCity());
+			states[row] = dictionary.encode(address.getState());
+			zips[row] = dictionary.encode(address.getZip());
+			countries[row] = dictionary.encode(address.getCountry());
+		} else {
+			line1s[row] = line2s[row] = NO_CODE;
+			line3s[row] = cities[row] = states[row] = zips[row] = countries[row] = NO_CODE;
+		}
+	}
+	
+	/**
+	 * Helper function copies a row of another table sharing this one's dictionary, without decoding it.
+	 */
+	private void copy(int row, ContactTable from, int fromRow) {
+		ids[row] = from.ids[fromRow];
+		addressIds[row] = from.addressIds[fromRow];
+		birthdates[row] = from.birthdates[fromRow];
+		names[row] = copyString(from, from.names[fromRow]);
+		emails[row] = copyString(from, from.emails[fromRow]);
+		workPhones[row] = copyString(from, from.workPhones[fromRow]);
+		personalPhones[row] = copyString(from, from.personalPhones[fromRow]);
+		imageHashes[row] = copyString(from, from.imageHashes[fromRow]);
+		line1s[row] = copyString(from, from.line1s[fromRow]);
+		line2s[row] = copyString(from, from.line2s[fromRow]);
+		companies[row] = from.companies[fromRow];
+		line3s[row] = from.line3s[fromRow];
+		cities[row] = from.cities[fromRow];
+		states[row] = from.states[fromRow];
+		zips[row] = from.zips[fromRow];
+		countries[row] = from.countries[fromRow];
+	}
+	
+	/**
+	 * Helper function adds a string to the heap.
+	 * @return its offset, or NO_CODE for null
+	 */
+	private int store(String value) {
+		if(value == null) {
+			return NO_CODE;
+		}
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		int offset = heapSize;
+		reserve(5 + utf8.length);
+		int length = utf8.length;
+		while(length >= 0x80) {
+			heap[heapSize++] = (byte) (length | 0x80);
+			length >>>= 7;
+		}
+		heap[heapSize++] = (byte) length;
+		System.arraycopy(utf8, 0, heap, heapSize, utf8.length);
+		heapSize += utf8.length;
+		return offset;
+	}
+	
+	/**
+	 * Helper function decodes a string of the heap.
+	 */
+	private String load(int offset) {
+		if(offset == NO_CODE) {
+			return null;
+		}
+		int end = end(heap, offset);
+		int position = offset;
+		while((heap[position++] & 0x80) != 0) {
+			// skip the length
+		}
+		return new String(heap, position, end - position, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Helper function copies a string from the heap of another table, without decoding it.
+	 * @return its offset in this heap, or NO_CODE for null
+	 */
+	private int copyString(ContactTable from, int offset) {
+		if(offset == NO_CODE) {
+			return NO_CODE;
+		}
+		int length = end(from.heap, offset) - offset;
+		reserve(length);
+		System.arraycopy(from.heap, offset, heap, heapSize, length);
+		heapSize += length;
+		return heapSize - length;
+	}
+	
+	/**
+	 * Helper function finds the end of a string of a heap: its offset, plus its length and bytes.
+	 */
+	private static int end(byte[] heap, int offset) {
+		int position = offset;
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = heap[position++];
+			length |= (b & 0x7f) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return position + length;
+	}
+	
+	/**
+	 * Helper function grows the heap to take at least bytes more.
+	 */
+	private void reserve(int bytes) {
+		long needed = (long) heapSize + bytes;
+		if(needed > heap.length) {
+			if(needed > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Contact table strings over 2 GB");
+			}
+			heap = Arrays.copyOf(heap, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, 2L * heap.length + 1024)));
+		}
+	}
+}
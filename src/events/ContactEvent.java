@@ -0,0 +1,50 @@
+package events;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import models.Contact;
+
+/**
+ * This class is a data model for a change to a Contact, as sent on the change feed.
+ * It may be serialized to JSON using the Jackson library.
+ * 
+ * Insert and update events carry the Contact as written.  Delete events only carry the id.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactEvent {
+	
+	public enum Type {
+		INSERT, UPDATE, DELETE
+	}
+	
+	@JsonProperty
+	protected Type type;
+	
+	@JsonProperty
+	protected int id;
+	
+	@JsonProperty
+	protected Contact contact;
+	
+	public ContactEvent() { }
+	
+	public ContactEvent(Type type, int id, Contact contact) {
+		this.type = type;
+		this.id = id;
+		this.contact = contact;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Contact getContact() {
+		return contact;
+	}
+}
@@ -0,0 +1,178 @@
+package events;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process publish/subscribe of ContactEvents.
+ * 
+ * Each subscriber has its own bounded buffer, drained in order on a shared pool of daemon threads.
+ * publish() never blocks: a subscriber whose buffer is full has fallen too far behind
+ * and is dropped, so one slow consumer cannot hold up the publisher or the other subscribers.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactEventBus {
+	
+	/**
+	 * Receives events from the bus.  Calls to onEvent are never concurrent with each other.
+	 */
+	public interface Listener {
+		
+		/**
+		 * @param event - the published event
+		 * @throws Exception to unsubscribe this listener
+		 */
+		void onEvent(ContactEvent event) throws Exception;
+		
+		/**
+		 * Called once when this listener is unsubscribed for falling behind or failing.
+		 * Not called after Subscription.cancel().  May be called while onEvent is running.
+		 */
+		void onDropped();
+	}
+	
+	private final Set<Subscription> subscriptions = new CopyOnWriteArraySet<Subscription>();
+	private final int bufferSize;
+	private final ExecutorService executor;
+	
+	/**
+	 * @param bufferSize - number of undelivered events each subscriber may have before it is dropped
+	 */
+	public ContactEventBus(int bufferSize) {
+		this.bufferSize = bufferSize;
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "contact-events-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Start delivering published events to a listener.
+	 * @param listener - the listener
+	 * @return subscription, used to unsubscribe
+	 */
+	public Subscription subscribe(Listener listener) {
+		Subscription subscription = new Subscription(listener);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+	
+	/**
+	 * Deliver an event to every subscriber.  Does not block.
+	 * @param event - the event
+	 */
+	public void publish(ContactEvent event) {
+		for(Subscription subscription : subscriptions) {
+			subscription.offer(event);
+		}
+	}
+	
+	/**
+	 * @return number of current subscribers
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+	
+	/**
+	 * Unsubscribe everyone, telling their listeners they were dropped, e.g. when events may have been missed.
+	 * The bus stays open for new subscribers.
+	 */
+	public void dropSubscribers() {
+		for(Subscription subscription : subscriptions) {
+			subscription.drop();
+		}
+	}
+	
+	/**
+	 * Unsubscribe everyone and stop the delivery threads.
+	 */
+	public void close() {
+		dropSubscribers();
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * A listener's place on the bus, with its buffer of undelivered events.
+	 */
+	public class Subscription implements Runnable {
+		private final Listener listener;
+		private final Queue<ContactEvent> buffer = new ArrayBlockingQueue<ContactEvent>(bufferSize);
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private final AtomicBoolean active = new AtomicBoolean(true);
+		
+		private Subscription(Listener listener) {
+			this.listener = listener;
+		}
+		
+		/**
+		 * Stop delivering events to this subscription's listener.
+		 */
+		public void cancel() {
+			unsubscribe();
+		}
+		
+		/**
+		 * @return true if this call unsubscribed, false if already unsubscribed
+		 */
+		private boolean unsubscribe() {
+			if(!active.compareAndSet(true, false)) {
+				return false;
+			}
+			subscriptions.remove(this);
+			buffer.clear();
+			return true;
+		}
+		
+		private void offer(ContactEvent event) {
+			if(!active.get()) {
+				return;
+			}
+			if(!buffer.offer(event)) {
+				drop();
+				return;
+			}
+			if(scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+		
+		private void drop() {
+			if(unsubscribe()) {
+				listener.onDropped();
+			}
+		}
+		
+		/**
+		 * Drains the buffer.  Only one drain per subscription runs at a time.
+		 */
+		public void run() {
+			do {
+				ContactEvent event;
+				while(active.get() && (event = buffer.poll()) != null) {
+					try {
+						listener.onEvent(event);
+					} catch (Exception e) {
+						drop();
+					}
+				}
+				scheduled.set(false);
+				// an event may have been offered after the last poll but before scheduled was cleared
+			} while(active.get() && !buffer.isEmpty() && scheduled.compareAndSet(false, true));
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package events;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import dbaccess.ContactDAO;
+import models.ContactInvalidation;
+
+/**
+ * Tails the invalidation log (see ContactDAO.listInvalidationsSince) so this node hears of the writes made on other
+ * nodes, and tells its listeners which contacts they hold are stale.
+ * 
+ * The log is polled every pollMillis on a background thread, which bounds how long a write on another node goes
+ * unnoticed.  Each poll reads the log's primary key from the last seq seen, so an idle poll costs one index lookup.
+ * Writes made on this node are skipped, as they were handled when they were made.  With shards, each shard has its
+ * own log and is polled on its own.
+ * 
+ * Entries older than retentionMillis are deleted.  If this node has not polled for half that long, for instance
+ * because the database was unreachable, it may have missed entries, and its listeners are told that anything may be
+ * stale.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class InvalidationPoller {
+	
+	/**
+	 * Receives the invalidations.  Calls are made on the polling thread, one at a time.
+	 */
+	public interface Listener {
+	
+		/**
+		 * @param invalidations - contacts changed on other nodes, in the order they were changed
+		 */
+		void invalidated(List<ContactInvalidation> invalidations);
+		
+		/**
+		 * Called when entries may have been missed: anything held may be stale.
+		 */
+		void invalidatedAll();
+	}
+	
+	/**
+	 * Most seqs read from one database in one poll
+	 */
+	private static final int POLL_BATCH = 1000;
+	
+	/**
+	 * Most entries deleted by one statement, so pruning never holds many locks
+	 */
+	private static final int PRUNE_BATCH = 10000;
+	
+	/**
+	 * Time between prunes of the log
+	 */
+	private static final long PRUNE_INTERVAL_MILLIS = 60000;
+	
+	private final List<ContactDAO> databases;
+	private final String nodeId;
+	private final long retentionMillis;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final ScheduledExecutorService executor;
+	
+	/**
+	 * Last seq seen of each database, null until the first poll
+	 */
+	private long[] seqs = null;
+	private long lastPoll = 0;
+	
+	/**
+	 * Create the poller and start polling in the background.
+	 * @param databases - one ContactDAO per database holding a log: the primary, or each shard.  Used only by this poller.
+	 * @param nodeId - this node's id, as given to ContactDAO.setNodeId()
+	 * @param pollMillis - time between polls
+	 * @param retentionMillis - age of the entries deleted from the log
+	 */
+	public InvalidationPoller(List<ContactDAO> databases, String nodeId, long pollMillis, long retentionMillis) {
+		this.databases = new ArrayList<ContactDAO>(databases);
+		this.nodeId = nodeId;
+		this.retentionMillis = retentionMillis;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		
+			// @Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "contact-invalidations");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		executor.scheduleWithFixedDelay(new Runnable() {
+		
+			// @Override
+			public void run() {
+				poll();
+			}
+		}, 0, pollMillis, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(new Runnable() {
+		
+			// @Override
+			public void run() {
+				prune();
+			}
+		}, PRUNE_INTERVAL_MILLIS, PRUNE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Start telling a listener of invalidations.
+	 * @param listener - the listener
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Stop polling.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Read the entries written since the last poll, and pass on those made by other nodes.
+	 * Called every pollMillis on the polling thread.  Failures are retried on the next poll.
+	 */
+	public synchronized void poll() {
+		try {
+			long now = System.currentTimeMillis();
+			if(seqs == null || now - lastPoll > retentionMillis / 2) {
+				// first poll, or entries may have been pruned unread: start from now.  Half the retention leaves room
+				// for the database clock, used when pruning, to run ahead of this node's
+				long[] latest = new long[databases.size()];
+				for(int i = 0; i < latest.length; i++) {
+					latest[i] = databases.get(i).getLatestInvalidation();
+				}
+				boolean missed = (seqs != null);
+				long unread = now - lastPoll;
+				seqs = latest;
+				lastPoll = now;
+				if(missed) {
+					System.out.println("Invalidation log not read for " + unread + " ms, invalidating everything.");
+					for(Listener listener : listeners) {
+						try {
+							listener.invalidatedAll();
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+				return;
+			}
+			
+			List<ContactInvalidation> invalidations = new ArrayList<ContactInvalidation>();
+			for(int i = 0; i < databases.size(); i++) {
+				List<ContactInvalidation> read;
+				do {
+					read = databases.get(i).listInvalidationsSince(seqs[i], POLL_BATCH);
+					for(ContactInvalidation invalidation : read) {
+						seqs[i] = Math.max(seqs[i], invalidation.getSeq());
+						if(nodeId == null || !nodeId.equals(invalidation.getNode())) {
+							invalidations.add(invalidation);
+						}
+					}
+				} while(read.size() >= POLL_BATCH);
+			}
+			lastPoll = now;
+			
+			if(!invalidations.isEmpty()) {
+				for(Listener listener : listeners) {
+					try {
+						listener.invalidated(invalidations);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Delete the entries older than retentionMillis from every database.  Failures are retried on the next prune.
+	 */
+	private void prune() {
+		for(ContactDAO database : databases) {
+			try {
+				int deleted;
+				do {
+					deleted = database.pruneInvalidations(TimeUnit.MILLISECONDS.toSeconds(retentionMillis), PRUNE_BATCH);
+				} while(deleted >= PRUNE_BATCH);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package images;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * An ImageStore keeping each image in its own file, named by its hash, under a root directory.
+ *
+ * Files are spread over 256 subdirectories by the first two hex digits of their hash (e.g. root/3f/3fa2...).
+ * Uploads are written to a temporary file while hashing and then moved into place,
+ * so a partially written image is never visible and concurrent identical uploads are harmless.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class FileSystemImageStore implements ImageStore {
+
+	private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File root;
+
+	/**
+	 * Open (or create) an image store.
+	 * @param root - directory holding the images
+	 * @throws IOException if the directory cannot be created
+	 */
+	public FileSystemImageStore(File root) throws IOException {
+		this.root = root;
+		if(!root.isDirectory() && !root.mkdirs()) {
+			throw new IOException("Cannot create image store directory " + root);
+		}
+	}
+
+	@Override
+	public String put(byte[] image) throws IOException {
+		return put(new ByteArrayInputStream(image), image.length);
+	}
+
+	@Override
+	public String put(InputStream is, long maxBytes) throws IOException {
+		MessageDigest digest = newDigest();
+		File temp = File.createTempFile("upload-", null, root);
+		try {
+			OutputStream os = new FileOutputStream(temp);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				long total = 0;
+				int bytesRead;
+				while((bytesRead = is.read(buffer)) > 0) {
+					total += bytesRead;
+					if(total > maxBytes) {
+						throw new ImageTooLargeException(maxBytes);
+					}
+					digest.update(buffer, 0, bytesRead);
+					os.write(buffer, 0, bytesRead);
+				}
+			} finally {
+				os.close();
+			}
+
+			String hash = toHex(digest.digest());
+			File file = file(hash);
+			if(!file.exists()) {
+				file.getParentFile().mkdirs();
+				try {
+					Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch (FileAlreadyExistsException e) {
+					// stored concurrently by another upload of the same image
+				}
+			}
+			return hash;
+		} finally {
+			temp.delete();
+		}
+	}
+
+	@Override
+	public byte[] get(String hash) throws IOException {
+		try {
+			return Files.readAllBytes(file(hash).toPath());
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Opens a FileChannel, so callers may send the image with FileChannel.transferTo or map it into memory.
+	 */
+	@Override
+	public ReadableByteChannel open(String hash) throws IOException {
+		try {
+			return FileChannel.open(file(hash).toPath(), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param hash - image hash
+	 * @return the file that holds (or would hold) the image
+	 * @throws IllegalArgumentException if hash is not a lowercase hex SHA-256
+	 */
+	public File file(String hash) {
+		if(hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+			throw new IllegalArgumentException("Not an image hash: " + hash);
+		}
+		return new File(new File(root, hash.substring(0, 2)), hash);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
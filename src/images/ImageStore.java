@@ -0,0 +1,51 @@
+package images;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A content-addressed store for profile images.
+ *
+ * Images are identified by the lowercase hex SHA-256 of their contents, so identical uploads are stored once.
+ * Stored images are never modified; a changed image gets a new hash.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public interface ImageStore {
+
+	/**
+	 * Store an image, unless an identical one is already stored.
+	 * @param image - image file contents
+	 * @return SHA-256 hash identifying the image
+	 * @throws IOException
+	 */
+	String put(byte[] image) throws IOException;
+
+	/**
+	 * Store an image read from a stream, unless an identical one is already stored.
+	 * @param is - stream of the image file contents.  Not closed.
+	 * @param maxBytes - largest image accepted
+	 * @return SHA-256 hash identifying the image
+	 * @throws ImageTooLargeException if the stream holds more than maxBytes
+	 * @throws IOException
+	 */
+	String put(InputStream is, long maxBytes) throws IOException;
+
+	/**
+	 * Read a stored image.
+	 * @param hash - hash returned by put()
+	 * @return image file contents, or null if not stored
+	 * @throws IOException
+	 */
+	byte[] get(String hash) throws IOException;
+
+	/**
+	 * Open a stored image for reading.  The caller must close the channel.
+	 * @param hash - hash returned by put()
+	 * @return a channel positioned at the start of the image, or null if not stored
+	 * @throws IOException
+	 */
+	ReadableByteChannel open(String hash) throws IOException;
+}
@@ -0,0 +1,21 @@
+package images;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an image being stored is larger than the size allowed.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ImageTooLargeException extends IOException {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 3470913837514096853L;
+
+	public ImageTooLargeException(long maxBytes) {
+		super("Image larger than " + maxBytes + " bytes");
+	}
+}
@@ -0,0 +1,42 @@
+package images;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import dbaccess.ContactDAO;
+
+/**
+ * Command line job that moves profile images out of the contact table's profile_img BLOBs into a FileSystemImageStore.
+ *
+ * Rows are moved in batches, each row keeping only the hash of its image.  The job may be stopped and rerun safely,
+ * and may run while the web application is serving requests.
+ *
+ * Usage: ProfileImageMigration jdbcURL jdbcUsername jdbcPassword imageStoreDir [batchSize]
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ProfileImageMigration {
+
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
+	public static void main(String[] args) throws IOException, SQLException {
+		if(args.length < 4) {
+			System.err.println("Usage: ProfileImageMigration jdbcURL jdbcUsername jdbcPassword imageStoreDir [batchSize]");
+			System.exit(1);
+		}
+		int batchSize = (args.length > 4) ? Integer.parseInt(args[4]) : DEFAULT_BATCH_SIZE;
+
+		ImageStore imageStore = new FileSystemImageStore(new File(args[3]));
+		ContactDAO contactDAO = new ContactDAO(args[0], args[1], args[2], imageStore);
+
+		int total = 0;
+		int moved;
+		do {
+			moved = contactDAO.migrateProfileImages(batchSize);
+			total += moved;
+			System.out.println("Moved " + total + " profile images");
+		} while(moved > 0);
+	}
+}
@@ -0,0 +1,154 @@
+package images;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps resized profile images in a directory on disk, bounded by total size.
+ *
+ * Entries are evicted least-recently-used first once the total size passes maxBytes.
+ * Keys should include the image version so that a changed image never hits a stale entry.
+ * Files already in the directory at startup are adopted, oldest first.
+ *
+ * This class is thread safe.  Files are written to a temporary name and moved into place,
+ * so readers never see a partially written entry.  Entries are returned already open, opened while
+ * holding the lock that eviction takes, so a concurrent put cannot delete a file before it is read.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ThumbnailCache {
+
+	private static final String TEMP_PREFIX = "tmp-";
+
+	private final File directory;
+	private final long maxBytes;
+	private long totalBytes = 0;
+
+	/**
+	 * Cached file sizes by key, in access order
+	 */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	/**
+	 * Open (or create) a cache directory.
+	 * @param directory - directory holding cached files.  Should not be shared with anything else.
+	 * @param maxBytes - maximum total size of cached files
+	 * @throws IOException if the directory cannot be created
+	 */
+	public ThumbnailCache(File directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create thumbnail cache directory " + directory);
+		}
+
+		File[] files = directory.listFiles();
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for(File file : files) {
+			if(file.getName().startsWith(TEMP_PREFIX)) {
+				file.delete();
+			} else if(file.isFile()) {
+				entries.put(file.getName(), file.length());
+				totalBytes += file.length();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Look up a cached file and open it for reading.  The caller must close the channel.
+	 * @param key - cache key, a valid file name
+	 * @return a channel positioned at the start of the cached file, or null if not cached
+	 * @throws IOException
+	 */
+	public synchronized FileChannel get(String key) throws IOException {
+		Long size = entries.get(key);
+		if(size == null) {
+			return null;
+		}
+		try {
+			return open(key);
+		} catch (NoSuchFileException e) {
+			entries.remove(key);
+			totalBytes -= size;
+			return null;
+		}
+	}
+
+	/**
+	 * Store a file in the cache, evicting older entries if needed, and open it for reading.
+	 * The caller must close the channel.
+	 * @param key - cache key, a valid file name
+	 * @param data - file contents
+	 * @return a channel positioned at the start of the cached file
+	 * @throws IOException
+	 */
+	public FileChannel put(String key, byte[] data) throws IOException {
+		File file = new File(directory, key);
+		File temp = File.createTempFile(TEMP_PREFIX, null, directory);
+		try {
+			FileOutputStream os = new FileOutputStream(temp);
+			try {
+				os.write(data);
+			} finally {
+				os.close();
+			}
+
+			// moved under the lock, so eviction of an older entry for the same key cannot delete the new file
+			synchronized(this) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				Long previous = entries.put(key, (long) data.length);
+				if(previous != null) {
+					totalBytes -= previous;
+				}
+				totalBytes += data.length;
+				FileChannel channel = open(key);
+				evict();
+				return channel;
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * @return total size of cached files in bytes
+	 */
+	public synchronized long size() {
+		return totalBytes;
+	}
+
+	/**
+	 * Helper function opens a cached file for reading.
+	 */
+	private FileChannel open(String key) throws IOException {
+		return FileChannel.open(new File(directory, key).toPath(), StandardOpenOption.READ);
+	}
+
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while(totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			it.remove();
+			totalBytes -= eldest.getValue();
+			new File(directory, eldest.getKey()).delete();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package images;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Helper functions to identify and resize profile images using only the JDK's ImageIO.
+ *
+ * Resized images are written as JPEG when the original is a JPEG, and as PNG otherwise
+ * so that transparency is kept.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class Thumbnails {
+
+	/**
+	 * Content type used when the image format cannot be identified
+	 */
+	public static final String UNKNOWN_CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 * Number of leading bytes read to identify a file's format
+	 */
+	private static final int HEADER_SIZE = 64;
+
+	private Thumbnails() { }
+
+	/**
+	 * Identify an image's format from its header bytes.  The image is not decoded.
+	 *
+	 * @param image - image file contents
+	 * @return the ImageIO format name (e.g. "JPEG", "png"), or null if the format is not recognized
+	 */
+	public static String sniffFormat(byte[] image) {
+		try {
+			ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(image));
+			try {
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+				if(readers.hasNext()) {
+					return readers.next().getFormatName();
+				}
+			} finally {
+				iis.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Identify the format of an image file from its first bytes, without moving the channel's position.
+	 *
+	 * @param channel - open image file
+	 * @return the ImageIO format name, or null if the format is not recognized
+	 * @throws IOException
+	 */
+	public static String sniffFormat(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		return sniffFormat(Arrays.copyOf(header.array(), header.position()));
+	}
+
+	/**
+	 * @param format - ImageIO format name, possibly null
+	 * @return MIME type for the format, e.g. image/png
+	 */
+	public static String contentType(String format) {
+		if(format == null) {
+			return UNKNOWN_CONTENT_TYPE;
+		}
+		String[] types = ImageIO.getImageReadersByFormatName(format).next().getOriginatingProvider().getMIMETypes();
+		return (types != null && types.length > 0) ? types[0] : UNKNOWN_CONTENT_TYPE;
+	}
+
+	/**
+	 * @param format - ImageIO format name of the original image
+	 * @return ImageIO format name that resized variants of the image are written in
+	 */
+	public static String thumbnailFormat(String format) {
+		return isJpeg(format) ? "jpeg" : "png";
+	}
+
+	/**
+	 * Resize an image so that its longest side is at most size pixels, keeping its aspect ratio.
+	 * Images that are already small enough are re-encoded at their own size.
+	 *
+	 * @param image - image file contents
+	 * @param format - ImageIO format name of the image, from sniffFormat()
+	 * @param size - maximum width and height of the result
+	 * @return the resized image, encoded as thumbnailFormat(format)
+	 * @throws IOException if the image cannot be decoded
+	 */
+	public static byte[] resize(byte[] image, String format, int size) throws IOException {
+		BufferedImage original = ImageIO.read(new ByteArrayInputStream(image));
+		if(original == null) {
+			throw new IOException("Unreadable image");
+		}
+
+		String outputFormat = thumbnailFormat(format);
+		int imageType = isJpeg(format) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+		int width = original.getWidth();
+		int height = original.getHeight();
+		double scale = Math.min(1.0, (double) size / Math.max(width, height));
+		int targetWidth = Math.max(1, (int) Math.round(width * scale));
+		int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+		// halve in steps first, a single bilinear pass loses detail when shrinking a lot
+		BufferedImage current = original;
+		while(width / 2 >= targetWidth && height / 2 >= targetHeight) {
+			width /= 2;
+			height /= 2;
+			current = scale(current, width, height, imageType);
+		}
+		current = scale(current, targetWidth, targetHeight, imageType);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		if(!ImageIO.write(current, outputFormat, os)) {
+			throw new IOException("No ImageIO writer for " + outputFormat);
+		}
+		return os.toByteArray();
+	}
+
+	private static BufferedImage scale(BufferedImage source, int width, int height, int imageType) {
+		BufferedImage scaled = new BufferedImage(width, height, imageType);
+		Graphics2D graphics = scaled.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(source, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		return scaled;
+	}
+
+	private static boolean isJpeg(String format) {
+		return format != null && (format.equalsIgnoreCase("jpeg") || format.equalsIgnoreCase("jpg"));
+	}
+}
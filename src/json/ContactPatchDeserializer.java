@@ -0,0 +1,124 @@
+package json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import models.ContactPatch;
+
+/**
+ * This class extends StdDeserializer<> to read a JSON Merge Patch (RFC 7396) into a ContactPatch.
+ *
+ * Members present in the patch are recorded, members set to null are recorded as null, and absent members are left alone.
+ * "address" may itself be a patch object, or null to clear every address field.
+ * "profileImage" may be given as a base64 string, or null to remove the image.
+ * "id" is ignored since a contact is identified by its URL.  Any other member is rejected.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactPatchDeserializer extends StdDeserializer<ContactPatch> {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2349519316127054702L;
+
+	private static final Set<String> CONTACT_FIELDS = new HashSet<String>(Arrays.asList(
+			"name", "company", "email", "birthdate", "workPhone", "personalPhone"));
+
+	private static final Set<String> ADDRESS_FIELDS = new HashSet<String>(Arrays.asList(
+			"line1", "line2", "city", "state", "zip", "country"));
+
+	protected ContactPatchDeserializer() {
+		super(ContactPatch.class);
+	}
+
+	@Override
+	public ContactPatch deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+		JsonNode root = parser.readValueAsTree();
+		if(root == null || !root.isObject()) {
+			throw JsonMappingException.from(parser, "Contact patch must be a JSON object");
+		}
+
+		ContactPatch patch = new ContactPatch();
+		Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+		while(fields.hasNext()) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			String name = field.getKey();
+			JsonNode value = field.getValue();
+
+			if(name.equals("id")) {
+				continue;
+			} else if(name.equals("birthdate")) {
+				patch.setContactField(name, parseDate(parser, value));
+			} else if(CONTACT_FIELDS.contains(name)) {
+				patch.setContactField(name, parseText(parser, name, value));
+			} else if(name.equals("profileImage")) {
+				patch.setProfileImage(value.isNull() ? null : value.binaryValue());
+			} else if(name.equals("address")) {
+				readAddress(parser, patch, value);
+			} else {
+				throw JsonMappingException.from(parser, "Unknown contact field: " + name);
+			}
+		}
+		return patch;
+	}
+
+	private static void readAddress(JsonParser parser, ContactPatch patch, JsonNode address) throws IOException {
+		if(address.isNull()) {
+			for(String name : ADDRESS_FIELDS) {
+				patch.setAddressField(name, null);
+			}
+			return;
+		}
+		if(!address.isObject()) {
+			throw JsonMappingException.from(parser, "address must be a JSON object or null");
+		}
+
+		Iterator<Map.Entry<String, JsonNode>> fields = address.fields();
+		while(fields.hasNext()) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			String name = field.getKey();
+			if(name.equals("id") || name.equals("line3")) {
+				continue;
+			} else if(ADDRESS_FIELDS.contains(name)) {
+				patch.setAddressField(name, parseText(parser, name, field.getValue()));
+			} else {
+				throw JsonMappingException.from(parser, "Unknown address field: " + name);
+			}
+		}
+	}
+
+	private static String parseText(JsonParser parser, String name, JsonNode value) throws JsonMappingException {
+		if(value.isNull()) {
+			return null;
+		}
+		if(!value.isValueNode()) {
+			throw JsonMappingException.from(parser, name + " must be a string or null");
+		}
+		return value.asText();
+	}
+
+	private static LocalDate parseDate(JsonParser parser, JsonNode value) throws JsonMappingException {
+		if(value.isNull()) {
+			return null;
+		}
+		try {
+			return LocalDate.parse(value.asText());
+		} catch (DateTimeParseException e) {
+			throw JsonMappingException.from(parser, "birthdate must be formatted yyyy-MM-dd", e);
+		}
+	}
+}
@@ -15,10 +15,12 @@ import json.LocalDateSerializer;
  * 
  * All its attributes are Strings and primitive data types except the Address object.
  * 
+ * The profile image is not serialized.  profileImageHash refers to the image in an ImageStore, when one is used.
+ * 
  * @author Rebecca Chandler
  *
  */
-@JsonIgnoreProperties({ "profileImage"})
+@JsonIgnoreProperties({ "profileImage", "profileImageHash"})
 public class Contact {
 	
 	protected int id;
@@ -31,6 +33,8 @@ public class Contact {
 	
 	protected byte[] profileImage;
 	
+	protected String profileImageHash;
+	
 	@JsonProperty
 	protected String email;
 	
@@ -101,6 +105,14 @@ public class Contact {
 		this.profileImage = profileImage;
 	}
 
+	public String getProfileImageHash() {
+		return profileImageHash;
+	}
+
+	public void setProfileImageHash(String profileImageHash) {
+		this.profileImageHash = profileImageHash;
+	}
+
 	public String getEmail() {
 		return email;
 	}
@@ -0,0 +1,42 @@
+package models;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is a data model for the result of getting several contacts by id at once.
+ * It may be serialized/deserialized to JSON using the Jackson library.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactBatch {
+	
+	/**
+	 * Contacts found, in the order their ids were requested
+	 */
+	@JsonProperty
+	protected List<Contact> contacts;
+	
+	/**
+	 * Requested ids with no contact, in the order they were requested
+	 */
+	@JsonProperty
+	protected List<Integer> missing;
+	
+	public ContactBatch() { }
+	
+	public ContactBatch(List<Contact> contacts, List<Integer> missing) {
+		this.contacts = contacts;
+		this.missing = missing;
+	}
+
+	public List<Contact> getContacts() {
+		return contacts;
+	}
+
+	public List<Integer> getMissing() {
+		return missing;
+	}
+}
@@ -0,0 +1,55 @@
+package models;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is a data model for the changes to the contact list since a given version, used for incremental sync.
+ * It may be serialized/deserialized to JSON using the Jackson library.
+ * 
+ * A client stores the returned version and passes it as "since" on its next sync.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactDelta {
+	
+	/**
+	 * Version of the newest change included.  Equal to the requested version if nothing changed.
+	 */
+	@JsonProperty
+	protected long version;
+	
+	/**
+	 * Contacts inserted or updated since the requested version, in the order they were changed
+	 */
+	@JsonProperty
+	protected List<Contact> contacts;
+	
+	/**
+	 * Ids of contacts deleted since the requested version
+	 */
+	@JsonProperty
+	protected List<Integer> deleted;
+	
+	public ContactDelta() { }
+	
+	public ContactDelta(long version, List<Contact> contacts, List<Integer> deleted) {
+		this.version = version;
+		this.contacts = contacts;
+		this.deleted = deleted;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public List<Contact> getContacts() {
+		return contacts;
+	}
+
+	public List<Integer> getDeleted() {
+		return deleted;
+	}
+}
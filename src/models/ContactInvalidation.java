@@ -0,0 +1,61 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is a data model for an entry of the invalidation log: a contact changed by a write, recorded in the
+ * write's transaction so every node can drop or refresh what it holds of the contact.
+ * It may be serialized/deserialized to JSON using the Jackson library.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactInvalidation {
+	
+	public enum Type {
+		INSERT, UPDATE, DELETE
+	}
+	
+	/**
+	 * Version of the write, see ContactDAO.listChangedSince().  Contacts written together share it.
+	 */
+	@JsonProperty
+	protected long seq;
+	
+	@JsonProperty
+	protected int id;
+	
+	@JsonProperty
+	protected Type type;
+	
+	/**
+	 * Node that made the write, or null if it has none
+	 */
+	@JsonProperty
+	protected String node;
+	
+	public ContactInvalidation() { }
+	
+	public ContactInvalidation(long seq, int id, Type type, String node) {
+		this.seq = seq;
+		this.id = id;
+		this.type = type;
+		this.node = node;
+	}
+
+	public long getSeq() {
+		return seq;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getNode() {
+		return node;
+	}
+}
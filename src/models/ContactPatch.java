@@ -0,0 +1,74 @@
+package models;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import json.ContactPatchDeserializer;
+
+/**
+ * This class is a data model for a partial update to a Contact, read from a JSON Merge Patch (RFC 7396) document.
+ *
+ * Only the fields present in the patch are recorded.  A field mapped to a null value is to be set to null.
+ * Contact fields and Address fields are kept apart so that an update only touches the tables it needs to.
+ * The profile image is tracked separately so that it is only rewritten when the patch supplies one.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+@JsonDeserialize(using = ContactPatchDeserializer.class)
+public class ContactPatch {
+
+	/**
+	 * Contact fields to update, keyed by Contact attribute name (e.g. workPhone)
+	 */
+	protected Map<String, Object> contactFields = new LinkedHashMap<String, Object>();
+
+	/**
+	 * Address fields to update, keyed by Address attribute name (e.g. city)
+	 */
+	protected Map<String, Object> addressFields = new LinkedHashMap<String, Object>();
+
+	protected boolean profileImageSet = false;
+
+	protected byte[] profileImage;
+
+	public ContactPatch() { }
+
+	public Map<String, Object> getContactFields() {
+		return contactFields;
+	}
+
+	public Map<String, Object> getAddressFields() {
+		return addressFields;
+	}
+
+	public void setContactField(String name, Object value) {
+		contactFields.put(name, value);
+	}
+
+	public void setAddressField(String name, Object value) {
+		addressFields.put(name, value);
+	}
+
+	public boolean isProfileImageSet() {
+		return profileImageSet;
+	}
+
+	public byte[] getProfileImage() {
+		return profileImage;
+	}
+
+	public void setProfileImage(byte[] profileImage) {
+		this.profileImage = profileImage;
+		this.profileImageSet = true;
+	}
+
+	/**
+	 * @return true if the patch contains no changes at all
+	 */
+	public boolean isEmpty() {
+		return contactFields.isEmpty() && addressFields.isEmpty() && !profileImageSet;
+	}
+}
@@ -0,0 +1,31 @@
+package models;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is a data model for a group of contacts that appear to be the same person.
+ * It may be serialized/deserialized to JSON using the Jackson library.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class DuplicateCluster {
+	
+	/**
+	 * Ids of the contacts in the group, at least two, in increasing order
+	 */
+	@JsonProperty
+	protected List<Integer> ids;
+	
+	public DuplicateCluster() { }
+	
+	public DuplicateCluster(List<Integer> ids) {
+		this.ids = ids;
+	}
+	
+	public List<Integer> getIds() {
+		return ids;
+	}
+}
@@ -0,0 +1,141 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is a data model for the progress and outcome of a duplicate detection run.
+ * It may be serialized/deserialized to JSON using the Jackson library.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class DuplicateJobStatus {
+	
+	/**
+	 * "idle" if no run has been started, "running", "done" or "failed"
+	 */
+	@JsonProperty
+	protected String state;
+	
+	/**
+	 * When the latest run started and finished, in milliseconds since the epoch, 0 if it has not
+	 */
+	@JsonProperty
+	protected long startedAt;
+	
+	@JsonProperty
+	protected long finishedAt;
+	
+	/**
+	 * Time spent reading contacts from the database, and finding their duplicates
+	 */
+	@JsonProperty
+	protected long loadMillis;
+	
+	@JsonProperty
+	protected long detectMillis;
+	
+	/**
+	 * Contacts examined by the latest successful run.  This and the counts below stay those of that run
+	 * while another runs.
+	 */
+	@JsonProperty
+	protected int contacts;
+	
+	/**
+	 * Blocks of two or more contacts sharing a blocking key that were compared,
+	 * and blocks too large to compare (keys too common to tell contacts apart)
+	 */
+	@JsonProperty
+	protected int blocks;
+	
+	@JsonProperty
+	protected int oversizedBlocks;
+	
+	/**
+	 * Pairs of contacts compared
+	 */
+	@JsonProperty
+	protected long comparisons;
+	
+	/**
+	 * Duplicate clusters found, and contacts in them
+	 */
+	@JsonProperty
+	protected int clusters;
+	
+	@JsonProperty
+	protected int duplicates;
+	
+	/**
+	 * Why the run failed, or null
+	 */
+	@JsonProperty
+	protected String error;
+	
+	public DuplicateJobStatus() { }
+	
+	public DuplicateJobStatus(String state, long startedAt, long finishedAt, long loadMillis, long detectMillis,
+			int contacts, int blocks, int oversizedBlocks, long comparisons, int clusters, int duplicates, String error) {
+		this.state = state;
+		this.startedAt = startedAt;
+		this.finishedAt = finishedAt;
+		this.loadMillis = loadMillis;
+		this.detectMillis = detectMillis;
+		this.contacts = contacts;
+		this.blocks = blocks;
+		this.oversizedBlocks = oversizedBlocks;
+		this.comparisons = comparisons;
+		this.clusters = clusters;
+		this.duplicates = duplicates;
+		this.error = error;
+	}
+	
+	public String getState() {
+		return state;
+	}
+	
+	public long getStartedAt() {
+		return startedAt;
+	}
+	
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+	
+	public long getLoadMillis() {
+		return loadMillis;
+	}
+	
+	public long getDetectMillis() {
+		return detectMillis;
+	}
+	
+	public int getContacts() {
+		return contacts;
+	}
+	
+	public int getBlocks() {
+		return blocks;
+	}
+	
+	public int getOversizedBlocks() {
+		return oversizedBlocks;
+	}
+	
+	public long getComparisons() {
+		return comparisons;
+	}
+	
+	public int getClusters() {
+		return clusters;
+	}
+	
+	public int getDuplicates() {
+		return duplicates;
+	}
+	
+	public String getError() {
+		return error;
+	}
+}
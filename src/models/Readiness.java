@@ -0,0 +1,73 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is a data model for whether the service is ready to take traffic, and how long it took to get there.
+ * It may be serialized/deserialized to JSON using the Jackson library.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class Readiness {
+	
+	/**
+	 * True once warmup has finished
+	 */
+	@JsonProperty
+	protected boolean ready;
+	
+	/**
+	 * Time from JVM start until the REST application was initialized
+	 */
+	@JsonProperty
+	protected long startupMillis;
+	
+	/**
+	 * Time warmup took, null until it has finished
+	 */
+	@JsonProperty
+	protected Long warmupMillis;
+	
+	/**
+	 * Time from JVM start until the first request answered within the fast request threshold, null until there is one
+	 */
+	@JsonProperty
+	protected Long firstFastRequestMillis;
+	
+	/**
+	 * Why warmup could not do everything, e.g. the database was unreachable, or null
+	 */
+	@JsonProperty
+	protected String warmupError;
+	
+	public Readiness() { }
+	
+	public Readiness(boolean ready, long startupMillis, Long warmupMillis, Long firstFastRequestMillis, String warmupError) {
+		this.ready = ready;
+		this.startupMillis = startupMillis;
+		this.warmupMillis = warmupMillis;
+		this.firstFastRequestMillis = firstFastRequestMillis;
+		this.warmupError = warmupError;
+	}
+	
+	public boolean isReady() {
+		return ready;
+	}
+	
+	public long getStartupMillis() {
+		return startupMillis;
+	}
+	
+	public Long getWarmupMillis() {
+		return warmupMillis;
+	}
+	
+	public Long getFirstFastRequestMillis() {
+		return firstFastRequestMillis;
+	}
+	
+	public String getWarmupError() {
+		return warmupError;
+	}
+}
@@ -0,0 +1,86 @@
+package models;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is a data model for one database query that took longer than the slow query threshold.
+ * It may be serialized/deserialized to JSON using the Jackson library.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class SlowQuery {
+	
+	/**
+	 * The statement with its literals and parameter lists replaced by ?, so statements of one shape look the same
+	 */
+	@JsonProperty
+	protected String sql;
+	
+	/**
+	 * Values bound to the statement's parameters, in order.  Binary values are shown by their size.
+	 */
+	@JsonProperty
+	protected List<String> parameters;
+	
+	/**
+	 * Rows returned, or rows changed by an update
+	 */
+	@JsonProperty
+	protected long rows;
+	
+	/**
+	 * Time the query took
+	 */
+	@JsonProperty
+	protected double millis;
+	
+	/**
+	 * When the query finished, in milliseconds since the epoch
+	 */
+	@JsonProperty
+	protected long time;
+	
+	/**
+	 * EXPLAIN output for the statement's shape, one line per row, or null if it could not be captured
+	 */
+	@JsonProperty
+	protected String plan;
+	
+	public SlowQuery() { }
+	
+	public SlowQuery(String sql, List<String> parameters, long rows, double millis, long time, String plan) {
+		this.sql = sql;
+		this.parameters = parameters;
+		this.rows = rows;
+		this.millis = millis;
+		this.time = time;
+		this.plan = plan;
+	}
+	
+	public String getSql() {
+		return sql;
+	}
+	
+	public List<String> getParameters() {
+		return parameters;
+	}
+	
+	public long getRows() {
+		return rows;
+	}
+	
+	public double getMillis() {
+		return millis;
+	}
+	
+	public long getTime() {
+		return time;
+	}
+	
+	public String getPlan() {
+		return plan;
+	}
+}
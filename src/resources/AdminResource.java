@@ -0,0 +1,79 @@
+package resources;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+
+import models.SlowQuery;
+
+/**
+ * RESTful web resource for operating the service.
+ * 
+ * Only available if the adminToken context parameter is set, and only to requests sending it in the
+ * X-Admin-Token header.  Otherwise every request is a 404 error.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+@Path("/admin")
+public class AdminResource {
+	
+	/**
+	 * Request header carrying the admin token
+	 */
+	public static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+	
+	/**
+	 * Retrieve the slowest recent database queries, with their normalized SQL, parameters, row counts and
+	 * EXPLAIN plans.  Queries are kept if they took at least slowQueryMs.
+	 * 
+	 * @param token - the admin token
+	 * @param context - servlet context holding the admin token and the shared query log
+	 * @return a List of SlowQuery, slowest first
+	 */
+	@GET
+	@Path("slow-queries")
+	@Produces(MediaType.APPLICATION_JSON)
+	public List<SlowQuery> getSlowQueries(@HeaderParam(ADMIN_TOKEN_HEADER) String token, @Context ServletContext context) {
+		checkToken(token, context);
+		return ContactResource.getQueryLog(context).getSlowest();
+	}
+	
+	/**
+	 * Forget the slow queries kept and their plans, e.g. after adding an index.
+	 * 
+	 * @param token - the admin token
+	 * @param context - servlet context holding the admin token and the shared query log
+	 */
+	@DELETE
+	@Path("slow-queries")
+	public void clearSlowQueries(@HeaderParam(ADMIN_TOKEN_HEADER) String token, @Context ServletContext context) {
+		checkToken(token, context);
+		ContactResource.getQueryLog(context).clear();
+	}
+	
+	/**
+	 * Helper function rejects requests without the admin token.
+	 * 
+	 * @param token - token sent with the request
+	 * @param context - servlet context holding the adminToken parameter
+	 * @throws NotFoundException if the token is not configured or does not match
+	 */
+	static void checkToken(String token, ServletContext context) {
+		String adminToken = context.getInitParameter("adminToken");
+		if(adminToken == null || adminToken.isEmpty() || token == null
+				|| !MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+			throw new NotFoundException();
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package resources;
+
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.media.multipart.MultiPartFeature;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
+
+/**
+ * The Contact REST application.
+ * 
+ * Resources and features are registered explicitly, so Jersey does not scan packages for them when it starts.
+ * WADL generation is turned off, as nothing uses it.  Warmup prepares the service in the background, and
+ * HealthResource reports it ready once that has finished.  ServerTiming can report where each request's time went.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactApplication extends ResourceConfig {
+	
+	public ContactApplication() {
+		StartupMonitor startupMonitor = new StartupMonitor();
+		
+		register(ContactResource.class);
+		register(AdminResource.class);
+		register(HealthResource.class);
+		register(DuplicateResource.class);
+		
+		register(MultiPartFeature.class);
+		register(JacksonFeature.class);
+		
+		register(startupMonitor);
+		register(ServerTiming.class);
+		register(new Warmup(startupMonitor));
+		property(StartupMonitor.class.getName(), startupMonitor);
+		
+		property(ServerProperties.WADL_FEATURE_DISABLE, true);
+	}
+}
@@ -0,0 +1,85 @@
+package resources;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import dbaccess.ConnectionPool;
+import dbaccess.ContactInsertQueue;
+import dbaccess.Shards;
+import directory.ContactDirectory;
+import dedup.DuplicateJob;
+import events.ContactEventBus;
+import events.InvalidationPoller;
+
+/**
+ * Shuts down the services ContactResource shares through the servlet context when the web application stops.
+ * It also starts the InvalidationPoller when the web application starts, so this node hears of other nodes' writes
+ * even if the database cannot be reached then.
+ * 
+ * Contacts still in the write-behind insert queue are written before the application is allowed to stop.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactContextListener implements ServletContextListener {
+	
+	/**
+	 * Longest to wait on shutdown for queued contacts to be written
+	 */
+	private static long INSERT_QUEUE_CLOSE_MILLIS = 30000;
+	
+	/**
+	 * Starts the InvalidationPoller, which retries until the database can be reached.
+	 */
+	// @Override
+	public void contextInitialized(ServletContextEvent event) {
+		ContactResource.getInvalidationPoller(event.getServletContext());
+	}
+	
+	// @Override
+	public void contextDestroyed(ServletContextEvent event) {
+		ServletContext context = event.getServletContext();
+		
+		ContactInsertQueue insertQueue = (ContactInsertQueue) context.getAttribute(ContactInsertQueue.class.getName());
+		if(insertQueue != null) {
+			try {
+				if(!insertQueue.close(INSERT_QUEUE_CLOSE_MILLIS)) {
+					System.out.println("Insert queue not fully written on shutdown.");
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		InvalidationPoller poller = (InvalidationPoller) context.getAttribute(InvalidationPoller.class.getName());
+		if(poller != null) {
+			poller.close();
+		}
+		
+		ContactDirectory directory = (ContactDirectory) context.getAttribute(ContactDirectory.class.getName());
+		if(directory != null) {
+			directory.close();
+		}
+		
+		DuplicateJob duplicateJob = (DuplicateJob) context.getAttribute(DuplicateJob.class.getName());
+		if(duplicateJob != null) {
+			duplicateJob.close();
+		}
+		
+		Shards shards = (Shards) context.getAttribute(Shards.class.getName());
+		if(shards != null) {
+			shards.close();
+		}
+		
+		ConnectionPool pool = (ConnectionPool) context.getAttribute(ConnectionPool.class.getName());
+		if(pool != null) {
+			pool.close();
+		}
+		
+		ContactEventBus eventBus = (ContactEventBus) context.getAttribute(ContactEventBus.class.getName());
+		if(eventBus != null) {
+			eventBus.close();
+		}
+	}
+}
@@ -1,36 +1,88 @@
 package resources;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
 
 import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 
+import dbaccess.AdmissionController;
+import dbaccess.BirthdayWindow;
+import dbaccess.ConnectionPool;
 import dbaccess.ContactDAO;
+import dbaccess.ContactInsertQueue;
+import dbaccess.ContactSort;
+import dbaccess.OverloadException;
+import dbaccess.QueryLog;
+import dbaccess.ReplicaRouter;
+import dbaccess.RequestTiming;
+import dbaccess.ShardedContactDAO;
+import dbaccess.Shards;
+import directory.ContactDirectory;
+import events.ContactEvent;
+import events.ContactEventBus;
+import events.InvalidationPoller;
+import images.FileSystemImageStore;
+import images.ImageStore;
+import images.ImageTooLargeException;
+import images.ThumbnailCache;
+import images.Thumbnails;
 import models.Address;
 import models.Contact;
+import models.ContactBatch;
+import models.ContactInvalidation;
+import models.ContactPatch;
 
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 
-import org.apache.commons.io.IOUtils;
 // import org.apache.tomcat.util.http.fileupload.IOUtils;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataParam;
@@ -55,6 +107,101 @@ public class ContactResource {
 	 */
 	private static int MAX_IMG_SIZE = 64000;
 	
+	/**
+	 * Smallest and largest sizes accepted by the profile image size parameter
+	 */
+	private static int MIN_THUMBNAIL_SIZE = 16;
+	private static int MAX_THUMBNAIL_SIZE = 512;
+	
+	/**
+	 * Default limit on the total size of the resized profile image cache, used if thumbnailCacheMaxBytes is not set
+	 */
+	private static long DEFAULT_THUMBNAIL_CACHE_BYTES = 64L * 1024 * 1024;
+	
+	/**
+	 * Default number of undelivered change feed events allowed per client, used if changeFeedBufferSize is not set
+	 */
+	private static int DEFAULT_CHANGE_FEED_BUFFER = 256;
+	
+	/**
+	 * Defaults for the write-behind insert queue, used if writeBehindQueueSize, writeBehindBatchSize
+	 * or writeBehindMaxDelayMs are not set
+	 */
+	private static int DEFAULT_WRITE_BEHIND_QUEUE = 10000;
+	private static int DEFAULT_WRITE_BEHIND_BATCH = 200;
+	private static int DEFAULT_WRITE_BEHIND_DELAY_MS = 10;
+	
+	/**
+	 * Default time after a write that a client's reads go to the primary database, used if readYourWritesMs is not set
+	 */
+	private static int DEFAULT_READ_YOUR_WRITES_MS = 5000;
+	
+	/**
+	 * Defaults for admission control, used if requestTimeoutMs, dbConcurrencyLimit, dbConcurrencyMax
+	 * or dbWaitQueueSize are not set
+	 */
+	private static int DEFAULT_REQUEST_TIMEOUT_MS = 10000;
+	private static int DEFAULT_DB_CONCURRENCY_LIMIT = 20;
+	private static int DEFAULT_DB_CONCURRENCY_MAX = 200;
+	private static int DEFAULT_DB_WAIT_QUEUE = 100;
+	
+	/**
+	 * Defaults for the slow query log, used if slowQueryMs or slowQueryLogSize are not set
+	 */
+	private static int DEFAULT_SLOW_QUERY_MS = 200;
+	private static int DEFAULT_SLOW_QUERY_LOG_SIZE = 50;
+	
+	/**
+	 * Defaults for the connection pool, used if dbPoolMaxIdle or dbPoolMaxAgeMs are not set
+	 */
+	private static int DEFAULT_DB_POOL_MAX_IDLE = 20;
+	private static int DEFAULT_DB_POOL_MAX_AGE_MS = 30 * 60 * 1000;
+	
+	/**
+	 * Defaults for the contact directory, used if snapshotCatchUpMs or snapshotIntervalMs are not set
+	 */
+	private static int DEFAULT_SNAPSHOT_CATCH_UP_MS = 1000;
+	private static int DEFAULT_SNAPSHOT_INTERVAL_MS = 10 * 60 * 1000;
+	
+	/**
+	 * Servlet context attribute set once the replicas have been ignored because contacts are sharded
+	 */
+	private static final String REPLICAS_IGNORED_ATTRIBUTE = ReplicaRouter.class.getName() + ".ignored";
+	
+	/**
+	 * Maximum number of ids in one batch get
+	 */
+	private static int MAX_BATCH_IDS = 500;
+	
+	/**
+	 * Maximum number of contacts a list or search may ask for with limit
+	 */
+	private static int MAX_LIMIT = 10000;
+	
+	/**
+	 * Number of days searched for birthdays if days is not given
+	 */
+	private static int DEFAULT_BIRTHDAY_DAYS = 7;
+	
+	/**
+	 * Defaults for the invalidation poller, used if invalidationPollMs or invalidationRetentionMs are not set
+	 */
+	private static int DEFAULT_INVALIDATION_POLL_MS = 500;
+	private static int DEFAULT_INVALIDATION_RETENTION_MS = 60 * 60 * 1000;
+	
+	/**
+	 * Request header identifying a client for read-your-writes.  The remote address is used if it is not sent.
+	 */
+	public static final String CLIENT_ID_HEADER = "X-Client-Id";
+	
+	/**
+	 * Media type of a JSON Merge Patch document (RFC 7396)
+	 */
+	public static final String APPLICATION_MERGE_PATCH_JSON = "application/merge-patch+json";
+	
+	@Context
+	private HttpServletRequest request;
+	
 	/**
 	 * Retrieve a list of all Contacts.  No parameters returns the entire list.  Use parameters to search.  
 	 * 
@@ -62,31 +209,227 @@ public class ContactResource {
 	 * - Email and Name may both be searched on.  Results are entries that match on both criteria.
 	 * - City and State may both be searched on.  Results are entries that match on both criteria.
 	 * 
+	 * With "since", only the changes after that version are returned instead (see ContactDelta),
+	 * and the search parameters are ignored.  Not available when contacts are sharded (501 error).
+	 * 
+	 * Contacts are listed in id order, or with "sort" by name, company, birthdate or city ("order" asc or desc).
+	 * With "limit", only the first limit contacts are returned.
+	 * Without search parameters they are listed from the ContactDirectory, if one is configured and loaded.
+	 * 
+	 * With "ids", the contacts with those ids are returned instead, in the order requested, with a single query
+	 * (see ContactBatch).  Ids with no contact are listed as missing.  The other parameters are ignored.
+	 * 
 	 * @param city - full name of a city on which to match contacts' addresses
 	 * @param state - full name of a state on which to match contacts' addresses
 	 * @param email - partial email of contact on which to match
 	 * @param phone - partial phone number of contact on which to match contacts' work and personal numbers
+	 * @param since - version returned by the previous sync, 0 for a first sync
+	 * @param limit - maximum number of contacts returned, at most MAX_LIMIT
+	 * @param sort - name, company, birthdate or city to sort on, or null for id order
+	 * @param order - asc (default) or desc
+	 * @param ids - comma separated Contact.id values, at most MAX_BATCH_IDS
 	 * @param context - servlet context used to retrieve database login credentials
-	 * @return - a List of Contacts matching the search criteria
+	 * @return - a List of Contacts matching the search criteria, a ContactDelta if since is given,
+	 * 			or a ContactBatch if ids are given
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-	public List<Contact> getContacts( @QueryParam("city") String city, 
+	public Response getContacts( @QueryParam("city") String city, 
 			@QueryParam("state") String state, @QueryParam("email") String email,
-			@QueryParam("phone") String phone,  @Context ServletContext context) {
+			@QueryParam("phone") String phone, @QueryParam("since") Long since, @QueryParam("limit") Integer limit,
+			@QueryParam("sort") String sort, @QueryParam("order") String order,
+			@QueryParam("ids") String ids, @Context ServletContext context) {
+		checkLimit(limit);
+		ContactSort contactSort = parseSort(sort, order);
 		
-		ContactDAO contactDAO = new ContactDAO(context.getInitParameter("jdbcURL"),
-        		context.getInitParameter("jdbcUsername"), context.getInitParameter("jdbcPassword"));
+		ContactDAO contactDAO = getContactDAO(context);
         
-		List<Contact> contacts = null;
+		Object entity = null;
 		try {
-			contacts = contactDAO.searchAllContacts(email, phone);
+			if(ids != null) {
+				entity = getContactBatch(contactDAO, parseIds(ids));
+			} else if(since != null) {
+				entity = contactDAO.listChangedSince(since);
+			} else {
+				if(email == null && phone == null && !mustReadPrimary(context)) {
+					ContactDirectory directory = getContactDirectory(context);
+					entity = (directory != null) ? directory.listContacts(contactSort, (limit != null) ? limit : 0) : null;
+				}
+				if(entity == null) {
+					entity = contactDAO.searchAllContacts(email, phone, contactSort, (limit != null) ? limit : 0);
+				}
+			}
 		} catch (NumberFormatException e) {
 			e.printStackTrace();
+		} catch (SQLFeatureNotSupportedException e) {
+			throw new WebApplicationException(e.getMessage(), 501);
 		} catch (SQLException e) {
+			checkOverload(e);
 			e.printStackTrace();
 		}
-		return contacts; 
+		return Response.ok(entity).build(); 
+	}
+	
+	/**
+	 * Helper function gets several contacts at once, in the order requested.
+	 * 
+	 * @param contactDAO - the DAO to query
+	 * @param ids - Contact.id values, without duplicates
+	 * @return the ContactBatch
+	 * @throws SQLException
+	 */
+	private static ContactBatch getContactBatch(ContactDAO contactDAO, Collection<Integer> ids) throws SQLException {
+		Map<Integer, Contact> found = contactDAO.getContacts(ids);
+		List<Contact> contacts = new ArrayList<Contact>(found.size());
+		List<Integer> missing = new ArrayList<Integer>();
+		for(int id : ids) {
+			Contact contact = found.get(id);
+			if(contact != null) {
+				contacts.add(contact);
+			} else {
+				missing.add(id);
+			}
+		}
+		return new ContactBatch(contacts, missing);
+	}
+	
+	/**
+	 * Helper function checks the limit parameter of a list or search.
+	 * 
+	 * @param limit - maximum number of contacts returned, or null for all
+	 * @throws BadRequestException if it is not from 1 to MAX_LIMIT
+	 */
+	private static void checkLimit(Integer limit) {
+		if(limit != null && (limit < 1 || limit > MAX_LIMIT)) {
+			throw new BadRequestException("limit must be from 1 to " + MAX_LIMIT);
+		}
+	}
+	
+	/**
+	 * Helper function parses the sort and order parameters of a list or search.
+	 * 
+	 * @param sort - name, company, birthdate or city, or null for id order
+	 * @param order - asc or desc, or null for asc
+	 * @return the ContactSort, or null for id order
+	 * @throws BadRequestException if either is not one of those
+	 */
+	private static ContactSort parseSort(String sort, String order) {
+		boolean descending = false;
+		if(order != null && order.equalsIgnoreCase("desc")) {
+			descending = true;
+		} else if(order != null && !order.equalsIgnoreCase("asc")) {
+			throw new BadRequestException("order must be asc or desc");
+		}
+		if(sort == null) {
+			return null;
+		}
+		try {
+			return new ContactSort(ContactSort.Field.valueOf(sort.trim().toUpperCase()), descending);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException("sort must be name, company, birthdate or city");
+		}
+	}
+	
+	/**
+	 * Helper function parses the ids parameter of a batch get.  Repeated ids are only kept once.
+	 * 
+	 * @param ids - comma separated Contact.id values
+	 * @return the ids, in the order given
+	 * @throws BadRequestException if an id is not a number, or there are none or more than MAX_BATCH_IDS
+	 */
+	private static Collection<Integer> parseIds(String ids) {
+		Set<Integer> parsed = new LinkedHashSet<Integer>();
+		for(String id : ids.split(",")) {
+			if(!id.trim().isEmpty()) {
+				try {
+					parsed.add(Integer.parseInt(id.trim()));
+				} catch (NumberFormatException e) {
+					throw new BadRequestException("Not a contact id: " + id);
+				}
+			}
+		}
+		if(parsed.isEmpty() || parsed.size() > MAX_BATCH_IDS) {
+			throw new BadRequestException("ids must list between 1 and " + MAX_BATCH_IDS + " contact ids");
+		}
+		return parsed;
+	}
+	
+	/**
+	 * Stream changes to Contacts as Server-Sent Events, so clients can keep a copy of the list without polling.
+	 * 
+	 * Each event is named insert, update or delete and its data is a JSON ContactEvent.
+	 * Only changes made after subscribing are sent.  A client that falls more than changeFeedBufferSize
+	 * events behind is disconnected, and should reload the list before subscribing again.
+	 * 
+	 * @param sink - the client's event stream
+	 * @param sse - used to build events
+	 * @param context - servlet context holding the shared event bus
+	 */
+	@GET
+	@Path("changes")
+	@Produces(MediaType.SERVER_SENT_EVENTS)
+	public void getChanges(@Context final SseEventSink sink, @Context final Sse sse, @Context ServletContext context) {
+		getEventBus(context).subscribe(new ContactEventBus.Listener() {
+			
+			// @Override
+			public void onEvent(ContactEvent event) throws Exception {
+				if(sink.isClosed()) {
+					throw new IOException("Event stream closed");
+				}
+				OutboundSseEvent sseEvent = sse.newEventBuilder()
+						.name(event.getType().name().toLowerCase())
+						.mediaType(MediaType.APPLICATION_JSON_TYPE)
+						.data(ContactEvent.class, event)
+						.build();
+				sink.send(sseEvent).toCompletableFuture().get();
+			}
+			
+			// @Override
+			public void onDropped() {
+				sink.close();
+			}
+		});
+	}
+	
+	/**
+	 * Retrieve the contacts with a birthday in the next days, nearest birthday first.
+	 * 
+	 * The days run from "from" (default: today) for "days" days, so days=1 is today only.  They may cross the end
+	 * of the year.  Contacts born on February 29 are included on February 28 in other years.  Birthdays are found with
+	 * an index (see BirthdayWindow), so the time taken depends on how many there are, not on the number of contacts.
+	 * 
+	 * @param days - number of days, from 1 to BirthdayWindow.MAX_DAYS (default DEFAULT_BIRTHDAY_DAYS)
+	 * @param from - first day, as yyyy-MM-dd
+	 * @param limit - maximum number of contacts returned, at most MAX_LIMIT
+	 * @param context - servlet context used to retrieve database login credentials
+	 * @return a List of Contacts, 400 error if a parameter is not valid
+	 */
+	@GET
+	@Path("birthdays")
+	@Produces(MediaType.APPLICATION_JSON)
+	public List<Contact> getBirthdays(@QueryParam("days") Integer days, @QueryParam("from") String from,
+			@QueryParam("limit") Integer limit, @Context ServletContext context) {
+		if(days != null && (days < 1 || days > BirthdayWindow.MAX_DAYS)) {
+			throw new BadRequestException("days must be from 1 to " + BirthdayWindow.MAX_DAYS);
+		}
+		checkLimit(limit);
+		LocalDate first;
+		try {
+			first = (from != null) ? LocalDate.parse(from) : LocalDate.now();
+		} catch (DateTimeParseException e) {
+			throw new BadRequestException("from must be a date as yyyy-MM-dd");
+		}
+		BirthdayWindow window = new BirthdayWindow(first, (days != null) ? days : DEFAULT_BIRTHDAY_DAYS);
+		
+		ContactDAO contactDAO = getContactDAO(context);
+		List<Contact> contacts = null;
+		try {
+			contacts = contactDAO.listBirthdays(window, (limit != null) ? limit : 0);
+		} catch (SQLException e) {
+			checkOverload(e);
+			e.printStackTrace();
+		}
+		return contacts;
 	}
 	
 	/**
@@ -100,8 +443,7 @@ public class ContactResource {
 	@Path("{id}")
 	@Produces(MediaType.APPLICATION_JSON)
 	public Contact getContact(@PathParam("id") String id, @Context ServletContext context) {
-        ContactDAO contactDAO = new ContactDAO(context.getInitParameter("jdbcURL"),
-        		context.getInitParameter("jdbcUsername"), context.getInitParameter("jdbcPassword"));
+        ContactDAO contactDAO = getContactDAO(context);
         
 		Contact contact = null;
 		try {
@@ -109,6 +451,7 @@ public class ContactResource {
 		} catch (NumberFormatException e) {
 			e.printStackTrace();
 		} catch (SQLException e) {
+			checkOverload(e);
 			e.printStackTrace();
 		}
 		
@@ -119,44 +462,127 @@ public class ContactResource {
 	}
 	
 	/**
-	 * Retrieves the profile image for a given Contact.
+	 * Retrieves the profile image for a given Contact, or a resized copy of it.
 	 * 
-	 * Note the returned file is only presumed to be a JPG.
-	 * Although this resource produces an "image/jpg",
-	 * there may not be checks when the file was uploaded.
+	 * The content type is identified from the image itself.
+	 * Images in the image store are sent straight from their files.
+	 * Resized copies are kept in an on-disk cache (see getThumbnailCache) so repeat requests skip resizing.
 	 * 
 	 * @param id - Number uniquely identifying a contact. Contact.id field
+	 * @param size - optional maximum width/height in pixels, between MIN_THUMBNAIL_SIZE and MAX_THUMBNAIL_SIZE
 	 * @param context - servlet context used to retrieve database login credentials
 	 * @return - writes the image file to response's output stream, 404 error if no file was saved for this contact
 	 */
 	@GET
 	@Path("{id}/profile_img")
-	@Produces("image/jpg")
-	public StreamingOutput getImage(@PathParam("id") String id, @Context ServletContext context) {
-        ContactDAO contactDAO = new ContactDAO(context.getInitParameter("jdbcURL"),
-        		context.getInitParameter("jdbcUsername"), context.getInitParameter("jdbcPassword"));
+	@Produces("image/*")
+	public Response getImage(@PathParam("id") int id, @QueryParam("size") Integer size, @Context ServletContext context) {
+		if(size != null && (size < MIN_THUMBNAIL_SIZE || size > MAX_THUMBNAIL_SIZE)) {
+			throw new BadRequestException("size must be between " + MIN_THUMBNAIL_SIZE + " and " + MAX_THUMBNAIL_SIZE);
+		}
+		
+		ContactDAO contactDAO = getContactDAO(context);
 		try {
-			final Contact contact = contactDAO.getContact(Integer.parseInt(id));
-			return new StreamingOutput() {
-
-				// @Override
-				public void write(OutputStream os) throws IOException, WebApplicationException {
-					
-					if(contact.getProfileImage() != null) {
-						IOUtils.copy(new ByteArrayInputStream(contact.getProfileImage()),os);
-					} else {
-						throw new WebApplicationException(404);
+			String hash = contactDAO.getProfileImageHash(id);
+			ImageStore store = (hash != null) ? getImageStore(context) : null;
+			byte[] img = null;
+			String key;
+			if(store != null) {
+				// stored images never change, so the hash identifies the image version
+				if(size == null) {
+					return streamImage(store.open(hash));
+				}
+				key = hash + "-" + size;
+			} else {
+				// without an image store, an image already moved to one may still have its BLOB
+				img = contactDAO.getProfileImage(id);
+				if(img == null && hash != null) {
+					String message = "Profile image of contact " + id + " is in the image store, but imageStoreDir is not set";
+					System.out.println(message);
+					throw new InternalServerErrorException(message);
+				}
+				if(img == null) {
+					throw new NotFoundException();
+				}
+				if(size == null) {
+					return Response.ok(img, Thumbnails.contentType(Thumbnails.sniffFormat(img))).build();
+				}
+				CRC32 crc = new CRC32();
+				crc.update(img);
+				key = id + "-" + Long.toHexString(crc.getValue()) + "-" + size;
+			}
+			
+			ThumbnailCache cache = getThumbnailCache(context);
+			FileChannel channel = cache.get(key);
+			if(channel == null) {
+				if(img == null) {
+					img = store.get(hash);
+					if(img == null) {
+						throw new NotFoundException();
 					}
 				}
-				
-			};
-		} catch (NumberFormatException e) {
-			e.printStackTrace();
+				String format = Thumbnails.sniffFormat(img);
+				if(format == null) {
+					throw new WebApplicationException("Profile image is not a recognized image format", 415);
+				}
+				channel = cache.put(key, Thumbnails.resize(img, format, size));
+			}
+			return streamImage(channel);
 		} catch (SQLException e) {
+			checkOverload(e);
 			e.printStackTrace();
+			throw new InternalServerErrorException();
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new InternalServerErrorException();
+		}
+	}
+	
+	/**
+	 * Helper function streams an open image file to the response.
+	 * File channels are sent with FileChannel.transferTo, so the contents are not copied through the heap.
+	 * The file is opened before returning so that it may be evicted from a cache while being sent.
+	 * 
+	 * @param channel - open image file, closed once sent.  404 error if null.
+	 * @return response writing the image, with its content type
+	 * @throws IOException
+	 */
+	private static Response streamImage(final ReadableByteChannel channel) throws IOException {
+		if(channel == null) {
+			throw new NotFoundException();
+		}
+		String contentType = Thumbnails.UNKNOWN_CONTENT_TYPE;
+		if(channel instanceof FileChannel) {
+			contentType = Thumbnails.contentType(Thumbnails.sniffFormat((FileChannel) channel));
 		}
 		
-		return null;
+		StreamingOutput output = new StreamingOutput() {
+			
+			// @Override
+			public void write(OutputStream os) throws IOException, WebApplicationException {
+				try {
+					WritableByteChannel target = Channels.newChannel(os);
+					if(channel instanceof FileChannel) {
+						FileChannel file = (FileChannel) channel;
+						long position = 0;
+						long size = file.size();
+						while(position < size) {
+							position += file.transferTo(position, size - position, target);
+						}
+					} else {
+						ByteBuffer buffer = ByteBuffer.allocate(8192);
+						while(channel.read(buffer) >= 0) {
+							buffer.flip();
+							target.write(buffer);
+							buffer.clear();
+						}
+					}
+				} finally {
+					channel.close();
+				}
+			}
+		};
+		return Response.ok(output, contentType).build();
 	}
 	
 	/**
@@ -170,15 +596,18 @@ public class ContactResource {
 	@Path("{id}")
     @Produces(MediaType.TEXT_PLAIN)
     public int removeContact(@PathParam("id") int id, @Context ServletContext context) {
-		ContactDAO contactDAO = new ContactDAO(context.getInitParameter("jdbcURL"),
-        		context.getInitParameter("jdbcUsername"), context.getInitParameter("jdbcPassword"));
+		ContactDAO contactDAO = getContactDAO(context);
         
 		boolean deleted = false;
 		try {
 			deleted = contactDAO.deleteContact(id);
+			if(deleted) {
+				contactChanged(context, clientId(), new ContactEvent(ContactEvent.Type.DELETE, id, null));
+			}
 		} catch (NumberFormatException e) {
 			e.printStackTrace();
 		} catch (SQLException e) {
+			checkOverload(e);
 			e.printStackTrace();
 		}
 		return deleted?id:-1; 
@@ -191,6 +620,9 @@ public class ContactResource {
 	 * All fields are primitive/string values except a field "file" which contains a profile image < 65 kB.
 	 * Any field may be left null/blank.
 	 * 
+	 * If the writeBehind context parameter is true, the contact is queued and inserted together with other new
+	 * contacts (see getInsertQueue), and the response is sent once it is committed.  A full queue is a 503 error.
+	 * 
 	 * @param formDataBodyPart - the "file" field which contains a profile image < 65 kB
 	 * @param name - Contact's name
 	 * @param company - Contact's company
@@ -205,18 +637,19 @@ public class ContactResource {
 	 * @param zip - zipcode of Conact's address
 	 * @param country  - country of Conact's address
 	 * @param context - servlet context used to retrieve database login credentials
-	 * @return a JSON describing the newly created contact.  The Contact's id attribute will be invalid (-1)
+	 * @param asyncResponse - resumed with a JSON describing the newly created contact, including the id assigned to it
 	 */
 	@POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Produces(MediaType.APPLICATION_JSON)
-    public Contact newContact(@FormDataParam("file") final FormDataBodyPart formDataBodyPart, @FormDataParam("name") String name,
+    public void newContact(@FormDataParam("file") final FormDataBodyPart formDataBodyPart, @FormDataParam("name") String name,
     		@FormDataParam("company") String company, @FormDataParam("email") String email,
     		@FormDataParam("workPhone") String workPhone, @FormDataParam("personalPhone") String personalPhone,
     		@FormDataParam("birthdate") String birthdate, @FormDataParam("line1") String line1, 
     		@FormDataParam("line2") String line2, @FormDataParam("city") String city, 
     		@FormDataParam("state") String state, @FormDataParam("zip") String zip, 
-    		@FormDataParam("country") String country, @Context ServletContext context) {
+    		@FormDataParam("country") String country, @Context final ServletContext context,
+    		@Suspended final AsyncResponse asyncResponse) {
 		
 		byte[] imgFile = uploadFile(formDataBodyPart);
 		LocalDate date = parseDate(birthdate);
@@ -224,17 +657,76 @@ public class ContactResource {
 		Address address = new Address(-1, line1, line2, "", city, state, zip, country);
         Contact contact = new Contact(-1, name, company, imgFile, email, date, workPhone, personalPhone, address);
         
-        ContactDAO contactDAO = new ContactDAO(context.getInitParameter("jdbcURL"),
-        		context.getInitParameter("jdbcUsername"), context.getInitParameter("jdbcPassword"));
+        insertContact(contact, context, asyncResponse);
+	}
+	
+	/**
+	 * Inserts a new contact record into the data store.
+	 * 
+	 * Data is accepted as a JSON Contact, as returned by GET /contact/{id}.  Its id is ignored.
+	 * The profile image is not part of the JSON; set it with PUT /contact/{id}/profile_img.
+	 * Any field may be left out or null.
+	 * 
+	 * @param contact - the new Contact
+	 * @param context - servlet context used to retrieve database login credentials
+	 * @param asyncResponse - resumed with a JSON describing the newly created contact, including the id assigned to it
+	 */
+	@POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void newContact(Contact contact, @Context final ServletContext context,
+    		@Suspended final AsyncResponse asyncResponse) {
+		if(contact == null) {
+			throw new BadRequestException("No contact in request body");
+		}
+		contact.setId(-1);
+		insertContact(contact, context, asyncResponse);
+	}
+	
+	/**
+	 * Helper function inserts a new contact, directly or through the write-behind insert queue,
+	 * and resumes the response with it.
+	 * 
+	 * @param contact - the new Contact
+	 * @param context - servlet context used to retrieve database login credentials
+	 * @param asyncResponse - resumed with the contact, including the id assigned to it
+	 */
+	private void insertContact(Contact contact, final ServletContext context, final AsyncResponse asyncResponse) {
+        ContactInsertQueue insertQueue = getInsertQueue(context);
+        if(insertQueue != null) {
+        	final String clientId = clientId();
+        	try {
+        		insertQueue.submit(contact).whenComplete(new BiConsumer<Contact, Throwable>() {
+        			
+        			// @Override
+        			public void accept(Contact inserted, Throwable error) {
+        				if(error != null) {
+        					asyncResponse.resume(new InternalServerErrorException(error));
+        				} else {
+        					contactChanged(context, clientId, new ContactEvent(ContactEvent.Type.INSERT, inserted.getId(), inserted));
+        					asyncResponse.resume(inserted);
+        				}
+        			}
+        		});
+        	} catch (RejectedExecutionException e) {
+        		asyncResponse.resume(new ServiceUnavailableException(1L));
+        	}
+        	return;
+        }
+        
+        ContactDAO contactDAO = getContactDAO(context);
         
         try {
-			contactDAO.insertContact(contact);
+			if(contactDAO.insertContact(contact)) {
+				contactChanged(context, clientId(), new ContactEvent(ContactEvent.Type.INSERT, contact.getId(), contact));
+			}
 		} catch (SQLException e) {
+			checkOverload(e);
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
         
-		return contact; 
+		asyncResponse.resume(contact); 
 	}
 	
 	/**
@@ -279,19 +771,683 @@ public class ContactResource {
         Address address = new Address(-1 , line1, line2, "", city, state, zip, country);
         Contact contact = new Contact(id, name, company, imgFile, email, date, workPhone, personalPhone, address);
         
-        ContactDAO contactDAO = new ContactDAO(context.getInitParameter("jdbcURL"),
-        		context.getInitParameter("jdbcUsername"), context.getInitParameter("jdbcPassword"));
+        return replaceContact(contact, true, context);
+	}
+	
+	/**
+	 * Update the record of an existing Contact identified by its unique Id.
+	 * 
+	 * Data is accepted as a JSON Contact, as returned by GET /contact/{id}.  Its id is ignored.
+	 * All fields in the Contact's record are replaced, except the profile image, which is kept.
+	 * 
+	 * @param id - Number uniquely identifying a contact. Contact.id field
+	 * @param contact - the Contact's new fields
+	 * @param context - servlet context used to retrieve database login credentials
+	 * @return a JSON describing the updated contact record
+	 */
+	@PUT
+	@Path("{id}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Contact updateContact(@PathParam("id") int id, Contact contact, @Context ServletContext context) {
+		if(contact == null) {
+			throw new BadRequestException("No contact in request body");
+		}
+		contact.setId(id);
+		return replaceContact(contact, false, context);
+	}
+	
+	/**
+	 * Replace the profile image of an existing Contact identified by its unique Id.
+	 * 
+	 * The image file is accepted as the raw request body, < 64 kB, and streamed straight into the image store
+	 * if there is one.
+	 * 
+	 * @param id - Number uniquely identifying a contact. Contact.id field
+	 * @param image - the image file
+	 * @param context - servlet context used to retrieve database login credentials
+	 * @return a JSON describing the updated contact record, 404 error if the contact is not found,
+	 * 			413 error if the image is too large
+	 */
+	@PUT
+	@Path("{id}/profile_img")
+	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Contact updateImage(@PathParam("id") int id, InputStream image, @Context ServletContext context) {
+		ContactDAO contactDAO = getContactDAO(context);
+		
+		Contact contact = null;
+		try {
+			if(contactDAO.updateProfileImage(id, image, MAX_IMG_SIZE - 1)) {
+				contact = contactDAO.getContact(id);
+				contactChanged(context, clientId(), new ContactEvent(ContactEvent.Type.UPDATE, id, contact));
+			}
+		} catch (ImageTooLargeException e) {
+			throw new WebApplicationException("Img upload greater than 64 kB", 413);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new InternalServerErrorException();
+		} catch (SQLException e) {
+			checkOverload(e);
+			e.printStackTrace();
+			throw new InternalServerErrorException();
+		}
+		
+		if (contact == null) {
+			throw new NotFoundException();
+		}
+		return contact;
+	}
+	
+	/**
+	 * Helper function replaces the record of an existing Contact.
+	 * 
+	 * @param contact - the Contact's new fields, identified by Contact.id
+	 * @param replaceProfileImage - false to keep the stored profile image
+	 * @param context - servlet context used to retrieve database login credentials
+	 * @return the updated contact, or null if it was not updated
+	 */
+	private Contact replaceContact(Contact contact, boolean replaceProfileImage, ServletContext context) {
+        ContactDAO contactDAO = getContactDAO(context);
         
+        int id = contact.getId();
         boolean updated = false;
         try {
-			updated = contactDAO.updateContact(contact);
+			updated = contactDAO.updateContact(contact, replaceProfileImage);
+			if(updated) {
+				contactChanged(context, clientId(), new ContactEvent(ContactEvent.Type.UPDATE, id, contact));
+			}
 		} catch (SQLException e) {
+			checkOverload(e);
 			e.printStackTrace();
 		}
         
 		return updated?contact:null; 
 	}
 	
+	/**
+	 * Partially update the record of an existing Contact identified by its unique Id.
+	 * 
+	 * Data is accepted as a JSON Merge Patch (RFC 7396).
+	 * Only the fields present in the patch are changed; a field set to null is cleared.
+	 * The profile image is only changed if the patch has a "profileImage" field (base64 encoded, < 65 kB).
+	 * 
+	 * @param id - Number uniquely identifying a contact. Contact.id field
+	 * @param patch - the fields to change
+	 * @param context - servlet context used to retrieve database login credentials
+	 * @return a JSON describing the updated contact record, 404 error if the contact is not found
+	 */
+	@PATCH
+	@Path("{id}")
+	@Consumes({APPLICATION_MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+	@Produces(MediaType.APPLICATION_JSON)
+	public Contact patchContact(@PathParam("id") int id, ContactPatch patch, @Context ServletContext context) {
+		if(patch == null) {
+			patch = new ContactPatch();
+		}
+		if(patch.getProfileImage() != null && patch.getProfileImage().length >= MAX_IMG_SIZE) {
+			throw new WebApplicationException("Img upload greater than 64 kB", 413);
+		}
+		
+		ContactDAO contactDAO = getContactDAO(context);
+		
+		Contact contact = null;
+		try {
+			if(contactDAO.patchContact(id, patch)) {
+				contact = contactDAO.getContact(id);
+				contactChanged(context, clientId(), new ContactEvent(ContactEvent.Type.UPDATE, id, contact));
+			}
+		} catch (SQLException e) {
+			checkOverload(e);
+			e.printStackTrace();
+		}
+		
+		if (contact == null) {
+			throw new NotFoundException();
+		}
+		return contact;
+	}
+	
+	/**
+	 * Helper function creates a ContactDAO for this request.
+	 * 
+	 * If read replicas are configured (see getReplicaRouter) its reads go to them,
+	 * unless this client wrote within the last readYourWritesMs.
+	 * Its operations go through the shared AdmissionController, and must finish within requestTimeoutMs.
+	 * If ServerTiming is timing this request, they add their time to it.
+	 * 
+	 * @param context - servlet context holding the database settings
+	 * @return a new ContactDAO
+	 */
+	private ContactDAO getContactDAO(ServletContext context) {
+		ContactDAO contactDAO = newContactDAO(context);
+		long timeout = TimeUnit.MILLISECONDS.toNanos(intParameter(context, "requestTimeoutMs", DEFAULT_REQUEST_TIMEOUT_MS));
+		contactDAO.setAdmissionController(getAdmissionController(context), System.nanoTime() + timeout);
+		if(request != null) {
+			contactDAO.setRequestTiming((RequestTiming) request.getAttribute(ServerTiming.TIMING_PROPERTY));
+		}
+		ReplicaRouter router = getReplicaRouter(context);
+		if(router != null) {
+			contactDAO.setReplicaRouter(router, router.mustReadPrimary(clientId()));
+		}
+		return contactDAO;
+	}
+	
+	/**
+	 * Helper function turns a database error caused by overload into a 503 error, so clients back off and retry.
+	 * Other errors are left to the caller.
+	 * 
+	 * @param e - the database error
+	 * @throws ServiceUnavailableException with a Retry-After header, if the database was too busy or too slow
+	 */
+	private static void checkOverload(SQLException e) {
+		if(e instanceof OverloadException) {
+			throw new ServiceUnavailableException((long) ((OverloadException) e).getRetryAfterSeconds());
+		}
+		if(e instanceof SQLTimeoutException) {
+			throw new ServiceUnavailableException(1L);
+		}
+	}
+	
+	/**
+	 * Helper function identifies the client making this request, for read-your-writes.
+	 * @return the X-Client-Id header, or the client's address if it is not sent
+	 */
+	private String clientId() {
+		if(request == null) {
+			return null;
+		}
+		String clientId = request.getHeader(CLIENT_ID_HEADER);
+		return (clientId != null) ? clientId : request.getRemoteAddr();
+	}
+	
+	/**
+	 * Helper function announces a change to a contact: publishes it to the event bus,
+	 * sends the client's reads to the primary database for a while, and has the ContactDirectory read it.
+	 * 
+	 * @param context - servlet context holding the shared event bus, replica router and directory
+	 * @param clientId - the client that made the change
+	 * @param event - the change
+	 */
+	private static void contactChanged(ServletContext context, String clientId, ContactEvent event) {
+		getEventBus(context).publish(event);
+		ReplicaRouter router = getReplicaRouter(context);
+		if(router != null) {
+			router.recordWrite(clientId);
+		}
+		ContactDirectory directory = getContactDirectory(context);
+		if(directory != null) {
+			directory.requestCatchUp();
+		}
+	}
+	
+	/**
+	 * Helper function decides whether this client's reads must see its own latest writes.
+	 * @param context - servlet context holding the replica router
+	 * @return true if the client wrote within the last readYourWritesMs
+	 */
+	private boolean mustReadPrimary(ServletContext context) {
+		ReplicaRouter router = getReplicaRouter(context);
+		return router != null && router.mustReadPrimary(clientId());
+	}
+	
+	/**
+	 * Helper function creates a ContactDAO using the database login credentials in the servlet context.
+	 * All of its queries go to the primary database, or to the shards if they are configured (see getShards).
+	 * Its statements are timed by the shared QueryLog, and its connections come from the shared ConnectionPool.
+	 * 
+	 * @param context - servlet context holding the jdbcURL, jdbcUsername and jdbcPassword parameters
+	 * @return a new ContactDAO, using the shared image store if one is configured
+	 */
+	static ContactDAO newContactDAO(ServletContext context) {
+		ImageStore imageStore = null;
+		try {
+			imageStore = getImageStore(context);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		ContactDAO contactDAO;
+		Shards shards = getShards(context);
+		if(shards != null) {
+			contactDAO = new ShardedContactDAO(shards, context.getInitParameter("jdbcUsername"),
+					context.getInitParameter("jdbcPassword"), imageStore);
+		} else {
+			contactDAO = new ContactDAO(context.getInitParameter("jdbcURL"),
+					context.getInitParameter("jdbcUsername"), context.getInitParameter("jdbcPassword"), imageStore);
+		}
+		contactDAO.setQueryLog(getQueryLog(context));
+		contactDAO.setConnectionPool(getConnectionPool(context));
+		contactDAO.setNodeId(getNodeId(context));
+		return contactDAO;
+	}
+	
+	/**
+	 * Helper function returns this node's id, written with its changes to the invalidation log so it can skip them.
+	 * 
+	 * The id is the nodeId context parameter, or a random one made on first use.
+	 * 
+	 * @param context - servlet context holding the nodeId parameter and the shared id
+	 * @return the id
+	 */
+	static String getNodeId(ServletContext context) {
+		String nodeId = context.getInitParameter("nodeId");
+		if(nodeId != null && !nodeId.isEmpty()) {
+			return nodeId;
+		}
+		synchronized(context) {
+			nodeId = (String) context.getAttribute("nodeId");
+			if(nodeId == null) {
+				nodeId = UUID.randomUUID().toString();
+				context.setAttribute("nodeId", nodeId);
+			}
+			return nodeId;
+		}
+	}
+	
+	/**
+	 * Helper function returns the invalidation poller shared by this web application, creating it on first use.
+	 * 
+	 * It reads the changes other nodes write every invalidationPollMs, and removes log entries older than
+	 * invalidationRetentionMs.  The contact directory catches up on them, and the change feed publishes them to this
+	 * node's subscribers.  If changes may have been missed, the change feed drops its subscribers so they reload.
+	 * If invalidationPollMs is 0 there is no poller.  ContactContextListener starts it on startup and stops it on
+	 * shutdown.
+	 * 
+	 * @param context - servlet context holding the poller settings and the shared poller
+	 * @return the InvalidationPoller, or null if there is none
+	 */
+	static InvalidationPoller getInvalidationPoller(final ServletContext context) {
+		int pollMillis = intParameter(context, "invalidationPollMs", DEFAULT_INVALIDATION_POLL_MS);
+		if(pollMillis <= 0) {
+			return null;
+		}
+		synchronized(context) {
+			InvalidationPoller poller = (InvalidationPoller) context.getAttribute(InvalidationPoller.class.getName());
+			if(poller == null) {
+				// one log per database: the primary, or each shard
+				List<ContactDAO> databases = new ArrayList<ContactDAO>();
+				Shards shards = getShards(context);
+				if(shards != null) {
+					for(int i = 0; i < shards.size(); i++) {
+						ContactDAO shard = new ContactDAO(shards.getURL(i), context.getInitParameter("jdbcUsername"),
+								context.getInitParameter("jdbcPassword"));
+						shard.setQueryLog(getQueryLog(context));
+						shard.setConnectionPool(getConnectionPool(context));
+						databases.add(shard);
+					}
+				} else {
+					databases.add(newContactDAO(context));
+				}
+				poller = new InvalidationPoller(databases, getNodeId(context), pollMillis,
+						intParameter(context, "invalidationRetentionMs", DEFAULT_INVALIDATION_RETENTION_MS));
+				poller.addListener(new InvalidationPoller.Listener() {
+					
+					// @Override
+					public void invalidated(List<ContactInvalidation> invalidations) {
+						ContactDirectory directory = getContactDirectory(context);
+						if(directory != null) {
+							directory.requestCatchUp();
+						}
+						publishInvalidations(context, invalidations);
+					}
+					
+					// @Override
+					public void invalidatedAll() {
+						ContactDirectory directory = getContactDirectory(context);
+						if(directory != null) {
+							directory.requestCatchUp();
+						}
+						getEventBus(context).dropSubscribers();
+					}
+				});
+				context.setAttribute(InvalidationPoller.class.getName(), poller);
+			}
+			return poller;
+		}
+	}
+	
+	/**
+	 * Helper function publishes the changes made on other nodes to this node's change feed.
+	 * Inserted and updated contacts are read back in one query; contacts deleted since are left out.
+	 * 
+	 * @param context - servlet context holding the shared event bus
+	 * @param invalidations - the changes, in the order they were made
+	 */
+	private static void publishInvalidations(ServletContext context, List<ContactInvalidation> invalidations) {
+		Set<Integer> ids = new LinkedHashSet<Integer>();
+		for(ContactInvalidation invalidation : invalidations) {
+			if(invalidation.getType() != ContactInvalidation.Type.DELETE) {
+				ids.add(invalidation.getId());
+			}
+		}
+		Map<Integer, Contact> contacts;
+		try {
+			contacts = ids.isEmpty() ? Collections.<Integer, Contact>emptyMap() : newContactDAO(context).getContacts(ids);
+		} catch (SQLException e) {
+			// the subscribers cannot be told what changed
+			e.printStackTrace();
+			getEventBus(context).dropSubscribers();
+			return;
+		}
+		ContactEventBus bus = getEventBus(context);
+		for(ContactInvalidation invalidation : invalidations) {
+			int id = invalidation.getId();
+			if(invalidation.getType() == ContactInvalidation.Type.DELETE) {
+				bus.publish(new ContactEvent(ContactEvent.Type.DELETE, id, null));
+			} else if(contacts.containsKey(id)) {
+				ContactEvent.Type type = (invalidation.getType() == ContactInvalidation.Type.INSERT)
+						? ContactEvent.Type.INSERT : ContactEvent.Type.UPDATE;
+				bus.publish(new ContactEvent(type, id, contacts.get(id)));
+			}
+		}
+	}
+	
+	/**
+	 * Helper function lists every database this web application connects to: the primary, or the shards if
+	 * they are configured, and the read replicas.
+	 * 
+	 * @param context - servlet context holding the database settings
+	 * @return JDBC URLs
+	 */
+	static List<String> getDatabaseURLs(ServletContext context) {
+		List<String> urls = new ArrayList<String>();
+		Shards shards = getShards(context);
+		if(shards != null) {
+			for(int i = 0; i < shards.size(); i++) {
+				urls.add(shards.getURL(i));
+			}
+		} else {
+			urls.add(context.getInitParameter("jdbcURL"));
+			urls.addAll(listParameter(context, "jdbcReadURLs"));
+		}
+		return urls;
+	}
+	
+	/**
+	 * Helper function returns the database connection pool shared by this web application, creating it on first use.
+	 * 
+	 * Up to dbPoolMaxIdle idle connections are kept per database, and connections are closed once they are
+	 * dbPoolMaxAgeMs old.  ContactContextListener closes the pool on shutdown.
+	 * 
+	 * @param context - servlet context holding the database credentials, the pool settings and the shared pool
+	 * @return the ConnectionPool
+	 */
+	static ConnectionPool getConnectionPool(ServletContext context) {
+		synchronized(context) {
+			ConnectionPool pool = (ConnectionPool) context.getAttribute(ConnectionPool.class.getName());
+			if(pool == null) {
+				pool = new ConnectionPool(context.getInitParameter("jdbcUsername"), context.getInitParameter("jdbcPassword"),
+						intParameter(context, "dbPoolMaxIdle", DEFAULT_DB_POOL_MAX_IDLE),
+						intParameter(context, "dbPoolMaxAgeMs", DEFAULT_DB_POOL_MAX_AGE_MS));
+				context.setAttribute(ConnectionPool.class.getName(), pool);
+			}
+			return pool;
+		}
+	}
+	
+	/**
+	 * Helper function returns the profile image store shared by this web application, creating it on first use.
+	 * 
+	 * Images are stored under the imageStoreDir context parameter directory.
+	 * If imageStoreDir is not set there is no image store, and images are kept in the database.
+	 * 
+	 * @param context - servlet context holding the store settings and the shared store
+	 * @return the ImageStore, or null if none is configured
+	 * @throws IOException if the store directory cannot be created
+	 */
+	private static ImageStore getImageStore(ServletContext context) throws IOException {
+		synchronized(context) {
+			ImageStore store = (ImageStore) context.getAttribute(ImageStore.class.getName());
+			String dir = context.getInitParameter("imageStoreDir");
+			if(store == null && dir != null) {
+				store = new FileSystemImageStore(new File(dir));
+				context.setAttribute(ImageStore.class.getName(), store);
+			}
+			return store;
+		}
+	}
+	
+	/**
+	 * Helper function returns the slow query log shared by this web application, creating it on first use.
+	 * 
+	 * Queries taking at least slowQueryMs are logged, and the last slowQueryLogSize of them are kept for AdminResource.
+	 * 
+	 * @param context - servlet context holding the log settings and the shared log
+	 * @return the QueryLog
+	 */
+	static QueryLog getQueryLog(ServletContext context) {
+		synchronized(context) {
+			QueryLog queryLog = (QueryLog) context.getAttribute(QueryLog.class.getName());
+			if(queryLog == null) {
+				queryLog = new QueryLog(intParameter(context, "slowQueryMs", DEFAULT_SLOW_QUERY_MS),
+						intParameter(context, "slowQueryLogSize", DEFAULT_SLOW_QUERY_LOG_SIZE));
+				context.setAttribute(QueryLog.class.getName(), queryLog);
+			}
+			return queryLog;
+		}
+	}
+	
+	/**
+	 * Helper function returns the admission controller shared by this web application, creating it on first use.
+	 * 
+	 * It starts allowing dbConcurrencyLimit database operations at once, adapts that up to dbConcurrencyMax,
+	 * and lets up to dbWaitQueueSize more wait.
+	 * 
+	 * @param context - servlet context holding the admission settings and the shared controller
+	 * @return the AdmissionController
+	 */
+	private static AdmissionController getAdmissionController(ServletContext context) {
+		synchronized(context) {
+			AdmissionController controller = (AdmissionController) context.getAttribute(AdmissionController.class.getName());
+			if(controller == null) {
+				controller = new AdmissionController(
+						intParameter(context, "dbConcurrencyLimit", DEFAULT_DB_CONCURRENCY_LIMIT),
+						intParameter(context, "dbConcurrencyMax", DEFAULT_DB_CONCURRENCY_MAX),
+						intParameter(context, "dbWaitQueueSize", DEFAULT_DB_WAIT_QUEUE));
+				context.setAttribute(AdmissionController.class.getName(), controller);
+			}
+			return controller;
+		}
+	}
+	
+	/**
+	 * Helper function returns the shards shared by this web application, creating them on first use.
+	 * 
+	 * Shards are listed, comma separated, in the jdbcShardURLs context parameter and share jdbcUsername and
+	 * jdbcPassword.  Contacts are placed by hash unless shardLowerBounds lists the lowest id of each shard,
+	 * comma separated, to place them by id range.  If jdbcShardURLs is not set there are no shards.
+	 * 
+	 * @param context - servlet context holding the shard settings and the shared Shards
+	 * @return the Shards, or null if none are configured
+	 */
+	private static Shards getShards(ServletContext context) {
+		List<String> urls = listParameter(context, "jdbcShardURLs");
+		if(urls.isEmpty()) {
+			return null;
+		}
+		synchronized(context) {
+			Shards shards = (Shards) context.getAttribute(Shards.class.getName());
+			if(shards == null) {
+				List<String> bounds = listParameter(context, "shardLowerBounds");
+				int[] lowerBounds = null;
+				if(!bounds.isEmpty()) {
+					lowerBounds = new int[bounds.size()];
+					for(int i = 0; i < lowerBounds.length; i++) {
+						lowerBounds[i] = Integer.parseInt(bounds.get(i));
+					}
+				}
+				shards = new Shards(urls, lowerBounds);
+				context.setAttribute(Shards.class.getName(), shards);
+			}
+			return shards;
+		}
+	}
+	
+	/**
+	 * Helper function returns the contact directory shared by this web application, creating it on first use.
+	 * 
+	 * Only used if the snapshotFile context parameter is set, and contacts are not sharded.  The directory catches up
+	 * with the database every snapshotCatchUpMs and writes snapshotFile every snapshotIntervalMs.
+	 * ContactContextListener stops it on shutdown.
+	 * 
+	 * @param context - servlet context holding the directory settings and the shared directory
+	 * @return the ContactDirectory, or null if there is none
+	 */
+	static ContactDirectory getContactDirectory(ServletContext context) {
+		String file = context.getInitParameter("snapshotFile");
+		if(file == null || file.isEmpty() || getShards(context) != null) {
+			return null;
+		}
+		synchronized(context) {
+			ContactDirectory directory = (ContactDirectory) context.getAttribute(ContactDirectory.class.getName());
+			if(directory == null) {
+				directory = new ContactDirectory(new File(file), newContactDAO(context),
+						intParameter(context, "snapshotCatchUpMs", DEFAULT_SNAPSHOT_CATCH_UP_MS),
+						intParameter(context, "snapshotIntervalMs", DEFAULT_SNAPSHOT_INTERVAL_MS));
+				context.setAttribute(ContactDirectory.class.getName(), directory);
+			}
+			return directory;
+		}
+	}
+	
+	/**
+	 * Helper function returns the read replica router shared by this web application, creating it on first use.
+	 * 
+	 * Replicas are listed, comma separated, in the jdbcReadURLs context parameter and share the primary's
+	 * credentials.  If jdbcReadURLs is not set there is no router, and every query goes to jdbcURL.
+	 * Replicas are not supported with shards: if jdbcShardURLs is also set, a warning is logged once and there is
+	 * no router.
+	 * 
+	 * @param context - servlet context holding the replica settings and the shared router
+	 * @return the ReplicaRouter, or null if no replicas are configured or contacts are sharded
+	 */
+	private static ReplicaRouter getReplicaRouter(ServletContext context) {
+		List<String> replicaURLs = listParameter(context, "jdbcReadURLs");
+		if(replicaURLs.isEmpty()) {
+			return null;
+		}
+		boolean sharded = getShards(context) != null;
+		synchronized(context) {
+			if(sharded) {
+				if(context.getAttribute(REPLICAS_IGNORED_ATTRIBUTE) == null) {
+					System.out.println("jdbcReadURLs is ignored: read replicas are not supported with jdbcShardURLs.");
+					context.setAttribute(REPLICAS_IGNORED_ATTRIBUTE, Boolean.TRUE);
+				}
+				return null;
+			}
+			ReplicaRouter router = (ReplicaRouter) context.getAttribute(ReplicaRouter.class.getName());
+			if(router == null) {
+				router = new ReplicaRouter(replicaURLs,
+						intParameter(context, "readYourWritesMs", DEFAULT_READ_YOUR_WRITES_MS));
+				context.setAttribute(ReplicaRouter.class.getName(), router);
+			}
+			return router;
+		}
+	}
+	
+	/**
+	 * Helper function returns the write-behind insert queue shared by this web application, creating it on first use.
+	 * 
+	 * Only used if the writeBehind context parameter is true.  Sized by writeBehindQueueSize, writeBehindBatchSize
+	 * and writeBehindMaxDelayMs.  ContactContextListener writes out whatever is queued on shutdown.
+	 * 
+	 * @param context - servlet context holding the queue settings and the shared queue
+	 * @return the ContactInsertQueue, or null if write-behind is off
+	 */
+	private static ContactInsertQueue getInsertQueue(ServletContext context) {
+		if(!Boolean.parseBoolean(context.getInitParameter("writeBehind"))) {
+			return null;
+		}
+		synchronized(context) {
+			ContactInsertQueue queue = (ContactInsertQueue) context.getAttribute(ContactInsertQueue.class.getName());
+			if(queue == null) {
+				queue = new ContactInsertQueue(newContactDAO(context),
+						intParameter(context, "writeBehindQueueSize", DEFAULT_WRITE_BEHIND_QUEUE),
+						intParameter(context, "writeBehindBatchSize", DEFAULT_WRITE_BEHIND_BATCH),
+						intParameter(context, "writeBehindMaxDelayMs", DEFAULT_WRITE_BEHIND_DELAY_MS));
+				context.setAttribute(ContactInsertQueue.class.getName(), queue);
+			}
+			return queue;
+		}
+	}
+	
+	/**
+	 * Helper function reads an integer context parameter.
+	 * @param context - servlet context
+	 * @param name - parameter name
+	 * @param defaultValue - value if the parameter is not set
+	 * @return the parameter's value
+	 */
+	static int intParameter(ServletContext context, String name, int defaultValue) {
+		String value = context.getInitParameter(name);
+		return (value != null) ? Integer.parseInt(value) : defaultValue;
+	}
+	
+	/**
+	 * Helper function reads a comma separated context parameter.
+	 * @param context - servlet context
+	 * @param name - parameter name
+	 * @return the parameter's values, trimmed, empty if the parameter is not set
+	 */
+	private static List<String> listParameter(ServletContext context, String name) {
+		List<String> values = new ArrayList<String>();
+		String value = context.getInitParameter(name);
+		if(value != null) {
+			for(String item : value.split(",")) {
+				if(!item.trim().isEmpty()) {
+					values.add(item.trim());
+				}
+			}
+		}
+		return values;
+	}
+	
+	/**
+	 * Helper function returns the event bus shared by this web application, creating it on first use.
+	 * Contact changes are published to it and the change feed subscribes to it.
+	 * 
+	 * Each subscriber may fall up to changeFeedBufferSize events behind (default DEFAULT_CHANGE_FEED_BUFFER).
+	 * 
+	 * @param context - servlet context holding the shared event bus
+	 * @return the ContactEventBus
+	 */
+	private static ContactEventBus getEventBus(ServletContext context) {
+		synchronized(context) {
+			ContactEventBus bus = (ContactEventBus) context.getAttribute(ContactEventBus.class.getName());
+			if(bus == null) {
+				bus = new ContactEventBus(intParameter(context, "changeFeedBufferSize", DEFAULT_CHANGE_FEED_BUFFER));
+				context.setAttribute(ContactEventBus.class.getName(), bus);
+			}
+			return bus;
+		}
+	}
+	
+	/**
+	 * Helper function returns the resized profile image cache shared by this web application, creating it on first use.
+	 * 
+	 * The cache is stored in the thumbnailCacheDir context parameter directory (default: a directory under java.io.tmpdir)
+	 * and limited to thumbnailCacheMaxBytes.
+	 * 
+	 * @param context - servlet context holding the cache settings and the shared cache
+	 * @return the ThumbnailCache
+	 * @throws IOException if the cache directory cannot be created
+	 */
+	private static ThumbnailCache getThumbnailCache(ServletContext context) throws IOException {
+		synchronized(context) {
+			ThumbnailCache cache = (ThumbnailCache) context.getAttribute(ThumbnailCache.class.getName());
+			if(cache == null) {
+				String dir = context.getInitParameter("thumbnailCacheDir");
+				File directory = (dir != null) ? new File(dir)
+						: new File(System.getProperty("java.io.tmpdir"), "contactlist-thumbnails");
+				String maxBytes = context.getInitParameter("thumbnailCacheMaxBytes");
+				cache = new ThumbnailCache(directory,
+						(maxBytes != null) ? Long.parseLong(maxBytes) : DEFAULT_THUMBNAIL_CACHE_BYTES);
+				context.setAttribute(ThumbnailCache.class.getName(), cache);
+			}
+			return cache;
+		}
+	}
+	
 	/**
 	 * Helper function reads a file from a FormDataBodyPart into a byte array.
 	 * Reads only up to 65 kB.
@@ -0,0 +1,128 @@
+package resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dedup.DuplicateJob;
+import models.DuplicateCluster;
+import models.DuplicateJobStatus;
+
+/**
+ * RESTful web resource for finding duplicate contacts.
+ * 
+ * A run examines every contact in the background (see DuplicateJob).  Starting one requires the admin token,
+ * as for AdminResource.  Its status and the clusters it found can be read by anyone.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+@Path("/duplicates")
+public class DuplicateResource {
+	
+	/**
+	 * Defaults for duplicate detection, used if duplicateParallelism or duplicateMaxBlockSize are not set
+	 */
+	private static int DEFAULT_DUPLICATE_MAX_BLOCK_SIZE = 1000;
+	
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	
+	/**
+	 * Start finding duplicate contacts, unless a run is already in progress.
+	 * 
+	 * @param token - the admin token
+	 * @param context - servlet context holding the admin token and the shared job
+	 * @return 202 status with the job's status
+	 */
+	@POST
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response startDetection(@HeaderParam(AdminResource.ADMIN_TOKEN_HEADER) String token,
+			@Context ServletContext context) {
+		AdminResource.checkToken(token, context);
+		DuplicateJob job = getDuplicateJob(context);
+		job.start();
+		return Response.accepted(job.getStatus()).build();
+	}
+	
+	/**
+	 * Retrieve the progress of the current run, or the outcome of the latest.
+	 * 
+	 * @param context - servlet context holding the shared job
+	 * @return a DuplicateJobStatus
+	 */
+	@GET
+	@Path("status")
+	@Produces(MediaType.APPLICATION_JSON)
+	public DuplicateJobStatus getStatus(@Context ServletContext context) {
+		return getDuplicateJob(context).getStatus();
+	}
+	
+	/**
+	 * Retrieve the duplicate clusters found by the latest successful run, ordered by their lowest contact id.
+	 * The clusters are written one at a time, so a large result is not built in memory as a whole.
+	 * 
+	 * @param context - servlet context holding the shared job
+	 * @return a JSON array of DuplicateCluster, 404 error if no run has finished yet
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getClusters(@Context ServletContext context) {
+		final List<DuplicateCluster> clusters = getDuplicateJob(context).getClusters();
+		if(clusters == null) {
+			throw new NotFoundException();
+		}
+		
+		StreamingOutput output = new StreamingOutput() {
+		
+			// @Override
+			public void write(OutputStream os) throws IOException, WebApplicationException {
+				JsonGenerator generator = MAPPER.getFactory().createGenerator(os);
+				generator.writeStartArray();
+				for(DuplicateCluster cluster : clusters) {
+					generator.writeObject(cluster);
+				}
+				generator.writeEndArray();
+				generator.flush();
+			}
+		};
+		return Response.ok(output, MediaType.APPLICATION_JSON).build();
+	}
+	
+	/**
+	 * Helper function returns the duplicate detection job shared by this web application, creating it on first use.
+	 * 
+	 * It compares contacts on duplicateParallelism threads (default: one per processor), and skips blocking keys
+	 * shared by more than duplicateMaxBlockSize contacts.  ContactContextListener stops it on shutdown.
+	 * 
+	 * @param context - servlet context holding the job settings and the shared job
+	 * @return the DuplicateJob
+	 */
+	static DuplicateJob getDuplicateJob(ServletContext context) {
+		synchronized(context) {
+			DuplicateJob job = (DuplicateJob) context.getAttribute(DuplicateJob.class.getName());
+			if(job == null) {
+				job = new DuplicateJob(ContactResource.newContactDAO(context),
+						ContactResource.intParameter(context, "duplicateParallelism", Runtime.getRuntime().availableProcessors()),
+						ContactResource.intParameter(context, "duplicateMaxBlockSize", DEFAULT_DUPLICATE_MAX_BLOCK_SIZE));
+				context.setAttribute(DuplicateJob.class.getName(), job);
+			}
+			return job;
+		}
+	}
+}
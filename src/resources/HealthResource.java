@@ -0,0 +1,58 @@
+package resources;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import models.Readiness;
+
+/**
+ * RESTful web resource for load balancer health checks.
+ * 
+ * Liveness answers as soon as the service is up.  Readiness answers 503 until warmup has finished,
+ * so no traffic is sent to an instance that would serve it slowly.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+@Path(HealthResource.PATH)
+public class HealthResource {
+	
+	/**
+	 * Path of this resource, not timed by StartupMonitor
+	 */
+	static final String PATH = "health";
+	
+	/**
+	 * Application configuration, holding the StartupMonitor as a property
+	 */
+	@Context
+	private Configuration configuration;
+	
+	/**
+	 * Check the service is running.
+	 * @return 204 status
+	 */
+	@GET
+	@Path("live")
+	public void getLive() {
+	}
+	
+	/**
+	 * Check the service is ready to take traffic.
+	 * @return 200 status once warmup has finished, 503 before, with the startup timings
+	 */
+	@GET
+	@Path("ready")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getReady() {
+		StartupMonitor startupMonitor = (StartupMonitor) configuration.getProperty(StartupMonitor.class.getName());
+		Readiness readiness = startupMonitor.getReadiness();
+		return Response.status(readiness.isReady() ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE)
+				.entity(readiness).build();
+	}
+}
@@ -0,0 +1,142 @@
+package resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletContext;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import dbaccess.RequestTiming;
+import dbaccess.RequestTiming.Phase;
+
+/**
+ * Reports where the time of each request went, as a Server-Timing header and as an access log line.
+ * 
+ * If the serverTiming or accessLog context parameter is true, the request filter gives each request a
+ * RequestTiming.  ContactResource passes it to the request's ContactDAO, which adds the database phases, and the
+ * writer interceptor adds the time spent serializing the response.  The phases are sent in the Server-Timing header
+ * if serverTiming is true, and printed as one line of key=value pairs if accessLog is true.  The query string is
+ * not logged, as searches hold email addresses and phone numbers.
+ * 
+ * The header must be sent before the body, so with serverTiming the body is serialized into memory first.
+ * Server-sent event streams are not buffered: their header and log line leave out serialization.
+ * With both parameters false, nothing is timed.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class ServerTiming implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+	
+	/**
+	 * Request property holding the RequestTiming, also readable as a servlet request attribute
+	 */
+	public static final String TIMING_PROPERTY = RequestTiming.class.getName();
+	
+	/**
+	 * Request property holding the start of the access log line, until the body has been written
+	 */
+	private static final String ACCESS_LOG_PROPERTY = ServerTiming.class.getName() + ".accessLog";
+	
+	public static final String SERVER_TIMING_HEADER = "Server-Timing";
+	
+	@Context
+	private ServletContext context;
+	
+	// @Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		if(serverTimingEnabled() || accessLogEnabled()) {
+			requestContext.setProperty(TIMING_PROPERTY, new RequestTiming());
+		}
+	}
+	
+	// @Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+			throws IOException {
+		RequestTiming timing = (RequestTiming) requestContext.getProperty(TIMING_PROPERTY);
+		if(timing == null) {
+			return;
+		}
+		String accessLog = accessLogEnabled() ? "method=" + requestContext.getMethod()
+				+ " path=/" + requestContext.getUriInfo().getPath() + " status=" + responseContext.getStatus() : null;
+		if(responseContext.hasEntity() && !isEventStream(responseContext.getMediaType())) {
+			// finished once the body has been written
+			if(accessLog != null) {
+				requestContext.setProperty(ACCESS_LOG_PROPERTY, accessLog);
+			}
+			return;
+		}
+		finish(timing, responseContext.getHeaders(), accessLog);
+	}
+	
+	// @Override
+	public void aroundWriteTo(WriterInterceptorContext writerContext) throws IOException, WebApplicationException {
+		RequestTiming timing = (RequestTiming) writerContext.getProperty(TIMING_PROPERTY);
+		if(timing == null || isEventStream(writerContext.getMediaType())) {
+			writerContext.proceed();
+			return;
+		}
+		OutputStream out = writerContext.getOutputStream();
+		ByteArrayOutputStream body = null;
+		if(serverTimingEnabled()) {
+			body = new ByteArrayOutputStream();
+			writerContext.setOutputStream(body);
+		}
+		long start = System.nanoTime();
+		try {
+			writerContext.proceed();
+		} finally {
+			timing.add(Phase.SERIALIZE, System.nanoTime() - start);
+			writerContext.setOutputStream(out);
+		}
+		finish(timing, writerContext.getHeaders(), (String) writerContext.getProperty(ACCESS_LOG_PROPERTY));
+		if(body != null) {
+			body.writeTo(out);
+		}
+	}
+	
+	/**
+	 * Helper function sends the Server-Timing header and prints the access log line, as enabled.
+	 * @param timing - phases of the request
+	 * @param headers - response headers, not sent yet
+	 * @param accessLog - start of the access log line, null to not print one
+	 */
+	private void finish(RequestTiming timing, MultivaluedMap<String, Object> headers, String accessLog) {
+		if(serverTimingEnabled()) {
+			headers.add(SERVER_TIMING_HEADER, timing.toServerTiming());
+		}
+		if(accessLog != null) {
+			System.out.println("Access: " + accessLog + " " + timing.toLogFields());
+		}
+	}
+	
+	/**
+	 * Helper function reads the serverTiming context parameter.
+	 */
+	private boolean serverTimingEnabled() {
+		return context != null && Boolean.parseBoolean(context.getInitParameter("serverTiming"));
+	}
+	
+	/**
+	 * Helper function reads the accessLog context parameter.
+	 */
+	private boolean accessLogEnabled() {
+		return context != null && Boolean.parseBoolean(context.getInitParameter("accessLog"));
+	}
+	
+	/**
+	 * Helper function tells whether a response is a stream of server-sent events, which must not be buffered.
+	 */
+	private static boolean isEventStream(MediaType mediaType) {
+		return mediaType != null && MediaType.SERVER_SENT_EVENTS_TYPE.isCompatible(mediaType);
+	}
+}
@@ -0,0 +1,113 @@
+package resources;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+
+import models.Readiness;
+
+/**
+ * Tracks how the service starts up: when the REST application was initialized, when warmup finished,
+ * and when the first request was answered fast.
+ * 
+ * As a request and response filter it times every request, except the health checks.  The first one answered
+ * within fastRequestMillis without a server error is printed with its time since JVM start, which is how long
+ * a new instance takes to really be useful.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class StartupMonitor implements ContainerRequestFilter, ContainerResponseFilter {
+	
+	/**
+	 * Request property holding System.nanoTime() when the request started
+	 */
+	private static final String START_PROPERTY = StartupMonitor.class.getName() + ".start";
+	
+	/**
+	 * Default for the fast request threshold, used if fastRequestMs is not set
+	 */
+	static final int DEFAULT_FAST_REQUEST_MS = 50;
+	
+	private final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+	private volatile long fastRequestNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FAST_REQUEST_MS);
+	private volatile long initialized = 0;
+	private volatile long warmupMillis = -1;
+	private volatile String warmupError = null;
+	private final AtomicLong firstFastRequest = new AtomicLong(0);
+	
+	/**
+	 * @param fastRequestMillis - requests answered within this time are fast
+	 */
+	public void setFastRequestMillis(long fastRequestMillis) {
+		this.fastRequestNanos = TimeUnit.MILLISECONDS.toNanos(fastRequestMillis);
+	}
+	
+	/**
+	 * Note that the REST application has been initialized.
+	 */
+	public void initialized() {
+		initialized = System.currentTimeMillis();
+		System.out.println("Contact REST service initialized " + (initialized - jvmStart) + " ms after JVM start.");
+	}
+	
+	/**
+	 * Note that warmup has finished, so the service is ready.
+	 * @param millis - time warmup took
+	 * @param error - what could not be warmed up, or null
+	 */
+	public void warmedUp(long millis, String error) {
+		warmupError = error;
+		warmupMillis = millis;
+		System.out.println("Contact REST service warmed up in " + millis + " ms"
+				+ ((error != null) ? " (" + error + ")" : "") + ".");
+	}
+	
+	/**
+	 * @return true once warmup has finished
+	 */
+	public boolean isReady() {
+		return warmupMillis >= 0;
+	}
+	
+	/**
+	 * @return startup timings
+	 */
+	public Readiness getReadiness() {
+		long warmup = warmupMillis;
+		long firstFast = firstFastRequest.get();
+		return new Readiness(warmup >= 0, (initialized != 0) ? initialized - jvmStart : 0,
+				(warmup >= 0) ? Long.valueOf(warmup) : null,
+				(firstFast != 0) ? Long.valueOf(firstFast - jvmStart) : null, warmupError);
+	}
+	
+	// @Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		if(firstFastRequest.get() == 0) {
+			requestContext.setProperty(START_PROPERTY, System.nanoTime());
+		}
+	}
+	
+	// @Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+			throws IOException {
+		Object start = requestContext.getProperty(START_PROPERTY);
+		if(start == null || responseContext.getStatus() >= 500
+				|| requestContext.getUriInfo().getPath().startsWith(HealthResource.PATH)) {
+			return;
+		}
+		long elapsed = System.nanoTime() - (Long) start;
+		long now = System.currentTimeMillis();
+		if(elapsed <= fastRequestNanos && firstFastRequest.compareAndSet(0, now)) {
+			System.out.println("First fast request (" + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms, "
+					+ requestContext.getMethod() + " " + requestContext.getUriInfo().getPath() + ") "
+					+ (now - jvmStart) + " ms after JVM start.");
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.glassfish.jersey.internal.inject.InjectionManager;
+import org.glassfish.jersey.message.MessageBodyWorkers;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
+
+import dbaccess.ConnectionPool;
+import dbaccess.ContactDAO;
+import directory.ContactDirectory;
+import models.Address;
+import models.Contact;
+
+/**
+ * Warms up the service when the REST application starts, so the first real requests are not slow.
+ * 
+ * In the background, it:
+ *  - opens warmupConnections connections to each database into the ConnectionPool,
+ *  - runs each kind of point query a few times, loading the JDBC driver and preparing the statements,
+ *  - serializes and deserializes synthetic contacts through the same JSON provider the resources use,
+ *    until its serializers are built and compiled.
+ * Then it tells the StartupMonitor the service is ready.  A database that cannot be reached is noted,
+ * but does not keep the service from becoming ready.
+ * 
+ * @author Rebecca Chandler
+ *
+ */
+public class Warmup implements ContainerLifecycleListener {
+	
+	/**
+	 * Default number of connections opened to each database, used if warmupConnections is not set
+	 */
+	private static final int DEFAULT_WARMUP_CONNECTIONS = 4;
+	
+	/**
+	 * Times each query is run
+	 */
+	private static final int QUERY_ROUNDS = 3;
+	
+	/**
+	 * Longest to wait for the ContactDirectory to load, and how often to check
+	 */
+	private static final long DIRECTORY_LOAD_WAIT_MILLIS = 120000;
+	private static final long DIRECTORY_LOAD_POLL_MILLIS = 50;
+	
+	/**
+	 * Times the synthetic contacts are serialized, enough for the JIT compiler to compile the serializers
+	 */
+	private static final int SERIALIZATION_ROUNDS = 500;
+	
+	/**
+	 * Number of synthetic contacts
+	 */
+	private static final int SYNTHETIC_CONTACTS = 50;
+	
+	private static final Type CONTACT_LIST_TYPE = new GenericType<List<Contact>>() { }.getType();
+	private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+	
+	private final StartupMonitor startupMonitor;
+	
+	/**
+	 * @param startupMonitor - told when warmup has finished
+	 */
+	public Warmup(StartupMonitor startupMonitor) {
+		this.startupMonitor = startupMonitor;
+	}
+	
+	// @Override
+	public void onStartup(Container container) {
+		startupMonitor.initialized();
+		
+		InjectionManager injectionManager = container.getApplicationHandler().getInjectionManager();
+		final ServletContext context = injectionManager.getInstance(ServletContext.class);
+		final MessageBodyWorkers workers = injectionManager.getInstance(MessageBodyWorkers.class);
+		if(context != null) {
+			startupMonitor.setFastRequestMillis(
+					ContactResource.intParameter(context, "fastRequestMs", StartupMonitor.DEFAULT_FAST_REQUEST_MS));
+		}
+		
+		Thread thread = new Thread(new Runnable() {
+		
+			// @Override
+			public void run() {
+				warmUp(context, workers);
+			}
+		}, "contact-warmup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	// @Override
+	public void onReload(Container container) {
+	}
+	
+	// @Override
+	public void onShutdown(Container container) {
+	}
+	
+	private void warmUp(ServletContext context, MessageBodyWorkers workers) {
+		long start = System.currentTimeMillis();
+		List<String> errors = new ArrayList<String>();
+		try {
+			try {
+				warmUpSerialization(workers);
+			} catch (IOException | RuntimeException | LinkageError e) {
+				// e.g. a provider whose dependencies are missing; requests using it will fail the same way
+				e.printStackTrace();
+				errors.add("serialization: " + e);
+			}
+			if(context != null) {
+				try {
+					warmUpDatabase(context);
+				} catch (SQLException | RuntimeException e) {
+					e.printStackTrace();
+					errors.add("database: " + e);
+				}
+			}
+		} finally {
+			startupMonitor.warmedUp(System.currentTimeMillis() - start, errors.isEmpty() ? null : String.join("; ", errors));
+		}
+	}
+	
+	/**
+	 * Helper function fills the connection pool and runs the point queries.
+	 * Queries look up id 0, which no contact has, so they are cheap on any size of database.
+	 * Then waits for the ContactDirectory, if there is one, to load from its snapshot and catch up.
+	 * @throws SQLException
+	 */
+	private static void warmUpDatabase(ServletContext context) throws SQLException {
+		int connections = ContactResource.intParameter(context, "warmupConnections", DEFAULT_WARMUP_CONNECTIONS);
+		ConnectionPool pool = ContactResource.getConnectionPool(context);
+		for(String url : ContactResource.getDatabaseURLs(context)) {
+			pool.warmUp(url, connections);
+		}
+		
+		ContactDAO contactDAO = ContactResource.newContactDAO(context);
+		for(int i = 0; i < QUERY_ROUNDS; i++) {
+			contactDAO.getContact(0);
+			contactDAO.contactExists(0);
+			contactDAO.getContacts(Arrays.asList(0));
+			contactDAO.getProfileImageHash(0);
+		}
+		ContactDirectory directory = ContactResource.getContactDirectory(context);
+		if(directory != null) {
+			long deadline = System.currentTimeMillis() + DIRECTORY_LOAD_WAIT_MILLIS;
+			while(!directory.isLoaded() && System.currentTimeMillis() < deadline) {
+				try {
+					Thread.sleep(DIRECTORY_LOAD_POLL_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if(!directory.isLoaded()) {
+				throw new IllegalStateException("Contact directory not loaded after " + DIRECTORY_LOAD_WAIT_MILLIS + " ms");
+			}
+		}
+	}
+	
+	/**
+	 * Helper function writes and reads synthetic contacts as JSON with the application's JSON provider.
+	 * @throws IOException
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void warmUpSerialization(MessageBodyWorkers workers) throws IOException {
+		if(workers == null) {
+			return;
+		}
+		List<Contact> contacts = syntheticContacts();
+		MessageBodyWriter listWriter = workers.getMessageBodyWriter(List.class, CONTACT_LIST_TYPE, NO_ANNOTATIONS,
+				MediaType.APPLICATION_JSON_TYPE);
+		MessageBodyWriter writer = workers.getMessageBodyWriter(Contact.class, Contact.class, NO_ANNOTATIONS,
+				MediaType.APPLICATION_JSON_TYPE);
+		MessageBodyReader reader = workers.getMessageBodyReader(Contact.class, Contact.class, NO_ANNOTATIONS,
+				MediaType.APPLICATION_JSON_TYPE);
+		if(listWriter == null || writer == null || reader == null) {
+			throw new IOException("No JSON provider for contacts");
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(int i = 0; i < SERIALIZATION_ROUNDS; i++) {
+			out.reset();
+			listWriter.writeTo(contacts, List.class, CONTACT_LIST_TYPE, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+					new MultivaluedHashMap<String, Object>(), out);
+			
+			out.reset();
+			writer.writeTo(contacts.get(i % contacts.size()), Contact.class, Contact.class, NO_ANNOTATIONS,
+					MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<String, Object>(), out);
+			reader.readFrom(Contact.class, Contact.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+					new MultivaluedHashMap<String, String>(), new ByteArrayInputStream(out.toByteArray()));
+		}
+	}
+	
+	private static List<Contact> syntheticContacts() {
+		List<Contact> contacts = new ArrayList<Contact>(SYNTHETIC_CONTACTS);
+		for(int i = 1; i <= SYNTHETIC_CONTACTS; i++) {
+			Address address = new Address(i, i + " Warmup Street", "Suite " + i, null, "Springfield", "IL", "62701", "USA");
+			contacts.add(new Contact(i, "Warmup Contact " + i, "Warmup Inc", null, "warmup" + i + "@example.com",
+					LocalDate.of(1970, 1, 1).plusDays(i * 97), "555-010-" + (1000 + i), "555-020-" + (1000 + i), address));
+		}
+		return contacts;
+	}
+}
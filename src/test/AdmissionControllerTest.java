@@ -0,0 +1,59 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import dbaccess.AdmissionController;
+import dbaccess.AdmissionController.QueryClass;
+import dbaccess.OverloadException;
+
+/**
+ * Unit test for the limits and load shedding of AdmissionController.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class AdmissionControllerTest {
+
+	@Test
+	public void refusesWhenQueueIsFull() throws OverloadException {
+		AdmissionController controller = new AdmissionController(2, 2, 0);
+		controller.acquire(QueryClass.POINT, 0);
+		controller.acquire(QueryClass.POINT, 0);
+		try {
+			controller.acquire(QueryClass.POINT, 0);
+			fail("Expected OverloadException");
+		} catch (OverloadException e) {
+			assertEquals(1, e.getRetryAfterSeconds());
+		}
+		controller.release(QueryClass.POINT, 1000000);
+		controller.acquire(QueryClass.POINT, 0);
+		assertEquals(2, controller.getInFlight());
+	}
+
+	@Test
+	public void shedsScansFirst() throws OverloadException {
+		// scans may only use 3 of 4
+		AdmissionController controller = new AdmissionController(4, 4, 0);
+		controller.acquire(QueryClass.SCAN, 0);
+		controller.acquire(QueryClass.SCAN, 0);
+		controller.acquire(QueryClass.SCAN, 0);
+		try {
+			controller.acquire(QueryClass.SCAN, 0);
+			fail("Expected OverloadException");
+		} catch (OverloadException e) {
+			// expected
+		}
+		controller.acquire(QueryClass.POINT, 0);
+		assertEquals(4, controller.getInFlight());
+	}
+
+	@Test(expected = OverloadException.class)
+	public void givesUpAtDeadline() throws OverloadException {
+		AdmissionController controller = new AdmissionController(1, 1, 10);
+		controller.acquire(QueryClass.POINT, 0);
+		controller.acquire(QueryClass.POINT, System.nanoTime() + 20000000);
+	}
+}
@@ -0,0 +1,69 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import dbaccess.BirthdayWindow;
+import models.Contact;
+
+/**
+ * Unit test for the windows of days searched for upcoming birthdays.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class BirthdayWindowTest {
+
+	@Test
+	public void wrapsAroundTheEndOfTheYear() {
+		BirthdayWindow window = new BirthdayWindow(LocalDate.of(2023, 12, 28), 7);
+
+		assertTrue(window.contains(LocalDate.of(1980, 12, 28)));
+		assertTrue(window.contains(LocalDate.of(1990, 12, 31)));
+		assertTrue(window.contains(LocalDate.of(2001, 1, 3)));
+		assertFalse(window.contains(LocalDate.of(2001, 1, 4)));
+		assertFalse(window.contains(LocalDate.of(1975, 12, 27)));
+		assertFalse(window.contains(null));
+	}
+
+	@Test
+	public void movesFebruary29ToFebruary28() {
+		LocalDate leapling = LocalDate.of(2000, 2, 29);
+
+		assertTrue(new BirthdayWindow(LocalDate.of(2023, 2, 28), 1).contains(leapling));
+		assertTrue(new BirthdayWindow(LocalDate.of(2023, 2, 20), 9).contains(leapling));
+		assertFalse(new BirthdayWindow(LocalDate.of(2023, 3, 1), 7).contains(leapling));
+		// in a leap year the birthday is on February 29 itself
+		assertFalse(new BirthdayWindow(LocalDate.of(2024, 2, 28), 1).contains(leapling));
+		assertTrue(new BirthdayWindow(LocalDate.of(2024, 2, 29), 1).contains(leapling));
+		assertTrue(new BirthdayWindow(LocalDate.of(2023, 6, 1), BirthdayWindow.MAX_DAYS).contains(leapling));
+	}
+
+	@Test
+	public void ordersByNextBirthday() {
+		Contact newYear = contact(1, LocalDate.of(1990, 1, 1));
+		Contact christmas = contact(2, LocalDate.of(1985, 12, 25));
+		Contact newYearToo = contact(3, LocalDate.of(2002, 1, 1));
+		Contact newYearsEve = contact(4, LocalDate.of(1970, 12, 31));
+
+		List<Contact> contacts = new ArrayList<Contact>(Arrays.asList(newYearToo, newYear, newYearsEve, christmas));
+		Collections.sort(contacts, new BirthdayWindow(LocalDate.of(2023, 12, 20), 14).comparator());
+
+		assertEquals(Arrays.asList(christmas, newYearsEve, newYear, newYearToo), contacts);
+	}
+
+	private static Contact contact(int id, LocalDate birthdate) {
+		Contact contact = new Contact(id);
+		contact.setBirthdate(birthdate);
+		return contact;
+	}
+}
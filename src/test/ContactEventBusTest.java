@@ -0,0 +1,160 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import events.ContactEvent;
+import events.ContactEventBus;
+
+/**
+ * Unit test for delivering contact events to subscribers with bounded buffers.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactEventBusTest {
+
+	private final ContactEventBus bus = new ContactEventBus(2);
+
+	/**
+	 * Records the ids of the events it receives, optionally waiting in onEvent until let through
+	 */
+	private static class RecordingListener implements ContactEventBus.Listener {
+		final List<Integer> ids = new ArrayList<Integer>();
+		final AtomicInteger dropped = new AtomicInteger();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch proceed;
+		final CountDownLatch received;
+
+		RecordingListener(boolean block, int expected) {
+			this.proceed = new CountDownLatch(block ? 1 : 0);
+			this.received = new CountDownLatch(expected);
+		}
+
+		// @Override
+		public void onEvent(ContactEvent event) throws Exception {
+			entered.countDown();
+			proceed.await();
+			synchronized(this) {
+				ids.add(event.getId());
+			}
+			received.countDown();
+		}
+
+		// @Override
+		public void onDropped() {
+			dropped.incrementAndGet();
+		}
+	}
+
+	@After
+	public void close() {
+		bus.close();
+	}
+
+	@Test
+	public void dropsASlowSubscriberOnly() throws InterruptedException {
+		RecordingListener slow = new RecordingListener(true, 0);
+		RecordingListener fast = new RecordingListener(false, 10);
+		bus.subscribe(slow);
+		bus.subscribe(fast);
+
+		publish(1);
+		assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+		awaitIds(fast, 1);
+		// the slow listener holds event 1; events 2 and 3 fill its buffer and event 4 overflows it
+		publish(2);
+		publish(3);
+		awaitIds(fast, 3);
+		assertEquals(0, slow.dropped.get());
+		publish(4);
+		assertEquals(1, slow.dropped.get());
+		assertEquals(1, bus.getSubscriberCount());
+		for(int id = 5; id <= 10; id++) {
+			awaitIds(fast, id - 1);
+			publish(id);
+		}
+		slow.proceed.countDown();
+
+		assertTrue(fast.received.await(5, TimeUnit.SECONDS));
+		synchronized(fast) {
+			assertEquals(list(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), fast.ids);
+		}
+		assertEquals(0, fast.dropped.get());
+		assertEquals(1, slow.dropped.get());
+	}
+
+	@Test
+	public void doesNotDropCancelledSubscribers() throws InterruptedException {
+		RecordingListener listener = new RecordingListener(false, 1);
+		bus.subscribe(listener).cancel();
+		publish(1);
+
+		assertEquals(0, bus.getSubscriberCount());
+		assertFalse(listener.received.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(0, listener.dropped.get());
+	}
+
+	@Test
+	public void unsubscribesFailingListeners() throws InterruptedException {
+		final CountDownLatch dropped = new CountDownLatch(1);
+		final AtomicInteger events = new AtomicInteger();
+		bus.subscribe(new ContactEventBus.Listener() {
+
+			// @Override
+			public void onEvent(ContactEvent event) throws Exception {
+				events.incrementAndGet();
+				throw new Exception("Client went away");
+			}
+
+			// @Override
+			public void onDropped() {
+				dropped.countDown();
+			}
+		});
+		publish(1);
+
+		assertTrue(dropped.await(5, TimeUnit.SECONDS));
+		assertEquals(0, bus.getSubscriberCount());
+		publish(2);
+		Thread.sleep(100);
+		assertEquals(1, events.get());
+	}
+
+	/**
+	 * Waits for a listener to have received count events, so its buffer never overflows
+	 */
+	private static void awaitIds(RecordingListener listener, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(System.currentTimeMillis() < deadline) {
+			synchronized(listener) {
+				if(listener.ids.size() >= count) {
+					return;
+				}
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private void publish(int id) {
+		bus.publish(new ContactEvent(ContactEvent.Type.UPDATE, id, null));
+	}
+
+	private static List<Integer> list(int... ids) {
+		List<Integer> list = new ArrayList<Integer>();
+		for(int id : ids) {
+			list.add(id);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,130 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import dbaccess.ContactDAO;
+import dbaccess.ContactInsertQueue;
+import models.Contact;
+
+/**
+ * Unit test for coalescing contact inserts in the write-behind queue.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactInsertQueueTest {
+
+	/**
+	 * Records the groups written instead of writing them, optionally waiting to be let through or failing
+	 */
+	private static class RecordingDAO extends ContactDAO {
+		final List<Integer> batches = new ArrayList<Integer>();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch proceed;
+		final boolean fail;
+		int nextId = 1;
+
+		RecordingDAO(boolean block, boolean fail) {
+			super("jdbc:test", null, null);
+			this.proceed = new CountDownLatch(block ? 1 : 0);
+			this.fail = fail;
+		}
+
+		@Override
+		public boolean insertContacts(List<Contact> contacts) throws SQLException {
+			entered.countDown();
+			try {
+				proceed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if(fail) {
+				throw new SQLException("Insert failed");
+			}
+			synchronized(this) {
+				batches.add(contacts.size());
+				for(Contact contact : contacts) {
+					contact.setId(nextId++);
+				}
+			}
+			return true;
+		}
+	}
+
+	@Test
+	public void rejectsContactsWhenFull() throws Exception {
+		RecordingDAO dao = new RecordingDAO(true, false);
+		ContactInsertQueue queue = new ContactInsertQueue(dao, 2, 1, 0);
+		CompletableFuture<Contact> first = queue.submit(new Contact());
+		assertTrue(dao.entered.await(5, TimeUnit.SECONDS));
+
+		// the flusher is busy with the first contact, so two more fill the queue
+		queue.submit(new Contact());
+		queue.submit(new Contact());
+		try {
+			queue.submit(new Contact());
+			fail("Expected the full queue to reject the contact");
+		} catch (RejectedExecutionException e) {
+			// answered with 503 by ContactResource
+		}
+
+		dao.proceed.countDown();
+		assertEquals(1, first.get(5, TimeUnit.SECONDS).getId());
+		assertTrue(queue.close(5000));
+	}
+
+	@Test
+	public void writesFullGroupsAndFlushesTheRestOnClose() throws Exception {
+		RecordingDAO dao = new RecordingDAO(false, false);
+		// no group is written for its delay, only when full or on close
+		ContactInsertQueue queue = new ContactInsertQueue(dao, 100, 3, 60000);
+		List<CompletableFuture<Contact>> futures = new ArrayList<CompletableFuture<Contact>>();
+		for(int i = 0; i < 7; i++) {
+			futures.add(queue.submit(new Contact()));
+		}
+		futures.get(5).get(5, TimeUnit.SECONDS);
+		assertFalse(futures.get(6).isDone());
+
+		assertTrue(queue.close(5000));
+		assertEquals(7, futures.get(6).get(5, TimeUnit.SECONDS).getId());
+		assertEquals(Arrays.asList(3, 3, 1), dao.batches);
+		try {
+			queue.submit(new Contact());
+			fail("Expected the closed queue to reject the contact");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void failsEveryContactOfAFailedGroup() throws Exception {
+		RecordingDAO dao = new RecordingDAO(false, true);
+		ContactInsertQueue queue = new ContactInsertQueue(dao, 100, 2, 60000);
+		CompletableFuture<Contact> first = queue.submit(new Contact());
+		CompletableFuture<Contact> second = queue.submit(new Contact());
+		for(CompletableFuture<Contact> future : Arrays.asList(first, second)) {
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail("Expected the insert to fail");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof SQLException);
+			}
+		}
+		assertTrue(queue.close(5000));
+	}
+}
@@ -0,0 +1,123 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dbaccess.ContactDAO;
+import models.ContactPatch;
+
+/**
+ * Unit test for reading JSON Merge Patches (RFC 7396) of contacts and the UPDATE statements built from them.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactPatchTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final String UPDATE_ADDRESS = " WHERE id = (SELECT address_id FROM contact WHERE id = ?)";
+
+	@Test
+	public void clearsNullFieldsAndLeavesAbsentFieldsAlone() throws IOException {
+		ContactPatch patch = read("{'id': 9, 'company': null, 'birthdate': '1990-04-01', 'workPhone': '555-0100'}");
+
+		assertEquals(Arrays.asList("company", "birthdate", "workPhone"),
+				Arrays.asList(patch.getContactFields().keySet().toArray()));
+		assertTrue(patch.getContactFields().containsKey("company"));
+		assertNull(patch.getContactFields().get("company"));
+		assertEquals(LocalDate.of(1990, 4, 1), patch.getContactFields().get("birthdate"));
+		assertTrue(patch.getAddressFields().isEmpty());
+		assertFalse(patch.isProfileImageSet());
+
+		assertEquals(Collections.singletonList(
+				"UPDATE contact SET company = ?, birthdate = ?, phone_work = ?, version = ? WHERE id = ? AND deleted = 0"),
+				ContactDAO.patchStatements(patch));
+	}
+
+	@Test
+	public void patchesPartOfTheAddress() throws IOException {
+		ContactPatch patch = read("{'address': {'city': 'Madison', 'zip': null}}");
+
+		assertTrue(patch.getContactFields().isEmpty());
+		assertEquals(Arrays.asList("city", "zip"), Arrays.asList(patch.getAddressFields().keySet().toArray()));
+		assertNull(patch.getAddressFields().get("zip"));
+
+		// the contact's version is bumped even though only its address changes
+		assertEquals(Arrays.asList("UPDATE contact SET version = ? WHERE id = ? AND deleted = 0",
+				"UPDATE address SET city = ?, zip = ?, version = ?" + UPDATE_ADDRESS), ContactDAO.patchStatements(patch));
+	}
+
+	@Test
+	public void clearsTheWholeAddress() throws IOException {
+		ContactPatch patch = read("{'address': null}");
+
+		assertEquals(6, patch.getAddressFields().size());
+		for(Object value : patch.getAddressFields().values()) {
+			assertNull(value);
+		}
+		assertEquals(2, ContactDAO.patchStatements(patch).size());
+	}
+
+	@Test
+	public void rewritesTheImageOnlyWhenSupplied() throws IOException {
+		ContactPatch patch = read("{'name': 'Ann Lee', 'profileImage': 'AQID'}");
+		assertTrue(patch.isProfileImageSet());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, patch.getProfileImage());
+		assertEquals(Collections.singletonList("UPDATE contact SET name = ?, profile_img = ?, profile_img_hash = ?, "
+				+ "version = ? WHERE id = ? AND deleted = 0"), ContactDAO.patchStatements(patch));
+
+		patch = read("{'profileImage': null}");
+		assertTrue(patch.isProfileImageSet());
+		assertNull(patch.getProfileImage());
+		assertEquals(Collections.singletonList(
+				"UPDATE contact SET profile_img = ?, profile_img_hash = ?, version = ? WHERE id = ? AND deleted = 0"),
+				ContactDAO.patchStatements(patch));
+
+		patch = read("{'email': 'ann@example.com'}");
+		assertFalse(patch.isProfileImageSet());
+		assertFalse(ContactDAO.patchStatements(patch).get(0).contains("profile_img"));
+	}
+
+	@Test
+	public void buildsNoStatementsForAnEmptyPatch() throws IOException {
+		ContactPatch patch = read("{'id': 9}");
+
+		assertTrue(patch.isEmpty());
+		assertTrue(ContactDAO.patchStatements(patch).isEmpty());
+	}
+
+	@Test
+	public void rejectsUnknownAndMistypedFields() throws IOException {
+		for(String json : Arrays.asList("{'nickname': 'Al'}", "{'address': {'county': 'Dane'}}", "{'address': 'Main St'}",
+				"{'name': {'first': 'Al'}}", "{'birthdate': '04/01/1990'}", "[]")) {
+			try {
+				read(json);
+				fail("Expected " + json + " to be rejected");
+			} catch (JsonMappingException e) {
+				// answered with 400 by the JSON provider
+			}
+		}
+	}
+
+	/**
+	 * Helper function reads a patch written with single quotes, to keep the JSON readable
+	 */
+	private static ContactPatch read(String json) throws IOException {
+		return MAPPER.readValue(json.replace('\'', '"'), ContactPatch.class);
+	}
+}
@@ -0,0 +1,78 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import directory.ContactSnapshot;
+import models.Address;
+import models.Contact;
+
+/**
+ * Unit test for writing and mapping contact snapshot files.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactSnapshotTest {
+
+	@Test
+	public void readsBackWhatWasWritten() throws IOException {
+		File file = new File(Files.createTempDirectory("snapshot").toFile(), "contacts.snapshot");
+		Contact full = new Contact(3, "Zo\u00eb Smith", "Acme", null, "zoe@example.com", LocalDate.of(1990, 2, 28),
+				"555-0100", "555-0101", new Address(30, "1 Main St", "Apt 2", "", "Springfield", "IL", "62701", "USA"));
+		full.setProfileImageHash("abc123");
+		Contact sparse = new Contact(7, "No Details", null, null, null, null, null, null,
+				new Address(70, null, null, null, "Springfield", "IL", null, "USA"));
+		ContactSnapshot.write(file, 42, Arrays.asList(full, sparse));
+
+		ContactSnapshot snapshot = ContactSnapshot.open(file);
+		assertEquals(42, snapshot.getVersion());
+		assertEquals(2, snapshot.size());
+		assertEquals(1, snapshot.indexOf(7));
+		assertEquals(-1, snapshot.indexOf(5));
+
+		Contact read = snapshot.getContact(snapshot.indexOf(3));
+		assertEquals("Zo\u00eb Smith", read.getName());
+		assertEquals("Acme", read.getCompany());
+		assertEquals("abc123", read.getProfileImageHash());
+		assertEquals(LocalDate.of(1990, 2, 28), read.getBirthdate());
+		assertEquals("555-0101", read.getPersonalPhone());
+		assertEquals(30, read.getAddress().getId());
+		assertEquals("Apt 2", read.getAddress().getLine2());
+		assertEquals("62701", read.getAddress().getZip());
+
+		read = snapshot.getContact(1);
+		assertEquals(7, read.getId());
+		assertNull(read.getCompany());
+		assertNull(read.getEmail());
+		assertNull(read.getBirthdate());
+		assertNull(read.getAddress().getLine1());
+		assertEquals("Springfield", read.getAddress().getCity());
+	}
+
+	@Test
+	public void rejectsTruncatedFile() throws IOException {
+		File file = new File(Files.createTempDirectory("snapshot").toFile(), "contacts.snapshot");
+		ContactSnapshot.write(file, 1, Arrays.asList(new Contact(1, "A", null, null, null, null, null, null,
+				new Address(1, null, null, null, null, null, null, null))));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(40);
+		raf.close();
+		try {
+			ContactSnapshot.open(file);
+			fail("Truncated snapshot opened");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
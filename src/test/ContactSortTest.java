@@ -0,0 +1,83 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dbaccess.ContactSort;
+import dbaccess.TopK;
+import models.Address;
+import models.Contact;
+
+/**
+ * Unit test for sorting contacts in memory and selecting the first k.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactSortTest {
+
+	@Test
+	public void ordersLikeTheDatabase() {
+		List<Contact> contacts = new ArrayList<Contact>(Arrays.asList(contact(1, "bob", null), contact(2, "Alice", null),
+				contact(3, null, null), contact(4, "alice", null)));
+
+		Collections.sort(contacts, new ContactSort(ContactSort.Field.NAME, false).comparator());
+		assertEquals(Arrays.asList(3, 2, 4, 1), ids(contacts));
+
+		Collections.sort(contacts, new ContactSort(ContactSort.Field.NAME, true).comparator());
+		assertEquals(Arrays.asList(1, 4, 2, 3), ids(contacts));
+	}
+
+	@Test
+	public void ordersByBirthdateAndCity() {
+		List<Contact> contacts = new ArrayList<Contact>(Arrays.asList(contact(1, "a", LocalDate.of(1990, 5, 1)),
+				contact(2, "b", LocalDate.of(1985, 1, 1)), contact(3, "c", null)));
+		contacts.get(0).getAddress().setCity("Madison");
+		contacts.get(1).getAddress().setCity("milwaukee");
+		contacts.get(2).getAddress().setCity("Chicago");
+
+		Collections.sort(contacts, new ContactSort(ContactSort.Field.BIRTHDATE, false).comparator());
+		assertEquals(Arrays.asList(3, 2, 1), ids(contacts));
+
+		Collections.sort(contacts, new ContactSort(ContactSort.Field.CITY, true).comparator());
+		assertEquals(Arrays.asList(2, 1, 3), ids(contacts));
+	}
+
+	@Test
+	public void selectsSameAsFullSort() {
+		Random random = new Random(7);
+		List<Contact> contacts = new ArrayList<Contact>();
+		for(int id = 1; id <= 5000; id++) {
+			contacts.add(contact(id, random.nextInt(10) == 0 ? null : "name" + random.nextInt(500), null));
+		}
+		ContactSort sort = new ContactSort(ContactSort.Field.NAME, true);
+
+		TopK<Contact> first = new TopK<Contact>(sort.comparator(), 50);
+		for(Contact contact : contacts) {
+			first.add(contact);
+		}
+		Collections.sort(contacts, sort.comparator());
+		assertEquals(ids(contacts.subList(0, 50)), ids(first.toList()));
+	}
+
+	private static Contact contact(int id, String name, LocalDate birthdate) {
+		return new Contact(id, name, null, null, null, birthdate, null, null,
+				new Address(id, null, null, null, null, null, null, null));
+	}
+
+	private static List<Integer> ids(List<Contact> contacts) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for(Contact contact : contacts) {
+			ids.add(contact.getId());
+		}
+		return ids;
+	}
+}
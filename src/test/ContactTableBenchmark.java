@@ -0,0 +1,112 @@
+package test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import directory.ContactTable;
+import models.Address;
+import models.Contact;
+
+/**
+ * Measures the heap held by cached contacts, as Contact objects and as a ContactTable, and how long a full GC
+ * takes with each live, without a database.
+ *
+ * Usage: ContactTableBenchmark [size]   (default 200000)
+ * Run with a fixed heap, e.g. -Xms1g -Xmx1g, so heap sizing does not skew the GC times.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactTableBenchmark {
+
+	private static final String[] FIRST = { "James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael",
+			"Linda", "David", "Elizabeth", "William", "Barbara", "Chen", "Wei", "Priya", "Ahmed", "Sofia", "Yuki" };
+	private static final String[] LAST = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller",
+			"Davis", "Rodriguez", "Martinez", "Lee", "Nguyen", "Patel", "Kim" };
+	private static final String[] COMPANIES = { "Acme", "Globex", "Initech", "Umbrella", "Hooli", "Stark" };
+	private static final String[][] CITIES = { { "Madison", "WI" }, { "Chicago", "IL" }, { "Austin", "TX" },
+			{ "Denver", "CO" }, { "Portland", "OR" }, { "Boston", "MA" } };
+
+	public static void main(String[] args) {
+		int size = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+
+		long empty = usedHeap();
+		Map<Integer, Contact> objects = new HashMap<Integer, Contact>();
+		for(Contact contact : generate(size, new Random(size))) {
+			objects.put(contact.getId(), contact);
+		}
+		long objectBytes = usedHeap() - empty;
+		long objectGcMillis = fullGcMillis();
+		// objects is used after the measurements, so it stays live during them
+		System.out.println(objects.size() + " contacts as Contact objects: " + (objectBytes / size)
+				+ " bytes/contact, full GC " + objectGcMillis + " ms");
+		objects = null;
+
+		empty = usedHeap();
+		ContactTable table = ContactTable.empty().apply(generate(size, new Random(size)),
+				Collections.<Integer>emptyList());
+		long tableBytes = usedHeap() - empty;
+		long tableGcMillis = fullGcMillis();
+		// table is used after them too
+		System.out.println(table.size() + " contacts as a ContactTable: " + (tableBytes / size)
+				+ " bytes/contact, full GC " + tableGcMillis + " ms");
+	}
+
+	/**
+	 * Helper function collects garbage until the heap stops shrinking, and returns the heap in use.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for(int i = 0; i < 10; i++) {
+			System.gc();
+			long now = runtime.totalMemory() - runtime.freeMemory();
+			if(now >= used) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+
+	/**
+	 * Helper function times full collections with the data live, taking the best of several.
+	 */
+	private static long fullGcMillis() {
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < 5; i++) {
+			long start = System.nanoTime();
+			System.gc();
+			best = Math.min(best, (System.nanoTime() - start) / 1000000);
+		}
+		return best;
+	}
+
+	/**
+	 * Helper function generates contacts with every field set, each string a separate object as read from JDBC
+	 */
+	private static List<Contact> generate(int size, Random random) {
+		List<Contact> contacts = new ArrayList<Contact>(size);
+		for(int id = 1; id <= size; id++) {
+			String first = FIRST[random.nextInt(FIRST.length)];
+			String last = LAST[random.nextInt(LAST.length)];
+			String[] city = CITIES[random.nextInt(CITIES.length)];
+			Address address = new Address(id, new String(random.nextInt(9999) + " Main St"), new String(""),
+					new String(""), new String(city[0]), new String(city[1]),
+					new String(String.valueOf(10000 + random.nextInt(89999))), new String("USA"));
+			Contact contact = new Contact(id, new String(first + " " + last),
+					new String(COMPANIES[random.nextInt(COMPANIES.length)]), null,
+					(first + "." + last + id + "@example.com").toLowerCase(),
+					LocalDate.ofEpochDay(random.nextInt(20000)),
+					new String("555-" + (1000000 + random.nextInt(8999999))),
+					new String("555-" + (1000000 + random.nextInt(8999999))), address);
+			contacts.add(contact);
+		}
+		return contacts;
+	}
+}
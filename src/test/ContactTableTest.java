@@ -0,0 +1,88 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import directory.ContactTable;
+import models.Address;
+import models.Contact;
+
+/**
+ * Unit test for the compact in-memory contact table.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ContactTableTest {
+
+	@Test
+	public void materializesWhatWasAdded() {
+		Contact full = contact(5, "Jane Doe", "Madison");
+		full.setBirthdate(LocalDate.of(1984, 2, 29));
+		full.setProfileImageHash("abc");
+		ContactTable table = ContactTable.empty().apply(Arrays.asList(full, contact(2, null, null)),
+				Collections.<Integer>emptyList());
+
+		assertEquals(2, table.size());
+		assertEquals(2, table.getId(0));
+		assertEquals(1, table.indexOf(5));
+		assertEquals(-1, table.indexOf(3));
+
+		Contact read = table.getContact(1);
+		assertEquals("Jane Doe", read.getName());
+		assertEquals("Acme", read.getCompany());
+		assertEquals(LocalDate.of(1984, 2, 29), read.getBirthdate());
+		assertEquals("abc", read.getProfileImageHash());
+		assertEquals(50, read.getAddress().getId());
+		assertEquals("Madison", read.getAddress().getCity());
+		assertEquals("WI", read.getAddress().getState());
+		assertEquals("", read.getAddress().getLine3());
+
+		read = table.getContact(0);
+		assertNull(read.getName());
+		assertNull(read.getBirthdate());
+		assertNull(read.getAddress().getCity());
+	}
+
+	@Test
+	public void appliesChangesInIdOrder() {
+		ContactTable table = ContactTable.empty().apply(Arrays.asList(contact(1, "a", "X"), contact(3, "c", "X"),
+				contact(5, "e", "X")), Collections.<Integer>emptyList());
+		table = table.apply(Arrays.asList(contact(4, "d", "Y"), contact(1, "a1", "Y"), contact(1, "a2", "Y")),
+				Arrays.asList(3, 9));
+
+		assertEquals(Arrays.asList(1, 4, 5), ids(table.asList()));
+		assertEquals("a2", table.getContact(0).getName());
+		assertEquals("e", table.getContact(2).getName());
+	}
+
+	@Test
+	public void sharesRepeatedValues() {
+		ContactTable table = ContactTable.empty().apply(Arrays.asList(contact(1, "a", new String("Madison")),
+				contact(2, "b", new String("Madison"))), Collections.<Integer>emptyList());
+		assertSame(table.getContact(0).getAddress().getCity(), table.getContact(1).getAddress().getCity());
+		assertSame(table.getContact(0).getCompany(), table.getContact(1).getCompany());
+	}
+
+	private static Contact contact(int id, String name, String city) {
+		return new Contact(id, name, new String("Acme"), null, null, null, null, null,
+				new Address(id * 10, null, null, "", city, "WI", null, "USA"));
+	}
+
+	private static List<Integer> ids(List<Contact> contacts) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for(Contact contact : contacts) {
+			ids.add(contact.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,120 @@
+package test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import dedup.DuplicateDetector;
+import models.Contact;
+import models.DuplicateCluster;
+
+/**
+ * Times duplicate detection over generated contacts, without a database.
+ *
+ * One contact in ten gets a variant (email written differently, phone formatted differently, or name reordered),
+ * and the run reports how many of those pairs were found.
+ *
+ * Usage: DuplicateDetectorBenchmark [size ...]   (default 10000 100000 1000000)
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class DuplicateDetectorBenchmark {
+
+	private static final String[] FIRST = { "James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael",
+			"Linda", "David", "Elizabeth", "William", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas",
+			"Sarah", "Charles", "Karen", "Chen", "Wei", "Priya", "Ahmed", "Sofia", "Lucas", "Yuki", "Olga" };
+	private static final String[] COMPANIES = { "Acme", "Globex", "Initech", "Umbrella", "Hooli", "Stark" };
+
+	public static void main(String[] args) {
+		int[] sizes = { 10000, 100000, 1000000 };
+		if(args.length > 0) {
+			sizes = new int[args.length];
+			for(int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			DuplicateDetector detector = new DuplicateDetector(pool, 1000);
+			// a small run first, so the JIT has compiled the detector before anything is timed
+			detector.detect(generate(20000, new Random(1)));
+			for(int size : sizes) {
+				List<Contact> contacts = generate(size, new Random(size));
+				int variants = 0;
+				for(Contact contact : contacts) {
+					variants += contact.getId() % 2;
+				}
+				long start = System.nanoTime();
+				DuplicateDetector.Result result = detector.detect(contacts);
+				long millis = (System.nanoTime() - start) / 1000000;
+
+				int found = 0;
+				for(DuplicateCluster cluster : result.getClusters()) {
+					List<Integer> ids = cluster.getIds();
+					for(int id : ids) {
+						// variants have odd ids, and their original is the id before
+						if(id % 2 == 1 && ids.contains(id - 1)) {
+							found++;
+						}
+					}
+				}
+				System.out.println(size + " contacts: " + millis + " ms, " + result.getBlocks() + " blocks ("
+						+ result.getOversizedBlocks() + " oversized), " + result.getComparisons() + " comparisons, "
+						+ result.getClusters().size() + " clusters, recall " + (100L * found / Math.max(variants, 1)) + "%");
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Helper function generates distinct contacts, with every tenth followed by a variant of it
+	 */
+	private static List<Contact> generate(int size, Random random) {
+		List<Contact> contacts = new ArrayList<Contact>(size);
+		for(int k = 0; contacts.size() < size; k++) {
+			Contact contact = new Contact(2 * k);
+			String first = FIRST[random.nextInt(FIRST.length)];
+			String last = "Surname" + Integer.toString(random.nextInt(size), 36);
+			contact.setName(first + " " + last);
+			contact.setEmail(first.toLowerCase() + "." + last.toLowerCase() + k + "@example.com");
+			contact.setWorkPhone(String.format("%03d-%03d-%04d", 200 + random.nextInt(800), random.nextInt(1000),
+					random.nextInt(10000)));
+			contact.setCompany(COMPANIES[random.nextInt(COMPANIES.length)]);
+			contact.setBirthdate(LocalDate.ofEpochDay(random.nextInt(20000)));
+			contacts.add(contact);
+			if(k % 10 == 0 && contacts.size() < size) {
+				contacts.add(variant(contact, 2 * k + 1, random));
+			}
+		}
+		return contacts;
+	}
+
+	/**
+	 * Helper function returns a copy of contact, entered differently
+	 */
+	private static Contact variant(Contact contact, int id, Random random) {
+		Contact copy = new Contact(id);
+		copy.setName(contact.getName());
+		copy.setCompany(contact.getCompany());
+		copy.setBirthdate(contact.getBirthdate());
+		switch(random.nextInt(3)) {
+		case 0:
+			String[] parts = contact.getEmail().split("@");
+			copy.setEmail(parts[0].replace(".", "") + "+home@" + parts[1].toUpperCase());
+			break;
+		case 1:
+			copy.setWorkPhone("(" + contact.getWorkPhone().replaceFirst("-", ") ").replace('-', ' '));
+			break;
+		default:
+			String[] names = contact.getName().split(" ");
+			copy.setName(names[1].toUpperCase() + ", " + names[0]);
+			break;
+		}
+		return copy;
+	}
+}
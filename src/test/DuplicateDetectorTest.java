@@ -0,0 +1,138 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import dedup.BlockingKeys;
+import dedup.DuplicateDetector;
+import models.Contact;
+import models.DuplicateCluster;
+
+/**
+ * Unit test for finding duplicate contacts.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class DuplicateDetectorTest {
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(2);
+
+	@AfterClass
+	public static void shutdown() {
+		POOL.shutdownNow();
+	}
+
+	@Test
+	public void matchesEmailVariants() {
+		List<DuplicateCluster> clusters = detect(
+				contact(1, "Jane Doe", "Jane.Doe+work@Example.com", null, null),
+				contact(2, "J. Doe", "janedoe@example.com", null, null),
+				contact(3, "Jane Doe", "jane.doe@example.com", null, null),
+				contact(4, "John Smith", "john@example.com", null, null));
+		assertEquals(1, clusters.size());
+		assertEquals(Arrays.asList(1, 2, 3), clusters.get(0).getIds());
+	}
+
+	@Test
+	public void matchesPhoneFormats() {
+		List<DuplicateCluster> clusters = detect(
+				contact(5, "Robert Brown", null, "(555) 123-4567", null),
+				contact(6, "Bob Robert Brown", null, "+1 555.123.4567", null),
+				contact(7, "Alice Green", null, "555-123-4567", null));
+		assertEquals(1, clusters.size());
+		assertEquals(Arrays.asList(5, 6), clusters.get(0).getIds());
+	}
+
+	@Test
+	public void matchesReorderedNames() {
+		LocalDate birthdate = LocalDate.of(1980, 2, 29);
+		List<DuplicateCluster> clusters = detect(
+				contact(8, "Garc\u00eda, Mar\u00eda", null, null, birthdate),
+				contact(9, "maria garcia", null, null, birthdate),
+				contact(10, "Maria Garcia", null, null, LocalDate.of(1981, 3, 1)));
+		assertEquals(1, clusters.size());
+		assertEquals(Arrays.asList(8, 9), clusters.get(0).getIds());
+	}
+
+	@Test
+	public void keepsDistinctContactsApart() {
+		List<DuplicateCluster> clusters = detect(
+				contact(11, "Ann Lee", "ann@example.com", "555-000-1111", null),
+				contact(12, "Tom Lee", "tom@example.com", "555-000-1111", null),
+				contact(13, "Ann Lee", "ann.lee@other.org", null, null));
+		assertEquals(0, clusters.size());
+	}
+
+	@Test
+	public void skipsOversizedBlocks() {
+		Contact[] contacts = new Contact[5];
+		for(int i = 0; i < contacts.length; i++) {
+			contacts[i] = contact(i + 1, "Sam Jones", "info" + i + "@example.com", "555-999-0000", null);
+		}
+		DuplicateDetector.Result result = new DuplicateDetector(POOL, 4).detect(Arrays.asList(contacts));
+		assertEquals(0, result.getClusters().size());
+		assertEquals(0, result.getComparisons());
+	}
+
+	@Test
+	public void comparesPairsSharingAnOversizedBlockWithAHighKey() {
+		// a pair sharing its email and an oversized phone block whose key has its top bit set, and comes first
+		String email = null;
+		for(int i = 0; email == null; i++) {
+			if(key("dup" + i + "@example.com", null) < 0) {
+				email = "dup" + i + "@example.com";
+			}
+		}
+		String highPhone = null;
+		String[] lowPhones = new String[2];
+		int low = 0;
+		for(int i = 0; highPhone == null || low < lowPhones.length; i++) {
+			String phone = "555" + (1000000 + i);
+			long key = key(null, phone);
+			if(key < 0 && (key >>> 24) < (key(email, null) >>> 24)) {
+				highPhone = phone;
+			} else if(key >= 0 && low < lowPhones.length) {
+				lowPhones[low++] = phone;
+			}
+		}
+
+		Contact[] contacts = new Contact[6];
+		contacts[0] = contact(1, null, email, highPhone, null);
+		contacts[1] = contact(2, null, email, highPhone, null);
+		contacts[2] = contact(3, null, "other@example.com", highPhone, null);
+		for(int i = 3; i < contacts.length; i++) {
+			contacts[i] = contact(i + 1, null, "filler" + i + "@example.com", lowPhones[0], null);
+			contacts[i].setPersonalPhone(lowPhones[1]);
+		}
+		List<DuplicateCluster> clusters = new DuplicateDetector(POOL, 2).detect(Arrays.asList(contacts)).getClusters();
+		assertEquals(1, clusters.size());
+		assertEquals(Arrays.asList(1, 2), clusters.get(0).getIds());
+	}
+
+	private static long key(String email, String phone) {
+		return BlockingKeys.keys(BlockingKeys.emailLocalPart(email), new String[] { BlockingKeys.phoneDigits(phone) },
+				new ArrayList<String>())[0];
+	}
+
+	private static List<DuplicateCluster> detect(Contact... contacts) {
+		return new DuplicateDetector(POOL, 100).detect(Arrays.asList(contacts)).getClusters();
+	}
+
+	private static Contact contact(int id, String name, String email, String phone, LocalDate birthdate) {
+		Contact contact = new Contact(id);
+		contact.setName(name);
+		contact.setEmail(email);
+		contact.setWorkPhone(phone);
+		contact.setBirthdate(birthdate);
+		return contact;
+	}
+}
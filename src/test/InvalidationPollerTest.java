@@ -0,0 +1,169 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import dbaccess.ContactDAO;
+import events.InvalidationPoller;
+import models.ContactInvalidation;
+import models.ContactInvalidation.Type;
+
+/**
+ * Unit test for two nodes keeping each other's caches fresh through a shared invalidation log.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class InvalidationPollerTest {
+
+	/**
+	 * Invalidation log shared by the nodes, read the way ContactDAO reads the contact_invalidation table
+	 */
+	private static class SharedLog extends ContactDAO {
+		private final List<ContactInvalidation> entries = new ArrayList<ContactInvalidation>();
+
+		SharedLog() {
+			super("jdbc:test", null, null);
+		}
+
+		/**
+		 * Adds the entries of one write at once, as its transaction commits them
+		 */
+		synchronized void write(long seq, Type type, String node, int... ids) {
+			for(int id : ids) {
+				entries.add(new ContactInvalidation(seq, id, type, node));
+			}
+		}
+
+		@Override
+		public synchronized List<ContactInvalidation> listInvalidationsSince(long seq, int limit) {
+			List<ContactInvalidation> page = new ArrayList<ContactInvalidation>();
+			long last = Long.MAX_VALUE;
+			for(ContactInvalidation entry : entries) {
+				if(entry.getSeq() > seq && entry.getSeq() <= last) {
+					page.add(entry);
+					if(page.size() == limit) {
+						// the rest of the last seq is returned too
+						last = entry.getSeq();
+					}
+				}
+			}
+			return page;
+		}
+
+		@Override
+		public synchronized long getLatestInvalidation() {
+			return entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getSeq();
+		}
+
+		@Override
+		public int pruneInvalidations(long retentionSeconds, int batchSize) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Collects what a node is told
+	 */
+	private static class Received implements InvalidationPoller.Listener {
+		final List<ContactInvalidation> invalidations = new ArrayList<ContactInvalidation>();
+		int invalidatedAll = 0;
+
+		// @Override
+		public synchronized void invalidated(List<ContactInvalidation> received) {
+			invalidations.addAll(received);
+		}
+
+		// @Override
+		public synchronized void invalidatedAll() {
+			invalidatedAll++;
+		}
+	}
+
+	@Test
+	public void nodesHearEachOthersWritesOnly() {
+		SharedLog log = new SharedLog();
+		log.write(1, Type.INSERT, "a", 7);
+		InvalidationPoller nodeA = poller(log, "a");
+		InvalidationPoller nodeB = poller(log, "b");
+		Received receivedA = new Received();
+		Received receivedB = new Received();
+		nodeA.addListener(receivedA);
+		nodeB.addListener(receivedB);
+		try {
+			nodeA.poll();
+			nodeB.poll();
+
+			log.write(2, Type.UPDATE, "a", 7);
+			log.write(3, Type.INSERT, "b", 8);
+			log.write(4, Type.DELETE, null, 7);
+			nodeA.poll();
+			nodeB.poll();
+
+			// entries from before a node started are not replayed
+			assertEquals(list(3, 4), seqs(receivedA.invalidations));
+			assertEquals(list(2, 4), seqs(receivedB.invalidations));
+			assertEquals(Type.DELETE, receivedB.invalidations.get(1).getType());
+
+			nodeB.poll();
+			assertEquals(2, receivedB.invalidations.size());
+			assertEquals(0, receivedA.invalidatedAll + receivedB.invalidatedAll);
+		} finally {
+			nodeA.close();
+			nodeB.close();
+		}
+	}
+
+	@Test
+	public void readsWritesLargerThanOnePoll() {
+		SharedLog log = new SharedLog();
+		InvalidationPoller node = poller(log, "b");
+		Received received = new Received();
+		node.addListener(received);
+		try {
+			node.poll();
+			int[] inserted = new int[2500];
+			for(int id = 0; id < inserted.length; id++) {
+				inserted[id] = id;
+			}
+			log.write(1, Type.INSERT, "a", inserted);
+			for(int seq = 2; seq < 1500; seq++) {
+				log.write(seq, Type.UPDATE, "a", seq);
+			}
+			node.poll();
+
+			assertEquals(2500 + 1498, received.invalidations.size());
+			assertEquals(1499, received.invalidations.get(received.invalidations.size() - 1).getSeq());
+			assertTrue(received.invalidatedAll == 0);
+		} finally {
+			node.close();
+		}
+	}
+
+	private static InvalidationPoller poller(ContactDAO log, String nodeId) {
+		// after its first poll, polled by the test only
+		return new InvalidationPoller(Collections.singletonList(log), nodeId, 60 * 60 * 1000, 24 * 60 * 60 * 1000);
+	}
+
+	private static List<Long> seqs(List<ContactInvalidation> invalidations) {
+		List<Long> seqs = new ArrayList<Long>();
+		for(ContactInvalidation invalidation : invalidations) {
+			seqs.add(invalidation.getSeq());
+		}
+		return seqs;
+	}
+
+	private static List<Long> list(long... seqs) {
+		List<Long> list = new ArrayList<Long>();
+		for(long seq : seqs) {
+			list.add(seq);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,24 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import dbaccess.QueryLog;
+
+/**
+ * Unit test for the statement shapes the slow query log groups queries by.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class QueryLogTest {
+
+	@Test
+	public void normalizesLiteralsAndLists() {
+		assertEquals("SELECT * FROM contact c WHERE c.id IN (?+) AND c.email LIKE ? LIMIT ?",
+				QueryLog.normalize("SELECT *  FROM contact c\n WHERE c.id IN (?, ?,?) AND c.email LIKE 'o''neil%' LIMIT 10"));
+		assertEquals(QueryLog.normalize("SELECT 1 FROM contact WHERE id IN (?, ?)"),
+				QueryLog.normalize("SELECT 2 FROM contact WHERE id IN (?, ?, ?, ?)"));
+	}
+}
@@ -0,0 +1,66 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dbaccess.ReplicaRouter;
+
+/**
+ * Unit test for choosing read replicas and sending recent writers to the primary.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ReplicaRouterTest {
+
+	@Test
+	public void choosesTheLeastLoadedReplica() {
+		ReplicaRouter router = new ReplicaRouter(Arrays.asList("jdbc:a", "jdbc:b", "jdbc:c"), 1000);
+		int first = router.acquire();
+		int second = router.acquire();
+		int third = router.acquire();
+		assertEquals(3, first + second + third);
+		assertEquals(1, router.getInFlight(0));
+
+		// only replica 1 has nothing in flight, wherever the round-robin starts
+		router.release(1);
+		for(int i = 0; i < 3; i++) {
+			int chosen = router.acquire();
+			assertEquals(1, chosen);
+			router.release(chosen);
+		}
+		assertEquals(0, router.getInFlight(1));
+		assertEquals("jdbc:b", router.getURL(1));
+	}
+
+	@Test
+	public void spreadsTiesRoundRobin() {
+		ReplicaRouter router = new ReplicaRouter(Arrays.asList("jdbc:a", "jdbc:b", "jdbc:c"), 1000);
+		int[] chosen = new int[6];
+		for(int i = 0; i < chosen.length; i++) {
+			chosen[i] = router.acquire();
+			router.release(chosen[i]);
+		}
+		assertEquals("[0, 1, 2, 0, 1, 2]", Arrays.toString(chosen));
+	}
+
+	@Test
+	public void sendsRecentWritersToThePrimary() throws InterruptedException {
+		ReplicaRouter router = new ReplicaRouter(Arrays.asList("jdbc:a"), 100);
+		assertFalse(router.mustReadPrimary("client"));
+		assertFalse(router.mustReadPrimary(null));
+
+		router.recordWrite("client");
+		router.recordWrite(null);
+		assertTrue(router.mustReadPrimary("client"));
+		assertFalse(router.mustReadPrimary("other"));
+
+		Thread.sleep(150);
+		assertFalse(router.mustReadPrimary("client"));
+	}
+}
@@ -0,0 +1,57 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import dbaccess.RequestTiming;
+import dbaccess.RequestTiming.Phase;
+
+/**
+ * Unit test for the phases of a request reported in the Server-Timing header.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class RequestTimingTest {
+
+	@Test
+	public void formatsPhasesThatTookTime() {
+		RequestTiming timing = new RequestTiming();
+		timing.add(Phase.DB_CONNECT, 800000);
+		timing.add(Phase.DB_QUERY, 12000000);
+		timing.add(Phase.DB_QUERY, 500000);
+
+		String header = timing.toServerTiming();
+		assertTrue(header, header.startsWith("db-connect;dur=0.8, db-query;dur=12.5, total;dur="));
+		String fields = timing.toLogFields();
+		assertTrue(fields, fields.startsWith("total="));
+		assertTrue(fields, fields.endsWith(" db-connect=0.8 db-query=12.5"));
+	}
+
+	@Test
+	public void timesOnlyExecutions() throws Exception {
+		RequestTiming timing = new RequestTiming();
+		PreparedStatement statement = timing.wrap((PreparedStatement) Proxy.newProxyInstance(
+				RequestTimingTest.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+
+			// @Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Thread.sleep(20);
+				return method.getName().equals("executeUpdate") ? Integer.valueOf(1) : null;
+			}
+		}));
+
+		statement.setInt(1, 42);
+		assertEquals(0, timing.getNanos(Phase.DB_QUERY));
+		assertEquals(1, statement.executeUpdate());
+		assertTrue(timing.getNanos(Phase.DB_QUERY) >= TimeUnit.MILLISECONDS.toNanos(20));
+	}
+}
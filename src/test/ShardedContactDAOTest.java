@@ -0,0 +1,78 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import dbaccess.ContactSort;
+import dbaccess.ShardedContactDAO;
+import models.Contact;
+
+/**
+ * Unit test for merging the results of the shards of a list or search.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ShardedContactDAOTest {
+
+	@Test
+	public void mergesInIdOrderUpToTheLimit() {
+		List<List<Contact>> shards = Arrays.asList(contacts(1, 4, 7, 10), contacts(2, 5, 8), contacts(3, 6, 9, 12));
+
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 12),
+				ids(ShardedContactDAO.merge(shards, ContactSort.BY_ID, 0)));
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5), ids(ShardedContactDAO.merge(shards, ContactSort.BY_ID, 5)));
+		assertEquals(11, ShardedContactDAO.merge(shards, ContactSort.BY_ID, 100).size());
+	}
+
+	@Test
+	public void breaksTiesById() {
+		ContactSort byName = new ContactSort(ContactSort.Field.NAME, false);
+		List<Contact> first = Arrays.asList(contact(4, "Ann"), contact(1, "Bob"), contact(7, "Bob"));
+		List<Contact> second = Arrays.asList(contact(2, "Ann"), contact(5, "Ann"), contact(3, "Bob"));
+
+		assertEquals(Arrays.asList(2, 4, 5, 1, 3, 7),
+				ids(ShardedContactDAO.merge(Arrays.asList(first, second), byName.comparator(), 0)));
+		assertEquals(Arrays.asList(2, 4, 5, 1),
+				ids(ShardedContactDAO.merge(Arrays.asList(second, first), byName.comparator(), 4)));
+	}
+
+	@Test
+	public void mergesEmptyAndUnevenShards() {
+		List<Contact> empty = Collections.emptyList();
+
+		assertEquals(0, ShardedContactDAO.merge(new ArrayList<List<Contact>>(), ContactSort.BY_ID, 10).size());
+		assertEquals(0, ShardedContactDAO.merge(Arrays.asList(empty, empty), ContactSort.BY_ID, 10).size());
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6),
+				ids(ShardedContactDAO.merge(Arrays.asList(empty, contacts(1, 2, 3, 4, 5), empty, contacts(6)),
+						ContactSort.BY_ID, 0)));
+	}
+
+	private static List<Contact> contacts(int... ids) {
+		List<Contact> contacts = new ArrayList<Contact>();
+		for(int id : ids) {
+			contacts.add(new Contact(id));
+		}
+		return contacts;
+	}
+
+	private static Contact contact(int id, String name) {
+		Contact contact = new Contact(id);
+		contact.setName(name);
+		return contact;
+	}
+
+	private static List<Integer> ids(List<Contact> contacts) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for(Contact contact : contacts) {
+			ids.add(contact.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,50 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dbaccess.Shards;
+
+/**
+ * Unit test for the placement of contacts on shards.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ShardsTest {
+
+	@Test
+	public void placesByHash() {
+		Shards shards = new Shards(Arrays.asList("jdbc:a", "jdbc:b", "jdbc:c"));
+		try {
+			// ids handed out with auto_increment_increment = 3 and offsets 1, 2, 3
+			assertEquals(0, shards.shardOf(1));
+			assertEquals(1, shards.shardOf(2));
+			assertEquals(2, shards.shardOf(3));
+			assertEquals(0, shards.shardOf(4));
+			assertEquals(0, shards.shardForInsert());
+			assertEquals(1, shards.shardForInsert());
+			assertEquals(2, shards.shardForInsert());
+			assertEquals(0, shards.shardForInsert());
+		} finally {
+			shards.close();
+		}
+	}
+
+	@Test
+	public void placesByRange() {
+		Shards shards = new Shards(Arrays.asList("jdbc:a", "jdbc:b"), new int[] { 1, 1000 });
+		try {
+			assertEquals(0, shards.shardOf(1));
+			assertEquals(0, shards.shardOf(999));
+			assertEquals(1, shards.shardOf(1000));
+			assertEquals(1, shards.shardOf(5000));
+			assertEquals(1, shards.shardForInsert());
+		} finally {
+			shards.close();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import images.ThumbnailCache;
+
+/**
+ * Unit test for the size-bounded LRU eviction of ThumbnailCache.
+ *
+ * @author Rebecca Chandler
+ *
+ */
+public class ThumbnailCacheTest {
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws IOException {
+		File directory = Files.createTempDirectory("thumbnails").toFile();
+		ThumbnailCache cache = new ThumbnailCache(directory, 250);
+
+		cache.put("a", new byte[100]).close();
+		cache.put("b", new byte[100]).close();
+		close(cache.get("a")); // a is now more recent than b
+		cache.put("c", new byte[100]).close();
+
+		close(cache.get("a"));
+		assertNull(cache.get("b"));
+		close(cache.get("c"));
+		assertEquals(200, cache.size());
+
+		// entries survive a restart
+		ThumbnailCache reopened = new ThumbnailCache(directory, 250);
+		assertEquals(200, reopened.size());
+		close(reopened.get("c"));
+	}
+
+	@Test
+	public void readsEntriesEvictedWhileOpen() throws IOException {
+		File directory = Files.createTempDirectory("thumbnails").toFile();
+		ThumbnailCache cache = new ThumbnailCache(directory, 150);
+
+		cache.put("a", new byte[] { 1, 2, 3 }).close();
+		FileChannel channel = cache.get("a");
+		cache.put("b", new byte[149]).close();
+		assertNull(cache.get("a"));
+
+		ByteBuffer buffer = ByteBuffer.allocate(3);
+		try {
+			assertEquals(3, channel.read(buffer, 0));
+		} finally {
+			channel.close();
+		}
+		assertEquals(3, buffer.get(2));
+	}
+
+	private static void close(FileChannel channel) throws IOException {
+		assertNotNull(channel);
+		channel.close();
+	}
+}